@@ -0,0 +1,103 @@
+package eu.europeana.keycloak.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exposes the state of the HikariCP connection pool (active, idle, pending connections) and the time it takes to
+ * acquire a connection in the actuator metrics endpoint. To do this it registers itself as metrics tracker factory on
+ * the HikariDataSource when it's created. With the default Tomcat pool no metrics are added here (Spring-Boot already
+ * exports the number of active connections as datasource.primary.active).
+ *
+ * This class is only compiled by the hikari Maven profile, which adds the HikariCP dependency.
+ */
+@Component
+public class ConnectionPoolMetrics implements PublicMetrics, BeanPostProcessor, MetricsTrackerFactory {
+
+    private static final Logger LOG = LogManager.getLogger(ConnectionPoolMetrics.class);
+
+    private static final String PREFIX = "datasource.pool.";
+
+    private final LatencyHistogram acquireTimes = new LatencyHistogram();
+    private final LatencyHistogram usageTimes = new LatencyHistogram();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource) {
+            HikariDataSource dataSource = (HikariDataSource) bean;
+            if (dataSource.getMetricsTrackerFactory() == null && dataSource.getMetricRegistry() == null) {
+                LOG.info("Tracking connection pool metrics of datasource {}", beanName);
+                dataSource.setMetricsTrackerFactory(this);
+            }
+        }
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats stats) {
+        this.poolStats = stats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                created.incrementAndGet();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTimes.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTimes.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.incrementAndGet();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        PoolStats stats = poolStats;
+        if (stats == null) {
+            return Collections.emptyList();
+        }
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "active", stats.getActiveConnections()));
+        result.add(new Metric<>(PREFIX + "idle", stats.getIdleConnections()));
+        result.add(new Metric<>(PREFIX + "total", stats.getTotalConnections()));
+        result.add(new Metric<>(PREFIX + "max", stats.getMaxConnections()));
+        result.add(new Metric<>(PREFIX + "pending", stats.getPendingThreads()));
+        result.add(new Metric<>(PREFIX + "created", created.get()));
+        result.add(new Metric<>(PREFIX + "timeouts", timeouts.get()));
+        LatencyHistogramMetrics.add(result, PREFIX + "acquire", acquireTimes);
+        LatencyHistogramMetrics.add(result, PREFIX + "usage", usageTimes);
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package eu.europeana.keycloak.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the metrics tracker is registered on a HikariDataSource and that the pool state is exported
+ */
+public class ConnectionPoolMetricsTest {
+
+    private ConnectionPoolMetrics metrics;
+    private HikariDataSource dataSource;
+
+    @Before
+    public void setup() {
+        metrics = new ConnectionPoolMetrics();
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:pool-metrics;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(2);
+        dataSource.setMinimumIdle(0);
+    }
+
+    @After
+    public void cleanup() {
+        dataSource.close();
+    }
+
+    @Test
+    public void testNoMetricsBeforePoolStarted() {
+        assertTrue(metrics.metrics().isEmpty());
+    }
+
+    @Test
+    public void testRegisteredOnHikariDataSource() {
+        assertSame(dataSource, metrics.postProcessBeforeInitialization(dataSource, "dataSource"));
+        assertSame(metrics, dataSource.getMetricsTrackerFactory());
+
+        Object other = new Object();
+        assertSame(other, metrics.postProcessBeforeInitialization(other, "other"));
+    }
+
+    @Test
+    public void testMetricsExported() throws SQLException {
+        metrics.postProcessBeforeInitialization(dataSource, "dataSource");
+
+        Map<String, Number> values;
+        try (Connection connection = dataSource.getConnection()) {
+            // pool stats are only refreshed once per second, so we check them while the connection is still in use
+            values = toMap(metrics.metrics());
+            assertEquals(1, values.get("datasource.pool.active").intValue());
+        }
+
+        assertEquals(2, values.get("datasource.pool.max").intValue());
+        assertEquals(0, values.get("datasource.pool.timeouts").intValue());
+        assertTrue(values.get("datasource.pool.created").longValue() >= 1);
+        assertTrue(values.get("datasource.pool.acquire.count").longValue() >= 1);
+        assertNull(values.get("datasource.primary.active"));
+    }
+
+    private static Map<String, Number> toMap(Collection<Metric<?>> metrics) {
+        Map<String, Number> result = new HashMap<>();
+        for (Metric<?> metric : metrics) {
+            result.put(metric.getName(), metric.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,33 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.ForwardEvent;
+import eu.europeana.keycloak.jfr.JfrEventFactory;
+import eu.europeana.keycloak.jfr.KeycloakSessionEvent;
+import eu.europeana.keycloak.jfr.PasswordHashEvent;
+import eu.europeana.keycloak.jfr.StartupPhaseEvent;
+
+/**
+ * Creates our custom events with the jdk.jfr API. Loaded by {@link eu.europeana.keycloak.jfr.JfrSupport}
+ */
+public class JdkEventFactory implements JfrEventFactory {
+
+    @Override
+    public ForwardEvent newForwardEvent() {
+        return new JdkForwardEvent();
+    }
+
+    @Override
+    public KeycloakSessionEvent newKeycloakSessionEvent() {
+        return new JdkKeycloakSessionEvent();
+    }
+
+    @Override
+    public PasswordHashEvent newPasswordHashEvent() {
+        return new JdkPasswordHashEvent();
+    }
+
+    @Override
+    public StartupPhaseEvent newStartupPhaseEvent() {
+        return new JdkStartupPhaseEvent();
+    }
+}
@@ -0,0 +1,51 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.ForwardEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for a request that is forwarded from one of our short urls to Keycloak
+ */
+@Name(ForwardEvent.NAME)
+@Label("Forward")
+@Description("Request forwarded from a short url to Keycloak")
+@Category({"Europeana", "Forward"})
+@Threshold("10 ms")
+public class JdkForwardEvent extends jdk.jfr.Event implements ForwardEvent {
+
+    @Label("Method")
+    String method;
+
+    @Label("Path")
+    String path;
+
+    @Label("Forward Path")
+    String forwardPath;
+
+    @Label("Status")
+    int status;
+
+    @Override
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    @Override
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public void setForwardPath(String forwardPath) {
+        this.forwardPath = forwardPath;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,55 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.KeycloakSessionEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a request handled by Keycloak, lasting from opening the Keycloak session until the session's
+ * transaction is committed (or rolled back) and the session is closed
+ */
+@Name(KeycloakSessionEvent.NAME)
+@Label("Keycloak Session")
+@Description("Keycloak session opened for a request, including its transaction")
+@Category({"Europeana", "Keycloak"})
+@Threshold("10 ms")
+public class JdkKeycloakSessionEvent extends jdk.jfr.Event implements KeycloakSessionEvent {
+
+    @Label("Method")
+    String method;
+
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+
+    @Label("Transaction Completion")
+    @Description("Time spent committing or rolling back the transaction and closing the session")
+    @Timespan(Timespan.NANOSECONDS)
+    long completionTime;
+
+    @Override
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    @Override
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void setCompletionTime(long completionTime) {
+        this.completionTime = completionTime;
+    }
+}
@@ -0,0 +1,49 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.PasswordHashEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for encoding or verifying a password, including the time spent waiting for the password hashing pool
+ */
+@Name(PasswordHashEvent.NAME)
+@Label("Password Hash")
+@Description("Password encoded or verified")
+@Category({"Europeana", "Password Hashing"})
+public class JdkPasswordHashEvent extends jdk.jfr.Event implements PasswordHashEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Log Rounds")
+    int logRounds;
+
+    @Label("Verified")
+    boolean verified;
+
+    @Override
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    @Override
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    @Override
+    public void setLogRounds(int logRounds) {
+        this.logRounds = logRounds;
+    }
+
+    @Override
+    public void setVerified(boolean verified) {
+        this.verified = verified;
+    }
+}
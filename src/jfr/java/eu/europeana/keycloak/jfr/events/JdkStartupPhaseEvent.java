@@ -0,0 +1,26 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.StartupPhaseEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a start-up phase, such as bootstrapping the Keycloak application
+ * @see eu.europeana.keycloak.StartupTimer
+ */
+@Name(StartupPhaseEvent.NAME)
+@Label("Start-up Phase")
+@Description("Phase of the application start-up")
+@Category({"Europeana", "Start-up"})
+public class JdkStartupPhaseEvent extends jdk.jfr.Event implements StartupPhaseEvent {
+
+    @Label("Phase")
+    String phase;
+
+    @Override
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+}
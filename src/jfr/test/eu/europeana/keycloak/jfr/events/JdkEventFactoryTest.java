@@ -0,0 +1,83 @@
+package eu.europeana.keycloak.jfr.events;
+
+import eu.europeana.keycloak.jfr.ForwardEvent;
+import eu.europeana.keycloak.jfr.JfrSupport;
+import eu.europeana.keycloak.jfr.PasswordHashEvent;
+import eu.europeana.keycloak.jfr.StartupPhaseEvent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that our custom events end up in a flight recording with their fields
+ */
+public class JdkEventFactoryTest {
+
+    @Test
+    public void testEventsRecorded() throws IOException {
+        assertTrue(JfrSupport.isEnabled());
+        Path file = Files.createTempFile("europeana", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(ForwardEvent.NAME).withThreshold(Duration.ZERO);
+            recording.enable(PasswordHashEvent.NAME);
+            recording.enable(StartupPhaseEvent.NAME);
+            recording.setDestination(file);
+            recording.start();
+
+            ForwardEvent forward = JfrSupport.getEventFactory().newForwardEvent();
+            forward.begin();
+            forward.end();
+            forward.setMethod("POST");
+            forward.setPath("/oidc/token");
+            forward.setForwardPath("/auth/realms/europeana/protocol/openid-connect/token");
+            forward.setStatus(200);
+            forward.commit();
+
+            PasswordHashEvent hash = JfrSupport.getEventFactory().newPasswordHashEvent();
+            hash.begin();
+            hash.end();
+            hash.setOperation(PasswordHashEvent.VERIFY);
+            hash.setAlgorithm("BCrypt");
+            hash.setLogRounds(13);
+            hash.setVerified(true);
+            hash.commit();
+
+            StartupPhaseEvent phase = JfrSupport.getEventFactory().newStartupPhaseEvent();
+            phase.setPhase("test");
+            phase.begin();
+            phase.commit();
+
+            // writes the recording to the destination file
+            recording.stop();
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            RecordedEvent recordedForward = find(events, ForwardEvent.NAME);
+            assertEquals("/oidc/token", recordedForward.getString("path"));
+            assertEquals(200, recordedForward.getInt("status"));
+            RecordedEvent recordedHash = find(events, PasswordHashEvent.NAME);
+            assertEquals(13, recordedHash.getInt("logRounds"));
+            assertTrue(recordedHash.getBoolean("verified"));
+            assertEquals("test", find(events, StartupPhaseEvent.NAME).getString("phase"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        Optional<RecordedEvent> event = events.stream()
+                .filter(e -> name.equals(e.getEventType().getName())).findFirst();
+        assertTrue("No " + name + " event recorded", event.isPresent());
+        return event.get();
+    }
+}
@@ -0,0 +1,85 @@
+package eu.europeana.keycloak.password;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.keycloak.credential.CredentialModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput and latency of BCrypt encoding and verification for different costs, password and pepper
+ * lengths, both on a single thread and with all cores competing.
+ *
+ * Run with mvn -P benchmark verify (see readme.md)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BCryptPasswordHashProviderBenchmark {
+
+    @Param({"10", "11", "12", "13", "14"})
+    private int logRounds;
+
+    @Param({"8", "64"})
+    private int passwordLength;
+
+    @Param({"0", "32"})
+    private int pepperLength;
+
+    private BCryptPasswordHashProvider provider;
+    private String password;
+    private CredentialModel credential;
+
+    @Setup
+    public void setup() {
+        provider = new BCryptPasswordHashProvider("BCrypt", logRounds, RandomStringUtils.randomAlphanumeric(pepperLength),
+                null, null);
+        password = RandomStringUtils.randomAlphanumeric(passwordLength);
+        credential = new CredentialModel();
+        provider.encode(password, -1, credential);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CredentialModel encodeSingleThread() {
+        return encode();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public CredentialModel encodeAllCores() {
+        return encode();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean verifySingleThread() {
+        return provider.verify(password, credential);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean verifyAllCores() {
+        return provider.verify(password, credential);
+    }
+
+    private CredentialModel encode() {
+        CredentialModel result = new CredentialModel();
+        provider.encode(password, -1, result);
+        return result;
+    }
+}
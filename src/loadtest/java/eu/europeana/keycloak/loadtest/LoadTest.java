@@ -0,0 +1,151 @@
+package eu.europeana.keycloak.loadtest;
+
+import eu.europeana.keycloak.EmbeddedKeycloakApp;
+import eu.europeana.keycloak.EmbeddedKeycloakApplication;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline end-to-end load test. Starts the application on an in-memory H2 database, seeds a realm with clients and
+ * users, and then drives the token (client credentials and password grant), introspection, userinfo and certs routes
+ * one after the other at a fixed concurrency. Throughput and latency percentiles per route are logged and written as
+ * JSON. The exit code is 1 if the error rate of any route is higher than the allowed percentage, or when a baseline
+ * (the JSON result of an earlier run) is provided and any route regressed by more than the allowed percentage.
+ *
+ * Settings are read from system properties (loadtest.*), see the loadtest profile in the pom.
+ */
+public final class LoadTest {
+
+    private static final Logger LOG = LogManager.getLogger(LoadTest.class);
+
+    static final String PATH_TOKEN = "/oidc/token";
+    private static final String PATH_INTROSPECT = "/oidc/token/introspect";
+    private static final String PATH_USERINFO = "/oidc/userinfo";
+    private static final String PATH_CERTS = "/oidc/certs";
+
+    private LoadTest() {
+        // empty constructor to avoid initialization
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.getInteger("loadtest.port", 18080);
+        int clients = Math.max(1, Integer.getInteger("loadtest.clients", 10));
+        int users = Math.max(1, Integer.getInteger("loadtest.users", 100));
+        int concurrency = Math.max(1, Integer.getInteger("loadtest.concurrency", 16));
+        long warmupMillis = Long.getLong("loadtest.warmup", 10) * 1000L;
+        long measureMillis = Long.getLong("loadtest.duration", 30) * 1000L;
+        Path resultFile = Paths.get(System.getProperty("loadtest.result", "target/loadtest-result.json"));
+        String baseline = System.getProperty("loadtest.baseline", "");
+        double maxRegression = Double.parseDouble(System.getProperty("loadtest.max-regression", "10"));
+        double maxErrorRate = Double.parseDouble(System.getProperty("loadtest.max-error-rate", "1"));
+
+        ConfigurableApplicationContext context = startApplication(port, args);
+        int exitCode;
+        try {
+            KeycloakSessionFactory sessionFactory = EmbeddedKeycloakApplication.getKeycloakSessionFactory();
+            if (sessionFactory == null) {
+                throw new IllegalStateException("Keycloak is not started");
+            }
+            LoadTestRealm realm = LoadTestRealm.create(sessionFactory, clients, users,
+                    resultFile.toAbsolutePath().getParent().resolve("loadtest"));
+            LoadTestClient http = new LoadTestClient("http://localhost:" + port);
+            realm.fetchUserTokens(http, users);
+
+            Map<String, Map<String, Number>> results = new LinkedHashMap<>();
+            for (RouteLoad route : createRoutes(realm, http)) {
+                LOG.info("Running {} with {} threads for {} s (after {} s warm-up)...", route.getName(), concurrency,
+                        measureMillis / 1000, warmupMillis / 1000);
+                route.run(concurrency, warmupMillis, measureMillis);
+                results.put(route.getName(), route.getResult());
+                LOG.info("{}: {}", route.getName(), results.get(route.getName()));
+            }
+            LoadTestReport.write(resultFile, results);
+            LOG.info("Results written to {}", resultFile);
+            exitCode = Math.max(checkErrors(results, maxErrorRate),
+                    compareWithBaseline(results, baseline, maxRegression));
+        } finally {
+            SpringApplication.exit(context);
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext startApplication(int port, String[] args) {
+        // these are used in META-INF/keycloak-server.json
+        System.setProperty("keycloak.connectionsJpa.driver", "org.h2.Driver");
+        System.setProperty("keycloak.connectionsJpa.driverDialect", "org.hibernate.dialect.H2Dialect");
+        System.setProperty("keycloak.connectionsJpa.user", "sa");
+        System.setProperty("keycloak.connectionsJpa.password", "");
+
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--server.port=" + port);
+        arguments.add("--spring.datasource.driverClassName=org.h2.Driver");
+        arguments.add("--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        arguments.add("--spring.datasource.username=sa");
+        arguments.add("--keycloak.warmup.enabled=false");
+        arguments.add("--keycloak.preload.enabled=false");
+        for (String arg : args) {
+            // e.g. --spring.profiles.active=hikari to test with another connection pool
+            if (StringUtils.isNotBlank(arg)) {
+                arguments.add(arg);
+            }
+        }
+        return SpringApplication.run(EmbeddedKeycloakApp.class, arguments.toArray(new String[0]));
+    }
+
+    private static List<RouteLoad> createRoutes(LoadTestRealm realm, LoadTestClient http) {
+        List<RouteLoad> routes = new ArrayList<>();
+        routes.add(new RouteLoad("token-client-credentials", i ->
+                http.post(PATH_TOKEN, realm.getClientCredentialsGrant(realm.getClientId(i)), null)));
+        routes.add(new RouteLoad("token-password", i ->
+                http.post(PATH_TOKEN, realm.getPasswordGrant(realm.getClientId(i), realm.getUsername(i)), null)));
+        routes.add(new RouteLoad("introspect", i ->
+                http.post(PATH_INTROSPECT, realm.getIntrospection(realm.getClientId(i), realm.getUserToken(i)), null)));
+        routes.add(new RouteLoad("userinfo", i ->
+                http.post(PATH_USERINFO, new LinkedHashMap<>(), "Bearer " + realm.getUserToken(i))));
+        routes.add(new RouteLoad("certs", i -> http.get(PATH_CERTS)));
+        return routes;
+    }
+
+    private static int checkErrors(Map<String, Map<String, Number>> results, double maxErrorRate) {
+        List<String> failures = LoadTestReport.findErrors(results, maxErrorRate);
+        for (String failure : failures) {
+            LOG.error("Errors: {}", failure);
+        }
+        return (failures.isEmpty() ? 0 : 1);
+    }
+
+    private static int compareWithBaseline(Map<String, Map<String, Number>> results, String baseline,
+                                           double maxRegression) throws IOException {
+        if (StringUtils.isBlank(baseline)) {
+            return 0;
+        }
+        Path baselineFile = Paths.get(baseline);
+        if (!Files.exists(baselineFile)) {
+            LOG.warn("Baseline {} not found, not checking for regressions", baselineFile);
+            return 0;
+        }
+        List<String> regressions = LoadTestReport.findRegressions(results, LoadTestReport.read(baselineFile),
+                maxRegression);
+        if (regressions.isEmpty()) {
+            LOG.info("No regressions of more than {}% compared to {}", maxRegression, baselineFile);
+            return 0;
+        }
+        for (String regression : regressions) {
+            LOG.error("Regression: {}", regression);
+        }
+        return 1;
+    }
+}
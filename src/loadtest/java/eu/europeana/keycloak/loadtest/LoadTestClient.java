@@ -0,0 +1,103 @@
+package eu.europeana.keycloak.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Minimal HTTP client for the load test. It uses HttpURLConnection (which keeps connections alive) so no extra
+ * dependencies are needed and the overhead per request stays small compared to the server's response time.
+ */
+final class LoadTestClient {
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final String baseUrl;
+
+    LoadTestClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Status code and body of a response
+     */
+    static final class Response {
+        final int status;
+        final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean isOk() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    Response get(String path) throws IOException {
+        HttpURLConnection connection = open(path, "GET", null);
+        return read(connection);
+    }
+
+    Response post(String path, Map<String, String> form, String authorization) throws IOException {
+        HttpURLConnection connection = open(path, "POST", authorization);
+        byte[] body = encode(form).getBytes(StandardCharsets.UTF_8);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        return read(connection);
+    }
+
+    private HttpURLConnection open(String path, String method, String authorization) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        return connection;
+    }
+
+    private static Response read(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        // the body always needs to be read completely, otherwise the connection can't be reused
+        InputStream in = (status >= 400 ? connection.getErrorStream() : connection.getInputStream());
+        if (in == null) {
+            return new Response(status, "");
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String encode(Map<String, String> form) throws UnsupportedEncodingException {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, String> field : form.entrySet()) {
+            if (result.length() > 0) {
+                result.append('&');
+            }
+            result.append(URLEncoder.encode(field.getKey(), StandardCharsets.UTF_8.name()))
+                    .append('=')
+                    .append(URLEncoder.encode(field.getValue(), StandardCharsets.UTF_8.name()));
+        }
+        return result.toString();
+    }
+}
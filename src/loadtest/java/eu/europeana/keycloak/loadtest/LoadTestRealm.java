@@ -0,0 +1,177 @@
+package eu.europeana.keycloak.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.userimport.UserImporter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.common.enums.SslRequired;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.representations.idm.ClientRepresentation;
+import org.keycloak.services.managers.ClientManager;
+import org.keycloak.services.managers.RealmManager;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Seeds the load test realm with confidential clients (with service accounts and direct access grants) and users, and
+ * keeps the credentials and access tokens that the load test needs.
+ */
+final class LoadTestRealm {
+
+    private static final Logger LOG = LogManager.getLogger(LoadTestRealm.class);
+
+    static final String REALM = "europeana";
+
+    private static final String USER_PASSWORD = "loadtest-Passw0rd";
+    private static final int TOKEN_LIFESPAN_SECONDS = 3600;
+
+    private final List<String> clientIds = new ArrayList<>();
+    private final String clientSecret = UUID.randomUUID().toString();
+    private final List<String> usernames = new ArrayList<>();
+    private final List<String> userTokens = new ArrayList<>();
+
+    private LoadTestRealm() {
+    }
+
+    /**
+     * Create the realm, clients and users
+     * @param sessionFactory Keycloak session factory
+     * @param clients number of clients to create
+     * @param users number of users to create
+     * @param workDir directory for the user import file
+     * @return the seeded realm
+     * @throws IOException when the user import file can't be written
+     */
+    static LoadTestRealm create(KeycloakSessionFactory sessionFactory, int clients, int users, Path workDir)
+            throws IOException {
+        LoadTestRealm result = new LoadTestRealm();
+        for (int i = 0; i < clients; i++) {
+            result.clientIds.add("loadtest-client-" + i);
+        }
+        for (int i = 0; i < users; i++) {
+            result.usernames.add("loadtest-user-" + i);
+        }
+        long start = System.currentTimeMillis();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmManager realmManager = new RealmManager(session);
+            RealmModel realm = realmManager.createRealm(REALM);
+            realm.setEnabled(true);
+            realm.setSslRequired(SslRequired.NONE);
+            realm.setAccessTokenLifespan(TOKEN_LIFESPAN_SECONDS);
+            for (String clientId : result.clientIds) {
+                ClientModel client = ClientManager.createClient(session, realm, result.toRepresentation(clientId), true);
+                new ClientManager(realmManager).enableServiceAccount(client);
+            }
+        });
+        result.importUsers(sessionFactory, workDir);
+        LOG.info("Created realm {} with {} clients and {} users in {} ms", REALM, clients, users,
+                System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private ClientRepresentation toRepresentation(String clientId) {
+        ClientRepresentation rep = new ClientRepresentation();
+        rep.setClientId(clientId);
+        rep.setSecret(clientSecret);
+        rep.setEnabled(true);
+        rep.setPublicClient(false);
+        rep.setServiceAccountsEnabled(true);
+        rep.setDirectAccessGrantsEnabled(true);
+        rep.setStandardFlowEnabled(false);
+        return rep;
+    }
+
+    private void importUsers(KeycloakSessionFactory sessionFactory, Path workDir) throws IOException {
+        if (usernames.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(workDir);
+        Path file = workDir.resolve("users.csv");
+        // remove progress and errors of a previous run, the database is new every run
+        Files.deleteIfExists(workDir.resolve("users.csv.progress"));
+        Files.deleteIfExists(workDir.resolve("users.csv.errors.csv"));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("username,email,password,enabled,emailVerified");
+            for (String username : usernames) {
+                out.println(username + "," + username + "@example.com," + USER_PASSWORD + ",true,true");
+            }
+        }
+        KeycloakServerProperties.UserImport settings = new KeycloakServerProperties.UserImport();
+        settings.setFile(file.toString());
+        settings.setRealm(REALM);
+        new UserImporter(sessionFactory, settings).run();
+    }
+
+    /**
+     * Request an access token for (at most) the provided number of users with the password grant. These are used
+     * for the userinfo and introspection requests.
+     * @param http client to use
+     * @param count maximum number of tokens
+     * @throws IOException when a token request fails
+     */
+    void fetchUserTokens(LoadTestClient http, int count) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        for (int i = 0; i < Math.min(count, usernames.size()); i++) {
+            LoadTestClient.Response response = http.post(LoadTest.PATH_TOKEN,
+                    getPasswordGrant(getClientId(i), usernames.get(i)), null);
+            if (!response.isOk()) {
+                throw new IOException("Token request for " + usernames.get(i) + " failed with status "
+                        + response.status + ": " + response.body);
+            }
+            userTokens.add(mapper.readTree(response.body).get("access_token").asText());
+        }
+        LOG.info("Retrieved {} user access tokens", userTokens.size());
+    }
+
+    Map<String, String> getClientCredentialsGrant(String clientId) {
+        Map<String, String> form = getClientAuthentication(clientId);
+        form.put("grant_type", "client_credentials");
+        return form;
+    }
+
+    Map<String, String> getPasswordGrant(String clientId, String username) {
+        Map<String, String> form = getClientAuthentication(clientId);
+        form.put("grant_type", "password");
+        form.put("username", username);
+        form.put("password", USER_PASSWORD);
+        return form;
+    }
+
+    Map<String, String> getIntrospection(String clientId, String token) {
+        Map<String, String> form = getClientAuthentication(clientId);
+        form.put("token", token);
+        return form;
+    }
+
+    private Map<String, String> getClientAuthentication(String clientId) {
+        Map<String, String> form = new LinkedHashMap<>();
+        form.put("client_id", clientId);
+        form.put("client_secret", clientSecret);
+        return form;
+    }
+
+    String getClientId(int index) {
+        return clientIds.get(index % clientIds.size());
+    }
+
+    String getUsername(int index) {
+        return usernames.get(index % usernames.size());
+    }
+
+    String getUserToken(int index) {
+        return userTokens.get(index % userTokens.size());
+    }
+}
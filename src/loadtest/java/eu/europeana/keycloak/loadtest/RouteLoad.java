@@ -0,0 +1,117 @@
+package eu.europeana.keycloak.loadtest;
+
+import eu.europeana.keycloak.metrics.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends requests to one route from a number of threads for a fixed time and records the latency of successful
+ * requests. Requests during the warm-up period are sent but not recorded.
+ */
+final class RouteLoad {
+
+    private static final Logger LOG = LogManager.getLogger(RouteLoad.class);
+
+    /**
+     * Sends a single request
+     */
+    interface Request {
+        /**
+         * @param iteration sequence number of the request (can be used to pick a client, user or token)
+         * @return the response
+         * @throws IOException when the request fails
+         */
+        LoadTestClient.Response send(int iteration) throws IOException;
+    }
+
+    private final String name;
+    private final Request request;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger iterations = new AtomicInteger();
+    private volatile long measureMillis;
+
+    RouteLoad(String name, Request request) {
+        this.name = name;
+        this.request = request;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Send requests from the provided number of threads until the warm-up and measurement period are over
+     * @param concurrency number of threads
+     * @param warmupMillis warm-up period in milliseconds
+     * @param measureMillis measurement period in milliseconds
+     * @throws InterruptedException when interrupted while waiting for the threads to finish
+     */
+    void run(int concurrency, long warmupMillis, long measureMillis) throws InterruptedException {
+        this.measureMillis = measureMillis;
+        long measureStart = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "loadtest-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(() -> sendUntil(measureStart, end));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(warmupMillis + measureMillis + 60_000, TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+            LOG.warn("Not all {} requests finished in time", name);
+        }
+    }
+
+    private void sendUntil(long measureStart, long end) {
+        long start = System.nanoTime();
+        while (start < end) {
+            boolean ok;
+            try {
+                ok = request.send(iterations.getAndIncrement()).isOk();
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("{} request failed", name, e);
+                ok = false;
+            }
+            long stop = System.nanoTime();
+            // only requests that were sent and finished within the measurement period count
+            if (start >= measureStart && stop <= end) {
+                if (ok) {
+                    latencies.record(stop - start);
+                } else {
+                    errors.incrementAndGet();
+                }
+            }
+            start = stop;
+        }
+    }
+
+    /**
+     * @return number of successful requests, errors, throughput (requests per second) and latencies (ms)
+     */
+    Map<String, Number> getResult() {
+        Map<String, Number> result = new LinkedHashMap<>();
+        long count = latencies.getCount();
+        result.put(LoadTestReport.REQUESTS, count);
+        result.put(LoadTestReport.ERRORS, errors.get());
+        result.put(LoadTestReport.THROUGHPUT, measureMillis == 0 ? 0d : count * 1000d / measureMillis);
+        result.put("mean", latencies.getMeanMillis());
+        result.put("p50", latencies.getPercentileMillis(50));
+        result.put("p95", latencies.getPercentileMillis(95));
+        result.put(LoadTestReport.P99, latencies.getPercentileMillis(99));
+        result.put("max", latencies.getMaxMillis());
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package eu.europeana.keycloak;
+
+import javax.naming.CompositeName;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.Name;
+import javax.naming.NameParser;
+import javax.naming.NamingException;
+import javax.naming.spi.InitialContextFactory;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal JNDI environment for the embedded Keycloak server. Keycloak, the event store and JGroups' JDBC_PING look up
+ * the data source by JNDI name, but there is no JNDI provider in a Spring Boot application.
+ *
+ * The factory is installed with the java.naming.factory.initial system property (see {@link #install()}) instead of
+ * NamingManager.setInitialContextFactoryBuilder, because a builder can be set only once per JVM which prevents
+ * starting a second application context (e.g. in tests).
+ */
+public class EmbeddedInitialContextFactory implements InitialContextFactory {
+
+    private static final Map<String, Object> BINDINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Make an object available under a JNDI name (replacing any object that was bound to that name before)
+     * @param name JNDI name
+     * @param object object to return for the name
+     */
+    public static void bind(String name, Object object) {
+        BINDINGS.put(name, object);
+    }
+
+    /**
+     * Remove the object bound to a JNDI name
+     * @param name JNDI name
+     */
+    public static void unbind(String name) {
+        BINDINGS.remove(name);
+    }
+
+    /**
+     * Use this factory for all new initial contexts that don't specify their own factory
+     */
+    public static void install() {
+        System.setProperty(Context.INITIAL_CONTEXT_FACTORY, EmbeddedInitialContextFactory.class.getName());
+    }
+
+    @Override
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        return new EmbeddedContext();
+    }
+
+    /**
+     * Read-only context with the bound objects, unknown names return null
+     */
+    private static final class EmbeddedContext extends InitialContext {
+
+        private EmbeddedContext() throws NamingException {
+            // lazy, otherwise the constructor would ask our factory for a default context again
+            super(true);
+        }
+
+        @Override
+        public Object lookup(Name name) {
+            return lookup(name.toString());
+        }
+
+        @Override
+        public Object lookup(String name) {
+            return BINDINGS.get(name);
+        }
+
+        @Override
+        public NameParser getNameParser(String name) {
+            return CompositeName::new;
+        }
+
+        @Override
+        public void close() {
+            //NOOP
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package eu.europeana.keycloak;
 
 import eu.europeana.keycloak.KeycloakServerProperties.AdminUser;
+import eu.europeana.keycloak.preload.RealmCachePreloader;
 import org.jboss.resteasy.core.Dispatcher;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.services.managers.ApplianceBootstrap;
 import org.keycloak.services.resources.KeycloakApplication;
 import org.apache.logging.log4j.LogManager;
@@ -22,20 +24,51 @@ public class EmbeddedKeycloakApplication extends KeycloakApplication {
 
     private static final Logger LOG   = LogManager.getLogger(EmbeddedKeycloakApplication.class);
 
+    private static volatile KeycloakSessionFactory keycloakSessionFactory;
+    private static volatile RealmCachePreloader realmCachePreloader;
+
     public EmbeddedKeycloakApplication(@Context ServletContext context, @Context Dispatcher dispatcher) {
         super(augmentToRedirectContextPath(context), dispatcher);
-        tryCreateMasterRealmAdminUser();
+        setKeycloakSessionFactory(getSessionFactory());
+        // creating the admin user is only needed on a new database, so we don't let start-up wait for the check
+        Thread adminBootstrap = new Thread(this::tryCreateMasterRealmAdminUser, "admin-bootstrap");
+        adminBootstrap.setDaemon(true);
+        adminBootstrap.start();
+        startRealmCachePreloader(new RealmCachePreloader(getSessionFactory(), StaticPropertyUtil.getPreload()));
     }
 
-    private void tryCreateMasterRealmAdminUser() {
+    /**
+     * @return the Keycloak session factory, so code outside of Keycloak can create sessions, or null if Keycloak is
+     * not started (yet)
+     */
+    public static KeycloakSessionFactory getKeycloakSessionFactory() {
+        return keycloakSessionFactory;
+    }
 
-        KeycloakSession session = getSessionFactory().create();
+    private static void setKeycloakSessionFactory(KeycloakSessionFactory sessionFactory) {
+        keycloakSessionFactory = sessionFactory;
+    }
 
-        ApplianceBootstrap applianceBootstrap = new ApplianceBootstrap(session);
+    /**
+     * @return the realm cache preloader, or null if Keycloak is not started (yet)
+     */
+    public static RealmCachePreloader getRealmCachePreloader() {
+        return realmCachePreloader;
+    }
 
-        AdminUser admin = StaticPropertyUtil.getAdminUser();
+    private static void startRealmCachePreloader(RealmCachePreloader preloader) {
+        realmCachePreloader = preloader;
+        preloader.start();
+    }
 
+    private void tryCreateMasterRealmAdminUser() {
+        StartupTimer.begin(StartupTimer.PHASE_ADMIN_BOOTSTRAP);
+        KeycloakSession session = null;
         try {
+            session = getSessionFactory().create();
+            ApplianceBootstrap applianceBootstrap = new ApplianceBootstrap(session);
+            AdminUser admin = StaticPropertyUtil.getAdminUser();
+
             session.getTransactionManager().begin();
             if (applianceBootstrap.isNoMasterUser()) {
                 applianceBootstrap.createMasterRealmUser(admin.getUsername(), admin.getPassword());
@@ -44,12 +77,30 @@ public class EmbeddedKeycloakApplication extends KeycloakApplication {
                 LOG.info("Admin user already present");
             }
             session.getTransactionManager().commit();
-        } catch (RuntimeException ex) {
-            LOG.error("Couldn't create keycloak master admin user", ex);
-            session.getTransactionManager().rollback();
+        } catch (Throwable t) {
+            // this runs in its own thread, so nobody else would log (or roll back) errors
+            LOG.error("Couldn't create keycloak master admin user", t);
+            rollback(session);
+        } finally {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+            } finally {
+                StartupTimer.end(StartupTimer.PHASE_ADMIN_BOOTSTRAP);
+            }
         }
+    }
 
-        session.close();
+    private static void rollback(KeycloakSession session) {
+        if (session == null || !session.getTransactionManager().isActive()) {
+            return;
+        }
+        try {
+            session.getTransactionManager().rollback();
+        } catch (RuntimeException e) {
+            LOG.warn("Rolling back admin user creation failed", e);
+        }
     }
 
 
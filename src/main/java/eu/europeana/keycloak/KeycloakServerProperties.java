@@ -2,6 +2,11 @@ package eu.europeana.keycloak;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Keycloak related configuration
  * @author Thomas Darimont
@@ -12,6 +17,16 @@ public class KeycloakServerProperties {
     private String contextPath;
     private String pepper;
     private AdminUser adminUser = new AdminUser();
+    private UserImport userImport = new UserImport();
+    private RateLimit rateLimit = new RateLimit();
+    private Warmup warmup = new Warmup();
+    private Preload preload = new Preload();
+    private Replicas replicas = new Replicas();
+    private StaticResources staticResources = new StaticResources();
+    private Session session = new Session();
+    private CertsCache certsCache = new CertsCache();
+    private IntrospectionCache introspectionCache = new IntrospectionCache();
+    private TokenCache tokenCache = new TokenCache();
 
     public String getContextPath() {
         return contextPath;
@@ -33,6 +48,46 @@ public class KeycloakServerProperties {
         return this.adminUser;
     }
 
+    public UserImport getUserImport() {
+        return this.userImport;
+    }
+
+    public RateLimit getRateLimit() {
+        return this.rateLimit;
+    }
+
+    public Warmup getWarmup() {
+        return this.warmup;
+    }
+
+    public Preload getPreload() {
+        return this.preload;
+    }
+
+    public Replicas getReplicas() {
+        return this.replicas;
+    }
+
+    public StaticResources getStaticResources() {
+        return this.staticResources;
+    }
+
+    public Session getSession() {
+        return this.session;
+    }
+
+    public CertsCache getCertsCache() {
+        return this.certsCache;
+    }
+
+    public IntrospectionCache getIntrospectionCache() {
+        return this.introspectionCache;
+    }
+
+    public TokenCache getTokenCache() {
+        return this.tokenCache;
+    }
+
     public static class AdminUser {
 
         String username;
@@ -55,4 +110,545 @@ public class KeycloakServerProperties {
         }
 
     }
+
+    /**
+     * Settings for importing users from a file after start-up
+     */
+    public static class UserImport {
+
+        String file;
+        String realm = "europeana";
+        int batchSize = 500;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean exitWhenDone = false;
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public String getRealm() {
+            return realm;
+        }
+
+        public void setRealm(String realm) {
+            this.realm = realm;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public boolean isExitWhenDone() {
+            return exitWhenDone;
+        }
+
+        public void setExitWhenDone(boolean exitWhenDone) {
+            this.exitWhenDone = exitWhenDone;
+        }
+    }
+
+    /**
+     * Settings for rate limiting requests to the forwarded OIDC endpoints. Limits can be set per route (token,
+     * introspect, userinfo) and per client id. Client limits take precedence over route limits, which take precedence
+     * over the default limit.
+     */
+    public static class RateLimit {
+
+        boolean enabled = false;
+        Limit defaultLimit = new Limit(20, 40);
+        Map<String, Limit> routes = new HashMap<>();
+        Map<String, Limit> clients = new HashMap<>();
+        int maxTrackedClients = 10_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Limit getDefaultLimit() {
+            return defaultLimit;
+        }
+
+        public void setDefaultLimit(Limit defaultLimit) {
+            this.defaultLimit = defaultLimit;
+        }
+
+        public Map<String, Limit> getRoutes() {
+            return routes;
+        }
+
+        public Map<String, Limit> getClients() {
+            return clients;
+        }
+
+        public int getMaxTrackedClients() {
+            return maxTrackedClients;
+        }
+
+        public void setMaxTrackedClients(int maxTrackedClients) {
+            this.maxTrackedClients = maxTrackedClients;
+        }
+    }
+
+    /**
+     * Maximum number of requests per second, with a burst of at most burst requests
+     */
+    public static class Limit {
+
+        double rate;
+        int burst;
+
+        public Limit() {
+            // used for binding
+        }
+
+        public Limit(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public void setRate(double rate) {
+            this.rate = rate;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * Settings for warming up the application after start-up. Warm-up consists of stages that are run one after the
+     * other. Each stage does a number of requests, optionally in parallel.
+     */
+    public static class Warmup {
+
+        boolean enabled = true;
+        int timeout = 300;
+        int parallelism = 4;
+        List<WarmupStage> stages = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public List<WarmupStage> getStages() {
+            return stages;
+        }
+    }
+
+    /**
+     * A single warm-up stage
+     */
+    public static class WarmupStage {
+
+        /**
+         * TOKEN requests a new access token with the manager client credentials, GET and POST send a request with the
+         * latest access token as bearer token (POST also sends the token and manager client credentials as form data,
+         * so it can be used for token introspection).
+         */
+        public enum Type { TOKEN, GET, POST }
+
+        String name;
+        Type type = Type.GET;
+        String path;
+        int iterations = 1;
+        boolean parallel = false;
+
+        public WarmupStage() {
+            // used for binding
+        }
+
+        public WarmupStage(String name, Type type, String path, int iterations, boolean parallel) {
+            this.name = name;
+            this.type = type;
+            this.path = path;
+            this.iterations = iterations;
+            this.parallel = parallel;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public void setType(Type type) {
+            this.type = type;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public void setIterations(int iterations) {
+            this.iterations = iterations;
+        }
+
+        public boolean isParallel() {
+            return parallel;
+        }
+
+        public void setParallel(boolean parallel) {
+            this.parallel = parallel;
+        }
+    }
+
+    /**
+     * Settings for loading clients, roles and client scopes of a realm into the realm cache after start-up
+     */
+    public static class Preload {
+
+        boolean enabled = false;
+        String realm = "europeana";
+        int batchSize = 100;
+        int parallelism = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getRealm() {
+            return realm;
+        }
+
+        public void setRealm(String realm) {
+            this.realm = realm;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    /**
+     * Settings for sending read-only requests to database replicas. Only GET requests of which the path matches one of
+     * the read-only paths (regular expressions) are sent to a replica, and only to replicas that lag at most maxLag
+     * seconds behind the primary (checked every checkInterval seconds with the lagQuery).
+     */
+    public static class Replicas {
+
+        boolean enabled = false;
+        List<Replica> servers = new ArrayList<>();
+        int maxLag = 5;
+        int checkInterval = 5;
+        String lagQuery = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+                + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+        List<String> readOnlyPaths = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<Replica> getServers() {
+            return servers;
+        }
+
+        public int getMaxLag() {
+            return maxLag;
+        }
+
+        public void setMaxLag(int maxLag) {
+            this.maxLag = maxLag;
+        }
+
+        public int getCheckInterval() {
+            return checkInterval;
+        }
+
+        public void setCheckInterval(int checkInterval) {
+            this.checkInterval = checkInterval;
+        }
+
+        public String getLagQuery() {
+            return lagQuery;
+        }
+
+        public void setLagQuery(String lagQuery) {
+            this.lagQuery = lagQuery;
+        }
+
+        public List<String> getReadOnlyPaths() {
+            return readOnlyPaths;
+        }
+    }
+
+    /**
+     * Connection settings of a single database replica
+     */
+    public static class Replica {
+
+        String name;
+        String url;
+        String username;
+        String password;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+
+    /**
+     * Settings for serving static resources (e.g. theme resources and the JavaScript adapter) from memory. Only GET
+     * requests of which the path matches one of the paths (regular expressions) are kept. Resources larger than
+     * maxEntrySize bytes are not kept, and no new resources are added once maxSize bytes (uncompressed and compressed)
+     * are used.
+     */
+    public static class StaticResources {
+
+        boolean enabled = true;
+        long maxSize = 32L * 1024 * 1024;
+        int maxEntrySize = 1024 * 1024;
+        List<String> paths = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxEntrySize() {
+            return maxEntrySize;
+        }
+
+        public void setMaxEntrySize(int maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+    }
+
+    /**
+     * Settings for the Keycloak session filter. Requests of which the path matches one of the bypass paths (regular
+     * expressions) are served without creating a Keycloak session when the response is available in memory.
+     */
+    public static class Session {
+
+        List<String> bypassPaths = new ArrayList<>();
+
+        public List<String> getBypassPaths() {
+            return bypassPaths;
+        }
+    }
+
+    /**
+     * Settings for serving the realm public keys (/oidc/certs) from memory. The keys are reloaded from Keycloak every
+     * refresh seconds (0 disables the cache), clients may cache them for maxAge seconds.
+     */
+    public static class CertsCache {
+
+        int refresh = 30;
+        int maxAge = 60;
+
+        public int getRefresh() {
+            return refresh;
+        }
+
+        public void setRefresh(int refresh) {
+            this.refresh = refresh;
+        }
+
+        public int getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(int maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
+    /**
+     * Settings for caching token introspection results of active tokens. Results are cached for at most maxTtl
+     * seconds, and at most maxSize results are kept.
+     */
+    public static class IntrospectionCache {
+
+        boolean enabled = false;
+        int maxTtl = 60;
+        int maxSize = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxTtl() {
+            return maxTtl;
+        }
+
+        public void setMaxTtl(int maxTtl) {
+            this.maxTtl = maxTtl;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Settings for reusing client_credentials tokens. Only clients in the clients list use the cache. A token is
+     * returned again for the same client and scope until lifetimeFraction of its lifetime has passed.
+     */
+    public static class TokenCache {
+
+        boolean enabled = false;
+        List<String> clients = new ArrayList<>();
+        double lifetimeFraction = 0.5;
+        int maxSize = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getClients() {
+            return clients;
+        }
+
+        public double getLifetimeFraction() {
+            return lifetimeFraction;
+        }
+
+        public void setLifetimeFraction(double lifetimeFraction) {
+            this.lifetimeFraction = lifetimeFraction;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
 }
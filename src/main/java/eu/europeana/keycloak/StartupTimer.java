@@ -0,0 +1,134 @@
+package eu.europeana.keycloak;
+
+import eu.europeana.keycloak.jfr.JfrSupport;
+import eu.europeana.keycloak.jfr.StartupPhaseEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of how long each start-up phase (Spring context, Keycloak bootstrap, database initialisation, etc.) takes.
+ * Phases can overlap (e.g. Keycloak bootstrap is part of the Spring context start-up) and can run in the background
+ * (e.g. realm cache preloading), so durations don't necessarily add up to the total start-up time.
+ */
+public final class StartupTimer {
+
+    private static final Logger LOG = LogManager.getLogger(StartupTimer.class);
+
+    public static final String PHASE_JVM = "jvm";
+    public static final String PHASE_SPRING_CONTEXT = "spring-context";
+    public static final String PHASE_KEYCLOAK_CONFIG = "keycloak-config";
+    public static final String PHASE_KEYCLOAK_APPLICATION = "keycloak-application";
+    public static final String PHASE_JPA_INIT = "jpa-init";
+    public static final String PHASE_ADMIN_BOOTSTRAP = "admin-bootstrap";
+    public static final String PHASE_REALM_PRELOAD = "realm-preload";
+
+    private static final Map<String, Phase> PHASES = new LinkedHashMap<>();
+    private static volatile long readyTime;
+
+    private StartupTimer() {
+        // empty constructor to avoid initialization
+    }
+
+    /**
+     * Mark the start of a phase
+     * @param phase name of the phase
+     */
+    public static void begin(String phase) {
+        Phase p = new Phase(System.currentTimeMillis());
+        if (JfrSupport.isEnabled()) {
+            p.event = JfrSupport.getEventFactory().newStartupPhaseEvent();
+            p.event.setPhase(phase);
+            p.event.begin();
+        }
+        synchronized (PHASES) {
+            PHASES.put(phase, p);
+        }
+    }
+
+    /**
+     * Mark the end of a phase (and log its duration)
+     * @param phase name of the phase
+     */
+    public static void end(String phase) {
+        long duration;
+        Phase p;
+        synchronized (PHASES) {
+            p = PHASES.get(phase);
+            if (p == null || p.end != 0) {
+                return;
+            }
+            p.end = System.currentTimeMillis();
+            duration = p.end - p.start;
+        }
+        if (p.event != null) {
+            p.event.commit();
+        }
+        LOG.info("Start-up phase {} took {} ms", phase, duration);
+    }
+
+    /**
+     * Record a phase of which the start and end are already known (no JFR event is recorded for these). Phases that
+     * were already recorded are not overwritten (e.g. when the realm cache is preheated again later).
+     * @param phase name of the phase
+     * @param start start time in milliseconds since epoch
+     * @param end end time in milliseconds since epoch
+     */
+    public static void record(String phase, long start, long end) {
+        Phase p = new Phase(start);
+        p.end = end;
+        synchronized (PHASES) {
+            PHASES.putIfAbsent(phase, p);
+        }
+    }
+
+    /**
+     * Mark that the application is ready to receive requests and log all phase durations
+     */
+    public static void ready() {
+        readyTime = System.currentTimeMillis();
+        LOG.info("Application ready {} ms after JVM start, phases (ms): {}", getTotalMillis(), getPhaseDurations());
+    }
+
+    /**
+     * @return the time from JVM start until the application was ready in milliseconds, or -1 if it's not ready yet
+     */
+    public static long getTotalMillis() {
+        long ready = readyTime;
+        return (ready == 0 ? -1 : ready - getJvmStartTime());
+    }
+
+    /**
+     * @return the duration in milliseconds of each phase, -1 for phases that haven't finished yet
+     */
+    public static Map<String, Long> getPhaseDurations() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (PHASES) {
+            for (Map.Entry<String, Phase> phase : PHASES.entrySet()) {
+                Phase p = phase.getValue();
+                result.put(phase.getKey(), (p.end == 0 ? -1 : p.end - p.start));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the time the JVM was started in milliseconds since epoch
+     */
+    public static long getJvmStartTime() {
+        return ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    private static final class Phase {
+        private final long start;
+        private long end;
+        private StartupPhaseEvent event;
+
+        private Phase(long start) {
+            this.start = start;
+        }
+    }
+}
@@ -41,6 +41,10 @@ public final class StaticPropertyUtil {
         return kcProperties.getAdminUser();
     }
 
+    public static KeycloakServerProperties.Preload getPreload() {
+        return kcProperties.getPreload();
+    }
+
     private static KeycloakServerProperties getKcProperties() {
         try {
             Properties appProps = loadProperties("keycloak.properties", true);
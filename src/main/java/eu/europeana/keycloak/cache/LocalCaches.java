@@ -0,0 +1,130 @@
+package eu.europeana.keycloak.cache;
+
+import eu.europeana.keycloak.EmbeddedKeycloakApplication;
+import eu.europeana.keycloak.StaticPropertyUtil;
+import eu.europeana.keycloak.cluster.EuropeanaInfinispanConnectionProviderFactory;
+import eu.europeana.keycloak.preload.RealmCachePreloader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.infinispan.Cache;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.stats.Stats;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.cache.CacheRealmProvider;
+import org.keycloak.models.cache.UserCache;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Statistics and admin operations (clear, preheat) for Keycloak's local caches
+ */
+@Component
+public class LocalCaches {
+
+    private static final Logger LOG = LogManager.getLogger(LocalCaches.class);
+
+    /**
+     * Result of an admin operation
+     */
+    public enum Result { DONE, STARTED, ALREADY_RUNNING, NOT_SUPPORTED, NOT_FOUND, NOT_STARTED }
+
+    private final AtomicReference<RealmCachePreloader> preheating = new AtomicReference<>();
+
+    /**
+     * @return statistics per started local cache (hits, misses, hit ratio, evictions, size and max size)
+     */
+    public Map<String, Map<String, Number>> getStatistics() {
+        Map<String, Map<String, Number>> result = new LinkedHashMap<>();
+        EmbeddedCacheManager manager = EuropeanaInfinispanConnectionProviderFactory.getCacheManager();
+        if (manager == null) {
+            return result;
+        }
+        for (String name : EuropeanaInfinispanConnectionProviderFactory.LOCAL_CACHES) {
+            if (manager.isRunning(name)) {
+                result.put(name, getStatistics(manager.getCache(name)));
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Number> getStatistics(Cache<?, ?> cache) {
+        Stats stats = cache.getAdvancedCache().getStats();
+        long hits = stats.getHits();
+        long misses = stats.getMisses();
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put("hits", hits);
+        result.put("misses", misses);
+        result.put("hitRatio", hits + misses > 0 ? (double) hits / (hits + misses) : 0d);
+        result.put("evictions", stats.getEvictions());
+        result.put("size", cache.getAdvancedCache().getDataContainer().size());
+        result.put("maxSize", cache.getCacheConfiguration().memory().size());
+        return result;
+    }
+
+    /**
+     * Remove all entries from a local cache. The realm and user caches are cleared through Keycloak, so other cluster
+     * members clear their cache as well.
+     * @param name name of the cache
+     * @return result of the operation
+     */
+    public Result clear(String name) {
+        if (!EuropeanaInfinispanConnectionProviderFactory.LOCAL_CACHES.contains(name)) {
+            return Result.NOT_FOUND;
+        }
+        KeycloakSessionFactory sessionFactory = EmbeddedKeycloakApplication.getKeycloakSessionFactory();
+        EmbeddedCacheManager manager = EuropeanaInfinispanConnectionProviderFactory.getCacheManager();
+        if (sessionFactory == null || manager == null) {
+            return Result.NOT_STARTED;
+        }
+        if (InfinispanConnectionProvider.REALM_CACHE_NAME.equals(name)) {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory,
+                    session -> session.getProvider(CacheRealmProvider.class).clear());
+        } else if (InfinispanConnectionProvider.USER_CACHE_NAME.equals(name)) {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory,
+                    session -> session.getProvider(UserCache.class).clear());
+        } else if (manager.isRunning(name)) {
+            manager.getCache(name).clear();
+        }
+        LOG.info("Cleared cache {}", name);
+        return Result.DONE;
+    }
+
+    /**
+     * Fill a local cache in the background. Only supported for the realm cache, which is filled with the clients,
+     * roles and client scopes of the realm configured in keycloak.preload.realm. Only one preheat (or the preloading
+     * after start-up) runs at a time.
+     * @param name name of the cache
+     * @return result of the operation
+     */
+    public Result preheat(String name) {
+        if (!EuropeanaInfinispanConnectionProviderFactory.LOCAL_CACHES.contains(name)) {
+            return Result.NOT_FOUND;
+        }
+        if (!InfinispanConnectionProvider.REALM_CACHE_NAME.equals(name)) {
+            return Result.NOT_SUPPORTED;
+        }
+        KeycloakSessionFactory sessionFactory = EmbeddedKeycloakApplication.getKeycloakSessionFactory();
+        if (sessionFactory == null) {
+            return Result.NOT_STARTED;
+        }
+        RealmCachePreloader startupPreloader = EmbeddedKeycloakApplication.getRealmCachePreloader();
+        if (startupPreloader != null && !startupPreloader.isFinished()) {
+            return Result.ALREADY_RUNNING;
+        }
+        RealmCachePreloader preloader = new RealmCachePreloader(sessionFactory, StaticPropertyUtil.getPreload());
+        RealmCachePreloader previous = preheating.get();
+        if ((previous != null && !previous.isFinished()) || !preheating.compareAndSet(previous, preloader)) {
+            return Result.ALREADY_RUNNING;
+        }
+        Thread thread = new Thread(preloader::run, "realm-preheat");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Preheating cache {}", name);
+        return Result.STARTED;
+    }
+}
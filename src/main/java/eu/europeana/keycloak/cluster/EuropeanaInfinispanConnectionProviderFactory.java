@@ -0,0 +1,216 @@
+package eu.europeana.keycloak.cluster;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.remoting.transport.jgroups.JGroupsTransport;
+import org.jgroups.JChannel;
+import org.keycloak.Config;
+import org.keycloak.connections.infinispan.DefaultInfinispanConnectionProviderFactory;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Infinispan connection provider factory that (when clustered) connects cluster members over TCP and lets them find
+ * each other through the Keycloak database (JDBC_PING), because multicast isn't available on Cloud Foundry. With the
+ * 'udp' stack the default Keycloak (multicast) transport is used instead.
+ *
+ * On Cloud Foundry the container's internal ip address is used as bind address, so other instances can reach it (this
+ * requires a network policy that allows the instances to connect to each other on the JGroups port).
+ *
+ * The maximum number of entries, lifespan and max idle time of the local caches (realms, users, authorization and keys)
+ * can be configured per cache, e.g. with 'usersMaxEntries', 'usersLifespan' and 'usersMaxIdle' (in seconds, -1 keeps
+ * Keycloak's default). Statistics are enabled for these caches so hits, misses and evictions can be monitored. This is
+ * done when the cache manager is created, before Keycloak hands out any cache. Keycloak already starts some of these
+ * caches to size their revision caches, so those (still empty) caches are recreated with the new configuration and
+ * their revision caches are resized to twice the new maximum, like Keycloak does.
+ */
+public class EuropeanaInfinispanConnectionProviderFactory extends DefaultInfinispanConnectionProviderFactory {
+
+    private static final Logger LOG = LogManager.getLogger(EuropeanaInfinispanConnectionProviderFactory.class);
+
+    public static final String ID = "europeana";
+
+    public static final String STACK_TCP_JDBC = "tcp-jdbc";
+    public static final String STACK_UDP = "udp";
+
+    static final String JGROUPS_CONFIG = "jgroups-tcp-jdbc.xml";
+
+    private static final String BIND_ADDRESS_PROPERTY = "jgroups.bind_addr";
+    private static final String CF_INTERNAL_IP = "CF_INSTANCE_INTERNAL_IP";
+    private static final String DEFAULT_CLUSTER_NAME = "keycloak";
+
+    /**
+     * Local caches that can be sized and monitored
+     */
+    public static final List<String> LOCAL_CACHES = Collections.unmodifiableList(Arrays.asList(
+            InfinispanConnectionProvider.REALM_CACHE_NAME,
+            InfinispanConnectionProvider.USER_CACHE_NAME,
+            InfinispanConnectionProvider.AUTHORIZATION_CACHE_NAME,
+            InfinispanConnectionProvider.KEYS_CACHE_NAME));
+
+    /**
+     * Revision caches of the local caches, these keep track of invalidations and must be larger than the cache itself
+     */
+    private static final Map<String, String> REVISION_CACHES = new HashMap<>();
+    static {
+        REVISION_CACHES.put(InfinispanConnectionProvider.REALM_CACHE_NAME,
+                InfinispanConnectionProvider.REALM_REVISIONS_CACHE_NAME);
+        REVISION_CACHES.put(InfinispanConnectionProvider.USER_CACHE_NAME,
+                InfinispanConnectionProvider.USER_REVISIONS_CACHE_NAME);
+        REVISION_CACHES.put(InfinispanConnectionProvider.AUTHORIZATION_CACHE_NAME,
+                InfinispanConnectionProvider.AUTHORIZATION_REVISIONS_CACHE_NAME);
+    }
+
+    private static volatile EmbeddedCacheManager localCacheManager;
+
+    private Config.Scope scope;
+
+    @Override
+    public void init(Config.Scope config) {
+        super.init(config);
+        this.scope = config;
+    }
+
+    /**
+     * @return the cache manager with Keycloak's caches, or null if Keycloak hasn't used its caches yet
+     */
+    public static EmbeddedCacheManager getCacheManager() {
+        return localCacheManager;
+    }
+
+    private static void setCacheManager(EmbeddedCacheManager manager) {
+        localCacheManager = manager;
+    }
+
+    @Override
+    protected void initEmbedded() {
+        super.initEmbedded();
+        // called by Keycloak while it holds its initialisation lock, so nothing uses the caches yet
+        for (String name : LOCAL_CACHES) {
+            configureLocalCache(cacheManager, scope, name);
+        }
+        setCacheManager(cacheManager);
+    }
+
+    /**
+     * Apply the configured size and expiration to a local cache and enable its statistics
+     * @param manager the cache manager
+     * @param scope configuration of this factory
+     * @param name name of the cache
+     */
+    static void configureLocalCache(EmbeddedCacheManager manager, Config.Scope scope, String name) {
+        Configuration current = manager.getCacheConfiguration(name);
+        if (current == null) {
+            LOG.warn("Cache {} is not defined", name);
+            return;
+        }
+        long maxEntries = scope.getLong(name + "MaxEntries", current.memory().size());
+        long lifespan = scope.getLong(name + "Lifespan", -1L);
+        long maxIdle = scope.getLong(name + "MaxIdle", -1L);
+
+        ConfigurationBuilder builder = new ConfigurationBuilder().read(current);
+        builder.memory().size(maxEntries);
+        if (lifespan >= 0) {
+            builder.expiration().lifespan(lifespan, TimeUnit.SECONDS);
+        }
+        if (maxIdle >= 0) {
+            builder.expiration().maxIdle(maxIdle, TimeUnit.SECONDS);
+        }
+        builder.jmxStatistics().enable();
+        redefine(manager, name, builder.build());
+
+        String revisionCache = REVISION_CACHES.get(name);
+        Configuration revisions = (revisionCache == null ? null : manager.getCacheConfiguration(revisionCache));
+        if (revisions != null && maxEntries > 0 && revisions.memory().size() < 2 * maxEntries) {
+            redefine(manager, revisionCache,
+                    new ConfigurationBuilder().read(revisions).memory().size(2 * maxEntries).build());
+        }
+
+        Configuration result = manager.getCacheConfiguration(name);
+        LOG.info("Cache {}: max entries {}, lifespan {} ms, max idle {} ms", name, result.memory().size(),
+                result.expiration().lifespan(), result.expiration().maxIdle());
+    }
+
+    /**
+     * Replace the configuration of a cache. A running cache is removed (it's still empty at this point) and started
+     * again with the new configuration.
+     */
+    private static void redefine(EmbeddedCacheManager manager, String name, Configuration configuration) {
+        boolean running = manager.isRunning(name);
+        if (running) {
+            // removes the cache and its configuration (caches that are local to this node are only removed here)
+            manager.administration().removeCache(name);
+        } else {
+            manager.undefineConfiguration(name);
+        }
+        manager.defineConfiguration(name, configuration);
+        if (running) {
+            manager.getCache(name, true);
+        }
+    }
+
+    @Override
+    protected void configureTransport(GlobalConfigurationBuilder gcb, String nodeName, String siteName,
+                                      String jgroupsUdpMcastAddr) {
+        String stack = scope.get("stack", STACK_TCP_JDBC);
+        if (STACK_UDP.equalsIgnoreCase(stack)) {
+            super.configureTransport(gcb, nodeName, siteName, jgroupsUdpMcastAddr);
+            return;
+        }
+
+        String name = StringUtils.isBlank(nodeName) ? "node-" + UUID.randomUUID().toString().substring(0, 8) : nodeName;
+        String clusterName = scope.get("clusterName", DEFAULT_CLUSTER_NAME);
+        setBindAddress();
+        LOG.info("Joining cluster {} as {} using TCP and JDBC_PING", clusterName, name);
+        gcb.transport()
+                .nodeName(name)
+                .siteId(StringUtils.isBlank(siteName) ? null : siteName)
+                .clusterName(clusterName)
+                .transport(new JGroupsTransport(createChannel(name)));
+    }
+
+    private static void setBindAddress() {
+        String internalIp = System.getenv(CF_INTERNAL_IP);
+        if (System.getProperty(BIND_ADDRESS_PROPERTY) == null && StringUtils.isNotBlank(internalIp)) {
+            System.setProperty(BIND_ADDRESS_PROPERTY, internalIp);
+        }
+    }
+
+    /**
+     * Create (but don't connect) a JGroups channel with our TCP + JDBC_PING stack
+     * @param nodeName name of this cluster member
+     * @return a new channel
+     */
+    static JChannel createChannel(String nodeName) {
+        InputStream config = EuropeanaInfinispanConnectionProviderFactory.class.getClassLoader()
+                .getResourceAsStream(JGROUPS_CONFIG);
+        if (config == null) {
+            throw new IllegalStateException("JGroups configuration " + JGROUPS_CONFIG + " not found");
+        }
+        try (InputStream in = config) {
+            JChannel channel = new JChannel(in);
+            channel.setName(nodeName);
+            return channel;
+        } catch (Exception e) {
+            throw new IllegalStateException("Error creating JGroups channel from " + JGROUPS_CONFIG, e);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
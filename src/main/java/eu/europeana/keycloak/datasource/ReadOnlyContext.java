@@ -0,0 +1,36 @@
+package eu.europeana.keycloak.datasource;
+
+/**
+ * Marks the work done on the current thread as read-only, so database connections obtained by this thread can be
+ * taken from a replica instead of the primary database.
+ * @see ReplicaRouting
+ */
+public final class ReadOnlyContext {
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    private ReadOnlyContext() {
+        // empty constructor to avoid initialization
+    }
+
+    /**
+     * @return true if the current thread only reads from the database
+     */
+    public static boolean isReadOnly() {
+        return Boolean.TRUE.equals(READ_ONLY.get());
+    }
+
+    /**
+     * Mark the current thread as read-only. Always call {@link #clear()} when done.
+     */
+    public static void setReadOnly() {
+        READ_ONLY.set(Boolean.TRUE);
+    }
+
+    /**
+     * Remove the read-only mark of the current thread
+     */
+    public static void clear() {
+        READ_ONLY.remove();
+    }
+}
@@ -0,0 +1,53 @@
+package eu.europeana.keycloak.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Marks GET and HEAD requests of which the path matches one of the configured read-only paths as read-only (see
+ * {@link ReadOnlyContext}), so Keycloak's database work for these requests can be done on a replica
+ */
+public class ReadOnlyRequestFilter extends OncePerRequestFilter {
+
+    private final List<Pattern> readOnlyPaths;
+
+    public ReadOnlyRequestFilter(List<String> readOnlyPaths) {
+        this.readOnlyPaths = readOnlyPaths.stream().map(Pattern::compile).collect(Collectors.toList());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!isReadOnly(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        ReadOnlyContext.setReadOnly();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReadOnlyContext.clear();
+        }
+    }
+
+    boolean isReadOnly(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return false;
+        }
+        String path = request.getRequestURI();
+        for (Pattern pattern : readOnlyPaths) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
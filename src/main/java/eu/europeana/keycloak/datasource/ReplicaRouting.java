@@ -0,0 +1,256 @@
+package eu.europeana.keycloak.datasource;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends database work of read-only requests (see {@link ReadOnlyContext}) to one of the configured replicas. All other
+ * work goes to the primary database.
+ *
+ * The replication lag of each replica is checked periodically. Replicas that lag more than the configured maximum, or
+ * that can't be reached, are skipped until they have caught up again. When no replica is available read-only work is
+ * done on the primary as well.
+ *
+ * Note that data read from a replica can end up in Keycloak's caches, so only configure read-only paths for requests
+ * where slightly outdated data is acceptable.
+ */
+public class ReplicaRouting implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicaRouting.class);
+
+    private final KeycloakServerProperties.Replicas settings;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong replicaConnections = new AtomicLong();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+    private ScheduledExecutorService checker;
+
+    /**
+     * Create replica data sources for all configured replicas
+     * @param settings replica settings
+     */
+    public ReplicaRouting(KeycloakServerProperties.Replicas settings) {
+        this(settings, createDataSources(settings));
+    }
+
+    /**
+     * Route to the provided replica data sources
+     * @param settings replica settings
+     * @param replicaDataSources map of replica name and data source
+     */
+    public ReplicaRouting(KeycloakServerProperties.Replicas settings, Map<String, DataSource> replicaDataSources) {
+        this.settings = settings;
+        for (Map.Entry<String, DataSource> replica : replicaDataSources.entrySet()) {
+            replicas.add(new Replica(replica.getKey(), replica.getValue()));
+        }
+    }
+
+    private static Map<String, DataSource> createDataSources(KeycloakServerProperties.Replicas settings) {
+        Map<String, DataSource> result = new LinkedHashMap<>();
+        if (!settings.isEnabled()) {
+            return result;
+        }
+        for (KeycloakServerProperties.Replica replica : settings.getServers()) {
+            String name = (replica.getName() == null ? "replica" + result.size() : replica.getName());
+            result.put(name, DataSourceBuilder.create()
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .build());
+        }
+        return result;
+    }
+
+    /**
+     * Check the lag of all replicas now and then periodically in the background
+     */
+    public void start() {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        checkReplicas();
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-lag-check");
+            t.setDaemon(true);
+            return t;
+        });
+        int interval = Math.max(1, settings.getCheckInterval());
+        checker.scheduleWithFixedDelay(this::checkReplicas, interval, interval, TimeUnit.SECONDS);
+        LOG.info("Routing read-only requests to {} database replicas", replicas.size());
+    }
+
+    /**
+     * @param primary the primary data source
+     * @return a data source that routes to a replica for read-only work, or the primary itself if there are no replicas
+     */
+    public DataSource route(DataSource primary) {
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        return new RoutingDataSource(primary);
+    }
+
+    /**
+     * Check the replication lag of all replicas and mark them as (un)available
+     */
+    void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(settings.getLagQuery())) {
+                double lag = (rs.next() ? rs.getDouble(1) : 0);
+                replica.lagMillis = Math.round(lag * 1000);
+                setAvailable(replica, lag <= settings.getMaxLag(), "lag is " + lag + " seconds");
+            } catch (SQLException | RuntimeException e) {
+                replica.lagMillis = -1;
+                setAvailable(replica, false, e.getMessage());
+            }
+        }
+    }
+
+    private static void setAvailable(Replica replica, boolean available, String reason) {
+        if (replica.available != available) {
+            if (available) {
+                LOG.info("Database replica {} is available again ({})", replica.name, reason);
+            } else {
+                LOG.warn("Database replica {} is not available ({})", replica.name, reason);
+            }
+        }
+        replica.available = available;
+    }
+
+    /**
+     * @return an available replica (round robin), or null if there is none
+     */
+    private Replica selectReplica() {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.available) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private Connection getConnection(DataSource primary) throws SQLException {
+        if (!ReadOnlyContext.isReadOnly()) {
+            return primary.getConnection();
+        }
+        Replica replica = selectReplica();
+        if (replica != null) {
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replicaConnections.incrementAndGet();
+                return connection;
+            } catch (SQLException e) {
+                setAvailable(replica, false, e.getMessage());
+            }
+        }
+        primaryFallbacks.incrementAndGet();
+        return primary.getConnection();
+    }
+
+    /**
+     * @return number of connections that were taken from a replica
+     */
+    public long getReplicaConnectionCount() {
+        return replicaConnections.get();
+    }
+
+    /**
+     * @return number of read-only connections that were taken from the primary because no replica was available
+     */
+    public long getPrimaryFallbackCount() {
+        return primaryFallbacks.get();
+    }
+
+    /**
+     * @return the last measured replication lag in milliseconds of each replica, -1 if the replica couldn't be reached
+     */
+    public Map<String, Long> getReplicaLag() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            result.put(replica.name, replica.lagMillis);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the number of replicas that are currently available
+     */
+    public int getAvailableReplicaCount() {
+        return (int) replicas.stream().filter(r -> r.available).count();
+    }
+
+    @Override
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) replica.dataSource).close();
+                } catch (Exception e) {
+                    LOG.warn("Error closing database replica {}", replica.name, e);
+                }
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean available;
+        private volatile long lagMillis = -1;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * Data source that is handed to Keycloak
+     */
+    private final class RoutingDataSource extends AbstractDataSource {
+
+        private final DataSource primary;
+
+        private RoutingDataSource(DataSource primary) {
+            this.primary = primary;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return ReplicaRouting.this.getConnection(primary);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return primary.getConnection(username, password);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package eu.europeana.keycloak.event;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventQuery;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.EventStoreProviderFactory;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AdminEventQuery;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.Set;
+
+/**
+ * Event store that queues user events for the {@link BatchedEventWriter} instead of inserting them in the request
+ * transaction. Old and expired events are deleted in chunks by the {@link ChunkedEventCleaner}. Queries, clearing all
+ * events and admin events (which are rare) are handled by the regular (JPA) event store, which is only created when
+ * needed. Its factory is owned by {@link AsyncEventStoreProviderFactory}, because Keycloak only loads the factory of the
+ * configured event store.
+ *
+ * Note that queued events are written even if the request transaction is rolled back, and that events are only
+ * visible in queries once they are written.
+ */
+public class AsyncEventStoreProvider implements EventStoreProvider {
+
+    private final KeycloakSession session;
+    private final EventStoreProviderFactory delegateFactory;
+    private final BatchedEventWriter writer;
+    private final ChunkedEventCleaner cleaner;
+    private final Set<EventType> excludedEvents;
+    private EventStoreProvider delegate;
+
+    public AsyncEventStoreProvider(KeycloakSession session, EventStoreProviderFactory delegateFactory,
+                                   BatchedEventWriter writer, ChunkedEventCleaner cleaner,
+                                   Set<EventType> excludedEvents) {
+        this.session = session;
+        this.delegateFactory = delegateFactory;
+        this.writer = writer;
+        this.cleaner = cleaner;
+        this.excludedEvents = excludedEvents;
+    }
+
+    private EventStoreProvider getDelegate() {
+        if (delegate == null) {
+            delegate = delegateFactory.create(session);
+        }
+        return delegate;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (!excludedEvents.contains(event.getType())) {
+            writer.enqueue(event);
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
+        getDelegate().onEvent(adminEvent, includeRepresentation);
+    }
+
+    @Override
+    public EventQuery createQuery() {
+        return getDelegate().createQuery();
+    }
+
+    @Override
+    public AdminEventQuery createAdminQuery() {
+        return getDelegate().createAdminQuery();
+    }
+
+    @Override
+    public void clear() {
+        getDelegate().clear();
+    }
+
+    @Override
+    public void clear(String realmId) {
+        getDelegate().clear(realmId);
+    }
+
+    @Override
+    public void clear(String realmId, long olderThan) {
+        cleaner.deleteEvents(realmId, olderThan);
+    }
+
+    @Override
+    public void clearExpiredEvents() {
+        cleaner.deleteExpiredEvents();
+    }
+
+    @Override
+    public void clearAdmin() {
+        getDelegate().clearAdmin();
+    }
+
+    @Override
+    public void clearAdmin(String realmId) {
+        getDelegate().clearAdmin(realmId);
+    }
+
+    @Override
+    public void clearAdmin(String realmId, long olderThan) {
+        getDelegate().clearAdmin(realmId, olderThan);
+    }
+
+    @Override
+    public void close() {
+        if (delegate != null) {
+            delegate.close();
+        }
+    }
+}
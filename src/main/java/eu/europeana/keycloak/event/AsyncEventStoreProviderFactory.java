@@ -0,0 +1,124 @@
+package eu.europeana.keycloak.event;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.EventStoreProviderFactory;
+import org.keycloak.events.EventType;
+import org.keycloak.events.jpa.JpaEventStoreProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Factory for the event store that writes user events asynchronously in batches and deletes old events in chunks.
+ * Keycloak only loads the factory of the configured event store, so this factory initialises its own JPA event store
+ * factory for everything that isn't written asynchronously (queries, admin events and clearing all events).
+ * @see AsyncEventStoreProvider
+ * @see BatchedEventWriter
+ * @see ChunkedEventCleaner
+ */
+public class AsyncEventStoreProviderFactory implements EventStoreProviderFactory {
+
+    private static final Logger LOG = LogManager.getLogger(AsyncEventStoreProviderFactory.class);
+
+    public static final String ID = "async-jpa";
+
+    private static final String DEFAULT_DATA_SOURCE = "spring/datasource";
+    private static final int DEFAULT_QUEUE_SIZE = 10_000;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+    private static final long DEFAULT_BLOCK_TIMEOUT = 0L;
+    private static final int DEFAULT_CLEANUP_CHUNK_SIZE = 1000;
+    private static final long DEFAULT_CLEANUP_PAUSE = 100L;
+
+    private static volatile BatchedEventWriter eventWriter;
+
+    private final JpaEventStoreProviderFactory delegateFactory = new JpaEventStoreProviderFactory();
+    private Config.Scope config;
+    private ChunkedEventCleaner cleaner;
+    private Set<EventType> excludedEvents = Collections.emptySet();
+
+    /**
+     * @return the writer used by the async event store, null if the factory is not initialised (yet) or not used
+     */
+    public static BatchedEventWriter getEventWriter() {
+        return eventWriter;
+    }
+
+    private static void setEventWriter(BatchedEventWriter writer) {
+        eventWriter = writer;
+    }
+
+    @Override
+    public EventStoreProvider create(KeycloakSession keycloakSession) {
+        return new AsyncEventStoreProvider(keycloakSession, delegateFactory, eventWriter, cleaner, excludedEvents);
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        LOG.debug("Initialising AsyncEventStoreProviderFactory ...");
+        this.config = scope;
+        delegateFactory.init(scope);
+        String[] excludes = scope.getArray("exclude-events");
+        if (excludes != null && excludes.length > 0) {
+            Set<EventType> excluded = EnumSet.noneOf(EventType.class);
+            for (String exclude : excludes) {
+                excluded.add(EventType.valueOf(exclude.trim()));
+            }
+            excludedEvents = excluded;
+        }
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        delegateFactory.postInit(keycloakSessionFactory);
+        // only start a writer when we are the configured event store
+        if (!ID.equals(Config.getProvider("eventsStore"))) {
+            return;
+        }
+        DataSource dataSource = lookupDataSource(config.get("dataSource", DEFAULT_DATA_SOURCE));
+        setEventWriter(new BatchedEventWriter(dataSource,
+                Math.max(1, config.getInt("queue-size", DEFAULT_QUEUE_SIZE)),
+                Math.max(1, config.getInt("batch-size", DEFAULT_BATCH_SIZE)),
+                Math.max(1, config.getLong("flush-interval", DEFAULT_FLUSH_INTERVAL)),
+                Math.max(0, config.getLong("block-timeout", DEFAULT_BLOCK_TIMEOUT))));
+        cleaner = new ChunkedEventCleaner(dataSource,
+                Math.max(1, config.getInt("cleanup-chunk-size", DEFAULT_CLEANUP_CHUNK_SIZE)),
+                Math.max(0, config.getLong("cleanup-pause", DEFAULT_CLEANUP_PAUSE)));
+    }
+
+    /**
+     * @param name JNDI name of the data source
+     * @return the data source that is used to write and delete events
+     */
+    DataSource lookupDataSource(String name) {
+        try {
+            return (DataSource) new InitialContext().lookup(name);
+        } catch (NamingException e) {
+            throw new IllegalStateException("Can't find data source " + name + " for event writer", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        delegateFactory.close();
+        BatchedEventWriter writer = eventWriter;
+        if (writer != null) {
+            setEventWriter(null);
+            writer.close();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
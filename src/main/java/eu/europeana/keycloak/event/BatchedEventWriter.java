@@ -0,0 +1,317 @@
+package eu.europeana.keycloak.event;
+
+import eu.europeana.keycloak.metrics.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes Keycloak (user) events to the EVENT_ENTITY table in the background. Events are put in a bounded queue and a
+ * single writer thread inserts them with JDBC batches, as soon as a batch is full or when the flush interval has passed.
+ *
+ * When the queue is full, callers wait at most the configured block timeout for space; after that the caller writes the
+ * event itself (synchronously), so events are never lost because of load. The same happens for events that arrive
+ * after the writer is closed. On close all queued events are written.
+ */
+public class BatchedEventWriter {
+
+    private static final Logger LOG = LogManager.getLogger(BatchedEventWriter.class);
+
+    private static final String INSERT = "INSERT INTO EVENT_ENTITY (ID, CLIENT_ID, DETAILS_JSON, ERROR, IP_ADDRESS, "
+            + "REALM_ID, SESSION_ID, EVENT_TIME, TYPE, USER_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int LOG_SYNCHRONOUS_EVERY = 1000;
+
+    private final DataSource dataSource;
+    private final BlockingQueue<EventRow> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long blockTimeoutMillis;
+    private final Thread writer;
+    // batch that is being collected, only used by the writer thread (and by close() after the writer thread stopped)
+    private final List<EventRow> pending;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder synchronous = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram batchTimes = new LatencyHistogram();
+
+    // enqueue holds the read lock while it checks running and queues, close() takes the write lock to stop, so no
+    // event can be queued after close() drained the queue
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    /**
+     * Create a new writer and start its writer thread
+     * @param dataSource data source of the Keycloak database
+     * @param queueSize maximum number of events waiting to be written
+     * @param batchSize maximum number of events written in one batch
+     * @param flushIntervalMillis maximum time in milliseconds an event waits for a batch to fill up
+     * @param blockTimeoutMillis maximum time in milliseconds to wait for space when the queue is full, 0 means events
+     *                           are written synchronously right away when the queue is full
+     */
+    public BatchedEventWriter(DataSource dataSource, int queueSize, int batchSize, long flushIntervalMillis,
+                              long blockTimeoutMillis) {
+        this.dataSource = dataSource;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.pending = new ArrayList<>(batchSize);
+        this.writer = new Thread(this::run, "event-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        LOG.info("Event writer started with queue size {}, batch size {} and flush interval {} ms",
+                queueSize, batchSize, flushIntervalMillis);
+    }
+
+    /**
+     * Queue an event for writing, or write it right away if the queue is full or the writer is closed
+     * @param event the event to write
+     * @return true if the event was queued, false if it was written synchronously
+     */
+    public boolean enqueue(Event event) {
+        EventRow row = new EventRow(event);
+        boolean queued = offer(row);
+        if (queued) {
+            enqueued.increment();
+            return true;
+        }
+        synchronous.increment();
+        if (synchronous.sum() % LOG_SYNCHRONOUS_EVERY == 1) {
+            LOG.warn("Event queue is full or closed, {} events written synchronously so far", synchronous.sum());
+        }
+        write(Collections.singletonList(row));
+        return false;
+    }
+
+    private boolean offer(EventRow row) {
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            if (queue.offer(row)) {
+                return true;
+            }
+            return blockTimeoutMillis > 0 && queue.offer(row, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                collectBatch(pending);
+            } catch (InterruptedException e) {
+                // we are closed, the pending batch is written by close()
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!pending.isEmpty()) {
+                write(pending);
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for a first event and then collect events until the batch is full or the flush interval has passed
+     */
+    private void collectBatch(List<EventRow> batch) throws InterruptedException {
+        EventRow first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            EventRow next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void write(List<EventRow> batch) {
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                for (EventRow row : batch) {
+                    row.bind(statement);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+                written.add(batch.size());
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException | RuntimeException e) {
+            failed.add(batch.size());
+            LOG.error("Error writing batch of {} events", batch.size(), e);
+        } finally {
+            batchTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stop the writer thread and write all events that are still queued
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOG.warn("Event writer did not stop in time, {} queued events are not written", queue.size());
+            return;
+        }
+        List<EventRow> batch = pending;
+        if (!batch.isEmpty()) {
+            write(batch);
+            batch.clear();
+        }
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+        LOG.info("Event writer stopped, {} events written ({} synchronously), {} failed", written.sum(),
+                synchronous.sum(), failed.sum());
+    }
+
+    /**
+     * @return number of events waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of queued events (so far)
+     */
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    /**
+     * @return number of written events
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return number of events written synchronously by the caller, because the queue was full or the writer closed
+     */
+    public long getSynchronousCount() {
+        return synchronous.sum();
+    }
+
+    /**
+     * @return number of events that could not be written because of a database error
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return durations of writing batches
+     */
+    public LatencyHistogram getBatchTimes() {
+        return batchTimes;
+    }
+
+    /**
+     * Copy of the event data, so the event itself isn't kept (or changed) after it was queued
+     */
+    private static final class EventRow {
+        private final String id = KeycloakModelUtils.generateId();
+        private final String clientId;
+        private final String detailsJson;
+        private final String error;
+        private final String ipAddress;
+        private final String realmId;
+        private final String sessionId;
+        private final long time;
+        private final String type;
+        private final String userId;
+
+        private EventRow(Event event) {
+            this.clientId = event.getClientId();
+            this.detailsJson = toJson(event);
+            this.error = event.getError();
+            this.ipAddress = event.getIpAddress();
+            this.realmId = event.getRealmId();
+            this.sessionId = event.getSessionId();
+            this.time = event.getTime();
+            this.type = (event.getType() == null ? null : event.getType().toString());
+            this.userId = event.getUserId();
+        }
+
+        private static String toJson(Event event) {
+            if (event.getDetails() == null) {
+                return null;
+            }
+            try {
+                return JsonSerialization.writeValueAsString(event.getDetails());
+            } catch (IOException e) {
+                LOG.warn("Error serializing details of event {}", event.getType(), e);
+                return null;
+            }
+        }
+
+        private void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, id);
+            statement.setString(2, clientId);
+            statement.setString(3, detailsJson);
+            statement.setString(4, error);
+            statement.setString(5, ipAddress);
+            statement.setString(6, realmId);
+            statement.setString(7, sessionId);
+            statement.setLong(8, time);
+            statement.setString(9, type);
+            statement.setString(10, userId);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package eu.europeana.keycloak.event;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransactionManager;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Translates Keycloak (admin) events into cache invalidations:
+ * <ul>
+ *     <li>logout or removal of a user session removes data of that session</li>
+ *     <li>revoking a grant, or any admin change to a user removes data of that user</li>
+ *     <li>changes to realm keys (components) signal that keys have changed</li>
+ *     <li>changes to roles, role mappings, groups, client scopes or protocol mappers signal that roles have changed</li>
+ *     <li>any change to the realm (e.g. logout all) or clients (e.g. a new secret) removes all data</li>
+ * </ul>
+ * Events are sent before Keycloak commits the change, so caches are only notified after the session's transaction
+ * has completed. Otherwise a concurrent request could cache the old data again before the change is visible.
+ */
+public class CacheInvalidationEventListenerProvider implements EventListenerProvider {
+
+    private static final Logger LOG = LogManager.getLogger(CacheInvalidationEventListenerProvider.class);
+
+    private static final String PATH_USERS = "users/";
+    private static final String PATH_SESSIONS = "sessions/";
+
+    private final KeycloakSession session;
+    private final List<CacheInvalidationListener> listeners;
+
+    CacheInvalidationEventListenerProvider(KeycloakSession session, List<CacheInvalidationListener> listeners) {
+        this.session = session;
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (event.getType() == EventType.LOGOUT && event.getSessionId() != null) {
+            LOG.debug("Session {} logged out", event.getSessionId());
+            afterCompletion(l -> l.sessionRemoved(event.getSessionId()));
+        } else if (event.getType() == EventType.REVOKE_GRANT && event.getUserId() != null) {
+            LOG.debug("User {} revoked grant", event.getUserId());
+            afterCompletion(l -> l.userChanged(event.getUserId()));
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (event.getResourceType() == null) {
+            return;
+        }
+        String path = event.getResourcePath();
+        switch (event.getResourceType()) {
+            case USER:
+                String userId = getId(path, PATH_USERS);
+                if (userId == null) {
+                    afterCompletion(CacheInvalidationListener::invalidateAll);
+                } else {
+                    afterCompletion(l -> l.userChanged(userId));
+                }
+                break;
+            case USER_SESSION:
+                String sessionId = getId(path, PATH_SESSIONS);
+                if (sessionId == null) {
+                    afterCompletion(CacheInvalidationListener::invalidateAll);
+                } else {
+                    afterCompletion(l -> l.sessionRemoved(sessionId));
+                }
+                break;
+            case COMPONENT:
+                afterCompletion(CacheInvalidationListener::keysChanged);
+                break;
+            case REALM_ROLE:
+            case REALM_ROLE_MAPPING:
+            case REALM_SCOPE_MAPPING:
+            case CLIENT_ROLE:
+            case CLIENT_ROLE_MAPPING:
+            case CLIENT_SCOPE:
+            case CLIENT_SCOPE_MAPPING:
+            case PROTOCOL_MAPPER:
+            case GROUP:
+            case GROUP_MEMBERSHIP:
+                afterCompletion(CacheInvalidationListener::rolesChanged);
+                break;
+            case REALM:
+            case CLIENT:
+                LOG.debug("{} {} changed, invalidating all caches", event.getResourceType(), path);
+                afterCompletion(CacheInvalidationListener::invalidateAll);
+                break;
+            default:
+                // other changes don't affect our caches
+                break;
+        }
+    }
+
+    /**
+     * Notify all caches when the session's transaction completes (or right away if there is no active transaction).
+     * Caches are also notified when the transaction is rolled back, because a change may have been partially applied.
+     */
+    private void afterCompletion(Consumer<CacheInvalidationListener> invalidation) {
+        KeycloakTransactionManager transactionManager = session.getTransactionManager();
+        if (transactionManager == null || !transactionManager.isActive()) {
+            listeners.forEach(invalidation);
+            return;
+        }
+        transactionManager.enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                listeners.forEach(invalidation);
+            }
+
+            @Override
+            protected void rollbackImpl() {
+                listeners.forEach(invalidation);
+            }
+        });
+    }
+
+    /**
+     * Get the id following the provided prefix from an admin event resource path (e.g. users/{id}/logout)
+     * @return the id, or null if the path doesn't start with the prefix
+     */
+    static String getId(String path, String prefix) {
+        if (path == null || !path.startsWith(prefix) || path.length() == prefix.length()) {
+            return null;
+        }
+        int end = path.indexOf('/', prefix.length());
+        return (end == -1 ? path.substring(prefix.length()) : path.substring(prefix.length(), end));
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
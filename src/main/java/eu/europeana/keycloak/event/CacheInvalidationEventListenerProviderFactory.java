@@ -0,0 +1,66 @@
+package eu.europeana.keycloak.event;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Factory for the event listener that invalidates our own (non-Keycloak) caches. Note that the listener needs to be
+ * added to the realm's event listeners (Events > Config) to receive any events.
+ */
+public class CacheInvalidationEventListenerProviderFactory implements EventListenerProviderFactory {
+
+    private static final Logger LOG = LogManager.getLogger(CacheInvalidationEventListenerProviderFactory.class);
+
+    public static final String ID = "europeana-cache-invalidation";
+
+    private static final List<CacheInvalidationListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a cache that should be notified of changes
+     * @param listener the cache to notify
+     */
+    public static void addListener(CacheInvalidationListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Stop notifying a cache of changes
+     * @param listener the cache to remove
+     */
+    public static void removeListener(CacheInvalidationListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    @Override
+    public EventListenerProvider create(KeycloakSession keycloakSession) {
+        return new CacheInvalidationEventListenerProvider(keycloakSession, LISTENERS);
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        LOG.debug("Initialising CacheInvalidationEventListenerProviderFactory ...");
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
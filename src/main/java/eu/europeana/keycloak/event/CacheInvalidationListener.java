@@ -0,0 +1,49 @@
+package eu.europeana.keycloak.event;
+
+/**
+ * Implemented by caches outside of Keycloak that hold data derived from sessions, users, clients or realm keys, so they
+ * are notified when that data changes. All methods do nothing by default, so caches only need to implement the ones
+ * that are relevant to them.
+ * @see CacheInvalidationEventListenerProviderFactory#addListener(CacheInvalidationListener)
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * A user session was removed (logout or session revocation)
+     * @param sessionId id of the removed session
+     */
+    default void sessionRemoved(String sessionId) {
+        // not relevant by default
+    }
+
+    /**
+     * A user was changed, removed, logged out of all sessions or revoked a grant
+     * @param userId id of the user
+     */
+    default void userChanged(String userId) {
+        // not relevant by default
+    }
+
+    /**
+     * Realm keys (may) have changed
+     */
+    default void keysChanged() {
+        // not relevant by default
+    }
+
+    /**
+     * Roles, role mappings, groups, client scopes or protocol mappers changed, so the contents of newly issued tokens
+     * may be different
+     */
+    default void rolesChanged() {
+        // not relevant by default
+    }
+
+    /**
+     * Something changed that may affect any cached data (e.g. a client secret or realm settings), so everything
+     * should be removed
+     */
+    default void invalidateAll() {
+        // not relevant by default
+    }
+}
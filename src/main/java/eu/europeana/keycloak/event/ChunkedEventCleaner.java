@@ -0,0 +1,148 @@
+package eu.europeana.keycloak.event;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deletes old events in small chunks, each in its own transaction and with a short pause in between, so the event
+ * table is never locked for long. Event ids are random, so instead of a primary key range each chunk is a set of ids
+ * selected with the (realm id, event time) index that is added by our own changelog.
+ *
+ * Only events are deleted here. Expired user sessions, including offline sessions that are persisted in the database,
+ * are still removed by Keycloak's own scheduled task, which also keeps the Infinispan session caches consistent.
+ */
+public class ChunkedEventCleaner {
+
+    private static final Logger LOG = LogManager.getLogger(ChunkedEventCleaner.class);
+
+    private static final String SELECT_REALMS = "SELECT ID, EVENTS_EXPIRATION FROM REALM WHERE EVENTS_EXPIRATION > 0";
+    private static final String SELECT_EVENTS = "SELECT ID FROM EVENT_ENTITY WHERE REALM_ID = ? AND EVENT_TIME < ? "
+            + "ORDER BY EVENT_TIME";
+    private static final String DELETE_EVENTS = "DELETE FROM EVENT_ENTITY WHERE ID IN ";
+
+    private final DataSource dataSource;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    /**
+     * Create a new cleaner
+     * @param dataSource data source of the Keycloak database
+     * @param chunkSize maximum number of events deleted in one transaction
+     * @param pauseMillis time in milliseconds to wait between chunks
+     */
+    public ChunkedEventCleaner(DataSource dataSource, int chunkSize, long pauseMillis) {
+        this.dataSource = dataSource;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Delete the expired events of all realms that have an events expiration set
+     * @return the number of deleted events
+     */
+    public long deleteExpiredEvents() {
+        long total = 0;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> realm : getEventsExpiration().entrySet()) {
+            total += deleteEvents(realm.getKey(), now - realm.getValue() * 1000L);
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        LOG.info("Removed {} expired events in {} ms", total, System.currentTimeMillis() - now);
+        return total;
+    }
+
+    /**
+     * Delete all events of a realm that are older than the provided time
+     * @param realmId id of the realm
+     * @param olderThan time in milliseconds since epoch
+     * @return the number of deleted events
+     */
+    public long deleteEvents(String realmId, long olderThan) {
+        long start = System.currentTimeMillis();
+        long total = 0;
+        int chunks = 0;
+        try {
+            while (true) {
+                List<String> ids = selectChunk(realmId, olderThan);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                total += delete(ids);
+                chunks++;
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+                if (pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Error deleting events of realm {}", realmId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Deleting events of realm {} interrupted", realmId);
+        }
+        LOG.debug("Removed {} events of realm {} in {} chunks in {} ms", total, realmId, chunks,
+                System.currentTimeMillis() - start);
+        return total;
+    }
+
+    private Map<String, Long> getEventsExpiration() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_REALMS);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                result.put(rs.getString(1), rs.getLong(2));
+            }
+        } catch (SQLException e) {
+            LOG.error("Error reading events expiration of realms", e);
+            return Collections.emptyMap();
+        }
+        return result;
+    }
+
+    private List<String> selectChunk(String realmId, long olderThan) throws SQLException {
+        List<String> ids = new ArrayList<>(chunkSize);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_EVENTS)) {
+            statement.setMaxRows(chunkSize);
+            statement.setString(1, realmId);
+            statement.setLong(2, olderThan);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private int delete(List<String> ids) throws SQLException {
+        String sql = DELETE_EVENTS + "(" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setString(i + 1, ids.get(i));
+            }
+            int deleted = statement.executeUpdate();
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+            return deleted;
+        }
+    }
+}
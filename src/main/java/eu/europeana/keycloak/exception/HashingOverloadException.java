@@ -0,0 +1,17 @@
+package eu.europeana.keycloak.exception;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+/**
+ * Error thrown when password hashing requests are shed because the hashing pool is saturated or hashing takes too
+ * long. Keycloak's error handler turns this into an error response without a Retry-After header; requests are shed
+ * with a Retry-After header before they reach Keycloak by {@link eu.europeana.keycloak.web.PasswordHashingLoadFilter}
+ */
+public class HashingOverloadException extends ServiceUnavailableException {
+
+    private static final long serialVersionUID = 1L;
+
+    public HashingOverloadException(String message, long retryAfterSeconds) {
+        super(message, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,17 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * JFR event for a request that is forwarded from one of our short urls to Keycloak
+ */
+public interface ForwardEvent extends RecordedEvent {
+
+    String NAME = "eu.europeana.keycloak.Forward";
+
+    void setMethod(String method);
+
+    void setPath(String path);
+
+    void setForwardPath(String forwardPath);
+
+    void setStatus(int status);
+}
@@ -0,0 +1,16 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * Creates our custom JFR events. The implementation is in src/jfr/java and is only compiled by the jfr profile
+ * @see JfrSupport#getEventFactory()
+ */
+public interface JfrEventFactory {
+
+    ForwardEvent newForwardEvent();
+
+    KeycloakSessionEvent newKeycloakSessionEvent();
+
+    PasswordHashEvent newPasswordHashEvent();
+
+    StartupPhaseEvent newStartupPhaseEvent();
+}
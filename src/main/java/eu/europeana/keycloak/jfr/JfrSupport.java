@@ -0,0 +1,50 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * Checks if our custom Java Flight Recorder events can be used. The JFR event API is only present in Java 11+ and
+ * OpenJDK 8u272+, so the event classes are in a separate source folder (src/jfr/java) that is only compiled by the
+ * jfr profile (activated automatically when building with Java 11+, or with -P jfr on OpenJDK 8u272+). Code that
+ * records events should first check {@link #isEnabled()} and then create events with {@link #getEventFactory()}.
+ * The events can also be switched off with -Dkeycloak.jfr.enabled=false.
+ *
+ * Note that when events are enabled but no recording is running, creating and committing an event costs next to
+ * nothing.
+ */
+public final class JfrSupport {
+
+    private static final String FACTORY_CLASS = "eu.europeana.keycloak.jfr.events.JdkEventFactory";
+
+    private static final JfrEventFactory FACTORY =
+            Boolean.parseBoolean(System.getProperty("keycloak.jfr.enabled", "true")) ? loadEventFactory() : null;
+
+    private JfrSupport() {
+        // empty constructor to avoid initialization
+    }
+
+    /**
+     * @return true if our custom JFR events can be created and committed
+     */
+    public static boolean isEnabled() {
+        return FACTORY != null;
+    }
+
+    /**
+     * @return the factory for our custom events, null if they are not enabled
+     */
+    public static JfrEventFactory getEventFactory() {
+        return FACTORY;
+    }
+
+    /**
+     * @return the event factory, or null if the events were not compiled or the JFR event API is not available
+     */
+    private static JfrEventFactory loadEventFactory() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+            return (JfrEventFactory) Class.forName(FACTORY_CLASS, true, JfrSupport.class.getClassLoader())
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * JFR event for a request handled by Keycloak, lasting from opening the Keycloak session until the session's
+ * transaction is committed (or rolled back) and the session is closed
+ */
+public interface KeycloakSessionEvent extends RecordedEvent {
+
+    String NAME = "eu.europeana.keycloak.KeycloakSession";
+
+    void setMethod(String method);
+
+    void setPath(String path);
+
+    void setStatus(int status);
+
+    /**
+     * @param completionTime nanoseconds spent committing or rolling back the transaction and closing the session
+     */
+    void setCompletionTime(long completionTime);
+}
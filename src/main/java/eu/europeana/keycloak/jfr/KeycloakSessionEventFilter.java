@@ -0,0 +1,60 @@
+package eu.europeana.keycloak.jfr;
+
+import org.keycloak.services.filters.KeycloakSessionServletFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Keycloak session filter that records a {@link KeycloakSessionEvent} for each request. The event covers the lifetime
+ * of the Keycloak session; the time between the end of the request processing and the closing of the session (so
+ * committing or rolling back the transaction) is recorded separately.
+ *
+ * For asynchronous requests the session is closed later by Keycloak, so there the event ends when the request thread
+ * is released.
+ */
+public class KeycloakSessionEventFilter extends KeycloakSessionServletFilter {
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+        if (!JfrSupport.isEnabled()) {
+            super.doFilter(servletRequest, servletResponse, filterChain);
+            return;
+        }
+
+        KeycloakSessionEvent event = JfrSupport.getEventFactory().newKeycloakSessionEvent();
+        event.begin();
+        long[] processed = new long[1];
+        try {
+            super.doFilter(servletRequest, servletResponse, (request, response) -> {
+                try {
+                    filterChain.doFilter(request, response);
+                } finally {
+                    processed[0] = System.nanoTime();
+                }
+            });
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                if (processed[0] != 0) {
+                    event.setCompletionTime(System.nanoTime() - processed[0]);
+                }
+                if (servletRequest instanceof HttpServletRequest) {
+                    HttpServletRequest request = (HttpServletRequest) servletRequest;
+                    event.setMethod(request.getMethod());
+                    event.setPath(request.getRequestURI());
+                }
+                if (servletResponse instanceof HttpServletResponse) {
+                    event.setStatus(((HttpServletResponse) servletResponse).getStatus());
+                }
+                event.commit();
+            }
+        }
+    }
+}
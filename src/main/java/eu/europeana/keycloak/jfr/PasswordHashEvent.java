@@ -0,0 +1,20 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * JFR event for encoding or verifying a password, including the time spent waiting for the password hashing pool
+ */
+public interface PasswordHashEvent extends RecordedEvent {
+
+    String NAME = "eu.europeana.keycloak.PasswordHash";
+
+    String ENCODE = "encode";
+    String VERIFY = "verify";
+
+    void setOperation(String operation);
+
+    void setAlgorithm(String algorithm);
+
+    void setLogRounds(int logRounds);
+
+    void setVerified(boolean verified);
+}
@@ -0,0 +1,28 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * Methods of a Java Flight Recorder event that we use. These match the methods of jdk.jfr.Event, so the event classes
+ * (which are only compiled on Java 11+ or OpenJDK 8u272+, see the jfr profile) get them from there.
+ */
+public interface RecordedEvent {
+
+    /**
+     * Start timing the event
+     */
+    void begin();
+
+    /**
+     * Stop timing the event
+     */
+    void end();
+
+    /**
+     * @return true if the event is enabled in a running recording and its duration is above the threshold
+     */
+    boolean shouldCommit();
+
+    /**
+     * Write the event to the recording (if it should be committed)
+     */
+    void commit();
+}
@@ -0,0 +1,12 @@
+package eu.europeana.keycloak.jfr;
+
+/**
+ * JFR event for a start-up phase, such as bootstrapping the Keycloak application
+ * @see eu.europeana.keycloak.StartupTimer
+ */
+public interface StartupPhaseEvent extends RecordedEvent {
+
+    String NAME = "eu.europeana.keycloak.StartupPhase";
+
+    void setPhase(String phase);
+}
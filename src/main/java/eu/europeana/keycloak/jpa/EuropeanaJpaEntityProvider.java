@@ -0,0 +1,35 @@
+package eu.europeana.keycloak.jpa;
+
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Doesn't add any entities, but provides our own Liquibase changelog (with extra indexes on Keycloak tables). Keycloak
+ * runs the changelog at start-up, together with its own changelog.
+ */
+public class EuropeanaJpaEntityProvider implements JpaEntityProvider {
+
+    private static final String CHANGELOG = "META-INF/europeana-changelog.xml";
+
+    @Override
+    public List<Class<?>> getEntities() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String getChangelogLocation() {
+        return CHANGELOG;
+    }
+
+    @Override
+    public String getFactoryId() {
+        return EuropeanaJpaEntityProviderFactory.ID;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+}
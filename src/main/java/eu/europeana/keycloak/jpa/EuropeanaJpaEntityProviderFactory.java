@@ -0,0 +1,42 @@
+package eu.europeana.keycloak.jpa;
+
+import org.keycloak.Config;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Factory for our JPA entity provider, which is only used to add our own changelog
+ */
+public class EuropeanaJpaEntityProviderFactory implements JpaEntityProviderFactory {
+
+    public static final String ID = "europeana";
+
+    private static final EuropeanaJpaEntityProvider PROVIDER = new EuropeanaJpaEntityProvider();
+
+    @Override
+    public JpaEntityProvider create(KeycloakSession keycloakSession) {
+        return PROVIDER;
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        // nothing to do
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        // nothing to do
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
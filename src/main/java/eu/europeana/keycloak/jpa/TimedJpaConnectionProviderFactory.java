@@ -0,0 +1,42 @@
+package eu.europeana.keycloak.jpa;
+
+import eu.europeana.keycloak.StartupTimer;
+import org.keycloak.connections.jpa.DefaultJpaConnectionProviderFactory;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Default Keycloak JPA connection provider factory that records how long the (lazy) initialisation takes. This happens
+ * when the first provider is created and includes creating the entity manager factory and validating (and if necessary
+ * migrating) the database schema.
+ */
+public class TimedJpaConnectionProviderFactory extends DefaultJpaConnectionProviderFactory {
+
+    public static final String ID = "europeana";
+
+    private volatile boolean initialized;
+
+    @Override
+    public JpaConnectionProvider create(KeycloakSession session) {
+        if (initialized) {
+            return super.create(session);
+        }
+        synchronized (this) {
+            if (initialized) {
+                return super.create(session);
+            }
+            StartupTimer.begin(StartupTimer.PHASE_JPA_INIT);
+            try {
+                return super.create(session);
+            } finally {
+                initialized = true;
+                StartupTimer.end(StartupTimer.PHASE_JPA_INIT);
+            }
+        }
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
@@ -0,0 +1,77 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.cache.LocalCaches;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractNamedMvcEndpoint;
+import org.springframework.boot.actuate.endpoint.mvc.ActuatorGetMapping;
+import org.springframework.boot.actuate.endpoint.mvc.ActuatorPostMapping;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Actuator endpoint for Keycloak's local caches:
+ * <ul>
+ *     <li>GET /actuator/caches shows the statistics of each cache</li>
+ *     <li>POST /actuator/caches/{name}/clear removes all entries from a cache</li>
+ *     <li>POST /actuator/caches/{name}/preheat fills a cache in the background (realms cache only)</li>
+ * </ul>
+ */
+@Component
+public class CacheEndpoint extends AbstractNamedMvcEndpoint {
+
+    private final LocalCaches localCaches;
+
+    @Autowired
+    public CacheEndpoint(LocalCaches localCaches) {
+        super("caches", "/caches", true);
+        this.localCaches = localCaches;
+    }
+
+    @ActuatorGetMapping
+    @ResponseBody
+    public Map<String, Map<String, Number>> statistics() {
+        return localCaches.getStatistics();
+    }
+
+    @ActuatorPostMapping("/{name}/clear")
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> clear(@PathVariable String name) {
+        return toResponse(name, localCaches.clear(name));
+    }
+
+    @ActuatorPostMapping("/{name}/preheat")
+    @ResponseBody
+    public ResponseEntity<Map<String, String>> preheat(@PathVariable String name) {
+        return toResponse(name, localCaches.preheat(name));
+    }
+
+    private static ResponseEntity<Map<String, String>> toResponse(String name, LocalCaches.Result result) {
+        HttpStatus status;
+        switch (result) {
+            case DONE:
+                status = HttpStatus.OK;
+                break;
+            case STARTED:
+                status = HttpStatus.ACCEPTED;
+                break;
+            case ALREADY_RUNNING:
+                status = HttpStatus.CONFLICT;
+                break;
+            case NOT_FOUND:
+                status = HttpStatus.NOT_FOUND;
+                break;
+            case NOT_STARTED:
+                status = HttpStatus.SERVICE_UNAVAILABLE;
+                break;
+            default:
+                status = HttpStatus.BAD_REQUEST;
+        }
+        return ResponseEntity.status(status).body(Collections.singletonMap(name, result.name()));
+    }
+}
@@ -0,0 +1,40 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.cache.LocalCaches;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes hits, misses, evictions and size of Keycloak's local caches (realms, users, authorization and keys) in the
+ * actuator metrics endpoint
+ */
+@Component
+public class CacheMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "cache.";
+
+    private final LocalCaches localCaches;
+
+    @Autowired
+    public CacheMetrics(LocalCaches localCaches) {
+        this.localCaches = localCaches;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Number>> cache : localCaches.getStatistics().entrySet()) {
+            for (Map.Entry<String, Number> statistic : cache.getValue().entrySet()) {
+                result.add(new Metric<>(PREFIX + cache.getKey() + "." + statistic.getKey(), statistic.getValue()));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.event.AsyncEventStoreProviderFactory;
+import eu.europeana.keycloak.event.BatchedEventWriter;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exposes the queue depth and write throughput of the asynchronous event store in the actuator metrics endpoint
+ */
+@Component
+public class EventStoreMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "events.store.";
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        BatchedEventWriter writer = AsyncEventStoreProviderFactory.getEventWriter();
+        if (writer == null) {
+            return Collections.emptyList();
+        }
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "queue.depth", writer.getQueueDepth()));
+        result.add(new Metric<>(PREFIX + "enqueued", writer.getEnqueuedCount()));
+        result.add(new Metric<>(PREFIX + "written", writer.getWrittenCount()));
+        result.add(new Metric<>(PREFIX + "synchronous", writer.getSynchronousCount()));
+        result.add(new Metric<>(PREFIX + "failed", writer.getFailedCount()));
+        LatencyHistogramMetrics.add(result, PREFIX + "batch", writer.getBatchTimes());
+        return result;
+    }
+}
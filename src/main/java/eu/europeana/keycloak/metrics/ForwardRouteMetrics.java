@@ -0,0 +1,52 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.web.ForwardController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes request counts, error counts and latencies (in milliseconds) of each route handled by the ForwardController
+ * in the actuator metrics endpoint, e.g. forward.oidc.token.p99
+ */
+@Component
+public class ForwardRouteMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "forward.";
+
+    private final ForwardController forwardController;
+
+    @Autowired
+    public ForwardRouteMetrics(ForwardController forwardController) {
+        this.forwardController = forwardController;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        for (Map.Entry<String, RouteMetrics.RouteStats> route : forwardController.getRouteMetrics().getRoutes().entrySet()) {
+            String prefix = PREFIX + getMetricName(route.getKey());
+            RouteMetrics.RouteStats stats = route.getValue();
+            result.add(new Metric<>(prefix + ".requests", stats.getRequestCount()));
+            result.add(new Metric<>(prefix + ".errors.4xx", stats.getClientErrorCount()));
+            result.add(new Metric<>(prefix + ".errors.5xx", stats.getServerErrorCount()));
+            result.add(new Metric<>(prefix + ".errors.forward", stats.getForwardExceptionCount()));
+            LatencyHistogramMetrics.add(result, prefix + ".latency", stats.getLatency());
+        }
+        return result;
+    }
+
+    /**
+     * Convert a route path (e.g. /oidc/token/introspect) to a metric name (oidc.token.introspect)
+     */
+    private static String getMetricName(String route) {
+        String name = (route.startsWith("/") ? route.substring(1) : route);
+        return name.replace('/', '.');
+    }
+}
@@ -0,0 +1,43 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.web.ForwardController;
+import eu.europeana.keycloak.web.IntrospectionCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exposes the state of the token introspection cache in the actuator metrics endpoint
+ */
+@Component
+public class IntrospectionCacheMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "introspection.cache.";
+
+    private final ForwardController forwardController;
+
+    @Autowired
+    public IntrospectionCacheMetrics(ForwardController forwardController) {
+        this.forwardController = forwardController;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        IntrospectionCache cache = forwardController.getIntrospectionCache();
+        if (cache == null) {
+            return Collections.emptyList();
+        }
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "size", cache.size()));
+        result.add(new Metric<>(PREFIX + "hits", cache.getHitCount()));
+        result.add(new Metric<>(PREFIX + "misses", cache.getMissCount()));
+        result.add(new Metric<>(PREFIX + "evictions", cache.getEvictionCount()));
+        return result;
+    }
+}
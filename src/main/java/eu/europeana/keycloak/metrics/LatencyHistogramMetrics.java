@@ -0,0 +1,24 @@
+package eu.europeana.keycloak.metrics;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.List;
+
+/**
+ * Converts a latency histogram into actuator metrics (count, mean, max and percentiles, all in milliseconds)
+ */
+final class LatencyHistogramMetrics {
+
+    private LatencyHistogramMetrics() {
+        // empty constructor to avoid initialization
+    }
+
+    static void add(List<Metric<?>> metrics, String prefix, LatencyHistogram histogram) {
+        metrics.add(new Metric<>(prefix + ".count", histogram.getCount()));
+        metrics.add(new Metric<>(prefix + ".mean", histogram.getMeanMillis()));
+        metrics.add(new Metric<>(prefix + ".p50", histogram.getPercentileMillis(50)));
+        metrics.add(new Metric<>(prefix + ".p99", histogram.getPercentileMillis(99)));
+        metrics.add(new Metric<>(prefix + ".p999", histogram.getPercentileMillis(99.9)));
+        metrics.add(new Metric<>(prefix + ".max", histogram.getMaxMillis()));
+    }
+}
@@ -0,0 +1,50 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.password.BCryptPasswordHashProvider;
+import eu.europeana.keycloak.password.BCryptPasswordHashProviderFactory;
+import eu.europeana.keycloak.password.PasswordHashingExecutor;
+import eu.europeana.keycloak.web.PasswordHashingLoadFilter;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Exposes the state of the password hashing pool and BCrypt hashing durations in the actuator metrics endpoint
+ */
+@Component
+public class PasswordHashingMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "password.hashing.";
+
+    private final PasswordHashingLoadFilter loadFilter;
+
+    public PasswordHashingMetrics(PasswordHashingLoadFilter loadFilter) {
+        this.loadFilter = loadFilter;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "shed", loadFilter.getShedCount()));
+        LatencyHistogramMetrics.add(result, PREFIX + "encode", BCryptPasswordHashProvider.getEncodeTimes());
+        LatencyHistogramMetrics.add(result, PREFIX + "verify", BCryptPasswordHashProvider.getVerifyTimes());
+
+        PasswordHashingExecutor executor = BCryptPasswordHashProviderFactory.getHashingExecutor();
+        if (executor == null) {
+            return result;
+        }
+        result.add(new Metric<>(PREFIX + "pool.size", executor.getPoolSize()));
+        result.add(new Metric<>(PREFIX + "pool.active", executor.getActiveCount()));
+        result.add(new Metric<>(PREFIX + "queue.depth", executor.getQueueDepth()));
+        result.add(new Metric<>(PREFIX + "completed", executor.getCompletedCount()));
+        result.add(new Metric<>(PREFIX + "rejected", executor.getRejectedCount()));
+        result.add(new Metric<>(PREFIX + "timeouts", executor.getTimeoutCount()));
+        result.add(new Metric<>(PREFIX + "wait.total", executor.getTotalWaitMillis()));
+        result.add(new Metric<>(PREFIX + "wait.max", executor.getMaxWaitMillis()));
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.web.ForwardController;
+import eu.europeana.keycloak.web.RateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the number of rate limited requests (in total and per client) in the actuator metrics endpoint
+ */
+@Component
+public class RateLimitMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "ratelimit.throttled";
+
+    private final ForwardController forwardController;
+
+    @Autowired
+    public RateLimitMetrics(ForwardController forwardController) {
+        this.forwardController = forwardController;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        RateLimiter rateLimiter = forwardController.getRateLimiter();
+        if (rateLimiter == null) {
+            return Collections.emptyList();
+        }
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX, rateLimiter.getThrottledCount()));
+        for (Map.Entry<String, Long> client : rateLimiter.getThrottledCountPerClient().entrySet()) {
+            result.add(new Metric<>(PREFIX + ".client." + client.getKey(), client.getValue()));
+        }
+        return result;
+    }
+}
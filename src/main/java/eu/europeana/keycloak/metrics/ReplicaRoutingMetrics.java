@@ -0,0 +1,45 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.datasource.ReplicaRouting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the number of connections routed to database replicas and the replication lag of each replica in the
+ * actuator metrics endpoint
+ */
+@Component
+public class ReplicaRoutingMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "datasource.replicas.";
+
+    private final ReplicaRouting replicaRouting;
+
+    @Autowired
+    public ReplicaRoutingMetrics(ReplicaRouting replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Map<String, Long> lag = replicaRouting.getReplicaLag();
+        List<Metric<?>> result = new ArrayList<>();
+        if (lag.isEmpty()) {
+            return result;
+        }
+        result.add(new Metric<>(PREFIX + "available", replicaRouting.getAvailableReplicaCount()));
+        result.add(new Metric<>(PREFIX + "connections", replicaRouting.getReplicaConnectionCount()));
+        result.add(new Metric<>(PREFIX + "primary-fallbacks", replicaRouting.getPrimaryFallbackCount()));
+        for (Map.Entry<String, Long> replica : lag.entrySet()) {
+            result.add(new Metric<>(PREFIX + replica.getKey() + ".lag", replica.getValue()));
+        }
+        return result;
+    }
+}
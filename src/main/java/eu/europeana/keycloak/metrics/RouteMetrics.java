@@ -0,0 +1,77 @@
+package eu.europeana.keycloak.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps request counts, error counts and latency histograms per route
+ */
+public class RouteMetrics {
+
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Record a handled request
+     * @param route name of the route
+     * @param durationNanos time it took to handle the request, in nanoseconds
+     * @param status http status of the response
+     */
+    public void record(String route, long durationNanos, int status) {
+        RouteStats stats = routes.computeIfAbsent(route, k -> new RouteStats());
+        stats.latency.record(durationNanos);
+        stats.requests.increment();
+        if (status >= 500) {
+            stats.serverErrors.increment();
+        } else if (status >= 400) {
+            stats.clientErrors.increment();
+        }
+    }
+
+    /**
+     * Record that a request could not be forwarded
+     * @param route name of the route
+     */
+    public void recordForwardException(String route) {
+        routes.computeIfAbsent(route, k -> new RouteStats()).forwardExceptions.increment();
+    }
+
+    /**
+     * @return statistics per route name
+     */
+    public Map<String, RouteStats> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Statistics of a single route
+     */
+    public static class RouteStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder forwardExceptions = new LongAdder();
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        public long getClientErrorCount() {
+            return clientErrors.sum();
+        }
+
+        public long getServerErrorCount() {
+            return serverErrors.sum();
+        }
+
+        public long getForwardExceptionCount() {
+            return forwardExceptions.sum();
+        }
+    }
+}
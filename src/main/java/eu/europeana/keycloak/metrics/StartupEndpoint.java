@@ -0,0 +1,28 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.StartupTimer;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint (/actuator/startup) that shows how long the application took to start and how long each start-up
+ * phase took (in milliseconds, -1 for phases that haven't finished yet)
+ */
+@Component
+public class StartupEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+    public StartupEndpoint() {
+        super("startup");
+    }
+
+    @Override
+    public Map<String, Object> invoke() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", StartupTimer.getTotalMillis());
+        result.put("phases", StartupTimer.getPhaseDurations());
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+package eu.europeana.keycloak.metrics;
+
+import eu.europeana.keycloak.web.FastPathSessionFilter;
+import eu.europeana.keycloak.web.StaticResourceFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Exposes the number and size of static resources served from memory, and the number of requests that were served
+ * without a Keycloak session, in the actuator metrics endpoint
+ */
+@Component
+public class StaticResourceMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "static.resources.";
+
+    private final StaticResourceFilter staticResourceFilter;
+    private final FastPathSessionFilter sessionFilter;
+
+    @Autowired
+    public StaticResourceMetrics(StaticResourceFilter staticResourceFilter, FastPathSessionFilter sessionFilter) {
+        this.staticResourceFilter = staticResourceFilter;
+        this.sessionFilter = sessionFilter;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> result = new ArrayList<>();
+        result.add(new Metric<>(PREFIX + "count", staticResourceFilter.getResourceCount()));
+        result.add(new Metric<>(PREFIX + "bytes", staticResourceFilter.getSize()));
+        result.add(new Metric<>(PREFIX + "hits", staticResourceFilter.getHitCount()));
+        result.add(new Metric<>(PREFIX + "misses", staticResourceFilter.getMissCount()));
+        result.add(new Metric<>(PREFIX + "evictions", staticResourceFilter.getEvictionCount()));
+        result.add(new Metric<>("keycloak.session.bypassed", sessionFilter.getFastPathCount()));
+        return result;
+    }
+}
@@ -1,7 +1,9 @@
 package eu.europeana.keycloak.password;
 
 import eu.europeana.keycloak.StaticPropertyUtil;
-import org.apache.commons.codec.binary.Base64;
+import eu.europeana.keycloak.jfr.JfrSupport;
+import eu.europeana.keycloak.jfr.PasswordHashEvent;
+import eu.europeana.keycloak.metrics.LatencyHistogram;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.keycloak.credential.CredentialModel;
@@ -11,6 +13,7 @@ import org.keycloak.models.UserCredentialModel;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 /**
  * This class implements BCrypt hashing with salt and pepper for passwords.
@@ -18,51 +21,202 @@ import java.nio.charset.StandardCharsets;
 public class BCryptPasswordHashProvider implements PasswordHashProvider  {
 
     private static final Logger LOG = LogManager.getLogger(BCryptPasswordHashProvider.class);
+
+    // time spent in encode and verify (including waiting for the hashing pool), shared by all providers
+    private static final LatencyHistogram ENCODE_TIMES = new LatencyHistogram();
+    private static final LatencyHistogram VERIFY_TIMES = new LatencyHistogram();
+
     private              int    logRounds;
+    private int minLogRounds;
     private String providerId;
-    private String pepper;
+    private PepperedPasswordEncoder pepperedPasswordEncoder;
+    private VerifiedCredentialCache verifiedCache;
+    private PasswordHashingExecutor hashingExecutor;
 
 
     public BCryptPasswordHashProvider(String providerId, int logRounds) {
+        this(providerId, logRounds, logRounds, null, null);
+    }
+
+    /**
+     * @return durations of all password encodings
+     */
+    public static LatencyHistogram getEncodeTimes() {
+        return ENCODE_TIMES;
+    }
+
+    /**
+     * @return durations of all password verifications that were not answered from the verified credential cache
+     */
+    public static LatencyHistogram getVerifyTimes() {
+        return VERIFY_TIMES;
+    }
+
+    /**
+     * Create a new provider
+     * @param providerId id of the provider
+     * @param logRounds log2 of the number of BCrypt rounds to use when encoding
+     * @param minLogRounds stored hashes with a lower cost are re-encoded after the next successful login
+     * @param verifiedCache optional cache of recent successful verifications, can be null
+     * @param hashingExecutor optional dedicated pool to run hashing on, if null hashing is done on the calling thread
+     */
+    public BCryptPasswordHashProvider(String providerId, int logRounds, int minLogRounds,
+                                      VerifiedCredentialCache verifiedCache, PasswordHashingExecutor hashingExecutor) {
+        this(providerId, logRounds, minLogRounds, StaticPropertyUtil.getPepper(), verifiedCache, hashingExecutor);
+    }
+
+    /**
+     * Create a new provider with a specific pepper (for testing and benchmarking)
+     */
+    BCryptPasswordHashProvider(String providerId, int logRounds, String pepper,
+                               VerifiedCredentialCache verifiedCache, PasswordHashingExecutor hashingExecutor) {
+        this(providerId, logRounds, logRounds, pepper, verifiedCache, hashingExecutor);
+    }
+
+    /**
+     * Create a new provider with a specific minimum cost and pepper (for testing)
+     */
+    BCryptPasswordHashProvider(String providerId, int logRounds, int minLogRounds, String pepper,
+                               VerifiedCredentialCache verifiedCache, PasswordHashingExecutor hashingExecutor) {
         LOG.debug("BCryptPasswordHashProvider created");
-        this.providerId     = providerId;
-        this.logRounds      = logRounds;
-        this.pepper         = StaticPropertyUtil.getPepper();
+        this.providerId      = providerId;
+        this.logRounds       = Math.max(logRounds, minLogRounds);
+        this.minLogRounds    = minLogRounds;
+        this.pepperedPasswordEncoder = new PepperedPasswordEncoder(pepper);
+        this.verifiedCache   = verifiedCache;
+        this.hashingExecutor = hashingExecutor;
     }
 
+    /**
+     * Checks if the stored credential was hashed with the current algorithm and at least the minimum cost. If not,
+     * Keycloak will re-encode the password after the next successful login, so raising the minimum log rounds
+     * gradually migrates all hashes. Hashes with a higher cost are never downgraded, so instances that calibrated a
+     * different cost don't re-encode each other's hashes.
+     * Note that the policy's hash iterations are ignored, because BCrypt stores its cost in the salt.
+     */
     @Override
     public boolean policyCheck(PasswordPolicy passwordPolicy, CredentialModel credentialModel) {
         LOG.debug("BCryptPasswordHashProvider policy check");
         return passwordPolicy.getHashAlgorithm().equals(credentialModel.getAlgorithm())
-                && (passwordPolicy.getHashIterations() == credentialModel.getHashIterations());
+                && getLogRounds(credentialModel.getSalt()) >= minLogRounds;
+    }
+
+    /**
+     * Read the cost that is embedded in a BCrypt salt (e.g. $2a$13$...)
+     * @param salt BCrypt salt
+     * @return the log rounds of the salt, or -1 if the salt is not a valid BCrypt salt
+     */
+    static int getLogRounds(byte[] salt) {
+        if (salt == null || salt.length < 7 || salt[0] != '$' || salt[1] != '2') {
+            return -1;
+        }
+        // version is either "2$" or "2x$" (with x a minor version letter)
+        int offset = (salt[2] == '$' ? 3 : 4);
+        if (salt.length < offset + 3 || salt[offset - 1] != '$' || salt[offset + 2] != '$'
+                || !Character.isDigit(salt[offset]) || !Character.isDigit(salt[offset + 1])) {
+            return -1;
+        }
+        return (salt[offset] - '0') * 10 + (salt[offset + 1] - '0');
     }
 
     @Override
     public void encode(String rawPassword, int iterations, CredentialModel credentialModel) {
         LOG.debug("BCryptPasswordHashProvider encoding password ...");
+        long start = System.nanoTime();
+        PasswordHashEvent event = beginEvent();
         String salt     = BCrypt.gensalt(logRounds);
-        String hashedPassword = getHash(rawPassword, salt);
+        String hashedPassword;
+        try {
+            hashedPassword = hash(rawPassword, salt);
+        } finally {
+            ENCODE_TIMES.record(System.nanoTime() - start);
+            if (event != null) {
+                commitEvent(event, PasswordHashEvent.ENCODE, logRounds, false);
+            }
+        }
 
         credentialModel.setAlgorithm(providerId);
         credentialModel.setType(UserCredentialModel.PASSWORD);
         credentialModel.setSalt(salt.getBytes(StandardCharsets.UTF_8));
         credentialModel.setValue(hashedPassword);
         credentialModel.setHashIterations(iterations);
+
+        if (verifiedCache != null) {
+            verifiedCache.invalidate(credentialModel.getId());
+        }
+    }
+
+    private static PasswordHashEvent beginEvent() {
+        if (!JfrSupport.isEnabled()) {
+            return null;
+        }
+        PasswordHashEvent event = JfrSupport.getEventFactory().newPasswordHashEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commitEvent(PasswordHashEvent event, String operation, int rounds, boolean verified) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setOperation(operation);
+            event.setAlgorithm(providerId);
+            event.setLogRounds(rounds);
+            event.setVerified(verified);
+            event.commit();
+        }
+    }
+
+    private String hash(String rawPassword, String salt) {
+        if (hashingExecutor == null) {
+            return getHash(rawPassword, salt);
+        }
+        return hashingExecutor.execute(() -> getHash(rawPassword, salt));
     }
 
     private String getHash(String rawPassword, String salt) {
         LOG.debug("BCryptPasswordHashProvider adding salt and pepper ...");
-        String pepperedPassword = rawPassword + pepper;
-        String base64PepperedPw = new String(Base64.encodeBase64(pepperedPassword.getBytes(StandardCharsets.UTF_8)),
-                StandardCharsets.UTF_8);
-        return BCrypt.hashpw(base64PepperedPw, salt);
+        return BCrypt.hashpw(getPepperedPassword(rawPassword), salt);
+    }
+
+    /**
+     * @return the base64 encoded password plus pepper, which is what is actually hashed by BCrypt
+     */
+    String getPepperedPassword(String rawPassword) {
+        return pepperedPasswordEncoder.encode(rawPassword);
     }
 
     @Override
     public boolean verify(String rawPassword, CredentialModel credentialModel) {
         LOG.debug("BCryptPasswordHashProvider verifying password ...");
-        return getHash(rawPassword, new String(credentialModel.getSalt(), StandardCharsets.UTF_8))
-                .equals(credentialModel.getValue());
+        if (verifiedCache != null && verifiedCache.isVerified(credentialModel, rawPassword)) {
+            LOG.debug("BCryptPasswordHashProvider password verified from cache");
+            return true;
+        }
+        long start = System.nanoTime();
+        PasswordHashEvent event = beginEvent();
+        String salt = new String(credentialModel.getSalt(), StandardCharsets.UTF_8);
+        boolean verified = false;
+        try {
+            verified = isEqual(hash(rawPassword, salt), credentialModel.getValue());
+        } finally {
+            VERIFY_TIMES.record(System.nanoTime() - start);
+            if (event != null) {
+                commitEvent(event, PasswordHashEvent.VERIFY, getLogRounds(credentialModel.getSalt()), verified);
+            }
+        }
+        if (verified && verifiedCache != null) {
+            verifiedCache.putVerified(credentialModel, rawPassword);
+        }
+        return verified;
+    }
+
+    /**
+     * Compare hashes in constant time (for hashes of equal length), so the time taken does not reveal how many leading
+     * characters matched
+     */
+    private static boolean isEqual(String hash, String storedHash) {
+        return storedHash != null && MessageDigest.isEqual(hash.getBytes(StandardCharsets.UTF_8),
+                storedHash.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -7,6 +7,7 @@ import org.keycloak.credential.hash.PasswordHashProvider;
 import org.keycloak.credential.hash.PasswordHashProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.springframework.security.crypto.bcrypt.BCrypt;
 
 /**
  * Factory for creating BCrypt password hashing provider
@@ -15,18 +16,55 @@ public class BCryptPasswordHashProviderFactory implements PasswordHashProviderFa
 
     private static final Logger LOG = LogManager.getLogger(BCryptPasswordHashProviderFactory.class);
 
-    private static final String ID = "BCrypt";
+    public static final String ID = "BCrypt";
 
     private static final int DEFAULT_LOG_ROUNDS = 13;
     private static final int MIN_LOG_ROUNDS = 4;
     private static final int MAX_LOG_ROUNDS = 31;
 
+    private static final int DEFAULT_CALIBRATION_TARGET_MS = 250;
+    private static final int DEFAULT_CALIBRATION_MIN_LOG_ROUNDS = 10;
+    private static final int DEFAULT_CALIBRATION_MAX_LOG_ROUNDS = 16;
+    private static final int CALIBRATION_SAMPLES = 3;
+
+    private static final int DEFAULT_VERIFY_CACHE_MAX_SIZE = 10_000;
+
+    private static final int DEFAULT_HASHING_QUEUE_SIZE = 100;
+    private static final long DEFAULT_HASHING_QUEUE_TIMEOUT = 5000L;
+    private static final long DEFAULT_HASHING_TIMEOUT = 10_000L;
+
+    private static volatile PasswordHashingExecutor hashingExecutor;
+
     private int logRounds = DEFAULT_LOG_ROUNDS;
+    private int minLogRounds = DEFAULT_LOG_ROUNDS;
+    private VerifiedCredentialCache verifiedCache;
+
+    /**
+     * @return the hashing pool used by the BCrypt providers, null if the factory is not initialised (yet) or the
+     * hashing pool is disabled
+     */
+    public static PasswordHashingExecutor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    /**
+     * @return the (configured or calibrated) log rounds used for new hashes
+     */
+    public int getLogRounds() {
+        return logRounds;
+    }
+
+    /**
+     * @return the minimum log rounds of stored hashes, hashes with a lower cost are re-encoded on login
+     */
+    public int getMinLogRounds() {
+        return minLogRounds;
+    }
 
     @Override
     public PasswordHashProvider create(KeycloakSession keycloakSession) {
         LOG.debug("Creating BCryptPasswordHashProvider ...");
-        return new BCryptPasswordHashProvider(ID, logRounds);
+        return new BCryptPasswordHashProvider(ID, logRounds, minLogRounds, verifiedCache, hashingExecutor);
     }
 
     @Override
@@ -36,6 +74,88 @@ public class BCryptPasswordHashProviderFactory implements PasswordHashProviderFa
         if (configLogRounds != null && configLogRounds >= MIN_LOG_ROUNDS && configLogRounds <= MAX_LOG_ROUNDS) {
             logRounds = configLogRounds;
         }
+        // calibration results differ per instance, so the rehash threshold must not depend on it
+        minLogRounds = logRounds;
+        if (scope.getBoolean("calibrate", Boolean.FALSE)) {
+            int calibrationMin = scope.getInt("calibration-min-log-rounds", DEFAULT_CALIBRATION_MIN_LOG_ROUNDS);
+            minLogRounds = calibrationMin;
+            logRounds = calibrateLogRounds(scope.getInt("calibration-target-ms", DEFAULT_CALIBRATION_TARGET_MS),
+                    calibrationMin, scope.getInt("calibration-max-log-rounds", DEFAULT_CALIBRATION_MAX_LOG_ROUNDS));
+        }
+        Integer configMin = scope.getInt("min-log-rounds");
+        if (configMin != null && configMin >= MIN_LOG_ROUNDS && configMin <= MAX_LOG_ROUNDS) {
+            minLogRounds = configMin;
+        }
+        // never create hashes that would be re-encoded right away
+        logRounds = Math.max(logRounds, minLogRounds);
+        LOG.info("BCrypt log rounds set to {}, hashes with less than {} log rounds are re-encoded", logRounds,
+                minLogRounds);
+
+        // verification cache is optional and disabled when no (or a 0) ttl is configured
+        Integer verifyCacheTtl = scope.getInt("verify-cache-ttl", 0);
+        Integer verifyCacheMaxSize = scope.getInt("verify-cache-max-size", DEFAULT_VERIFY_CACHE_MAX_SIZE);
+        if (verifyCacheTtl != null && verifyCacheTtl > 0 && verifyCacheMaxSize != null && verifyCacheMaxSize > 0) {
+            verifiedCache = new VerifiedCredentialCache(verifyCacheTtl * 1000L, verifyCacheMaxSize);
+        }
+
+        // hashing pool is enabled by default, size 0 means 1 thread per available processor
+        if (scope.getBoolean("hashing-pool-enabled", Boolean.TRUE)) {
+            int poolSize = scope.getInt("hashing-pool-size", 0);
+            if (poolSize <= 0) {
+                poolSize = Runtime.getRuntime().availableProcessors();
+            }
+            int queueSize = scope.getInt("hashing-queue-size", DEFAULT_HASHING_QUEUE_SIZE);
+            long queueTimeout = scope.getLong("hashing-queue-timeout", DEFAULT_HASHING_QUEUE_TIMEOUT);
+            long hashTimeout = scope.getLong("hashing-timeout", DEFAULT_HASHING_TIMEOUT);
+            initHashingExecutor(new PasswordHashingExecutor(poolSize, Math.max(1, queueSize), queueTimeout,
+                    hashTimeout));
+        }
+    }
+
+    /**
+     * Benchmark BCrypt on this machine and return the highest cost for which hashing stays within the target latency.
+     * Since every extra round doubles the hashing time, we stop as soon as the target is exceeded.
+     * @param targetMs maximum time in milliseconds that a single hash may take
+     * @param minRounds lowest cost allowed (returned even if it exceeds the target)
+     * @param maxRounds highest cost allowed
+     * @return calibrated log rounds
+     */
+    private static int calibrateLogRounds(int targetMs, int minRounds, int maxRounds) {
+        int min = Math.max(MIN_LOG_ROUNDS, minRounds);
+        int max = Math.min(MAX_LOG_ROUNDS, Math.max(min, maxRounds));
+        LOG.info("Calibrating BCrypt log rounds for a target of {} ms (range {}-{})...", targetMs, min, max);
+
+        // warm-up so the first measurement doesn't include class loading and JIT compilation
+        BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_LOG_ROUNDS));
+
+        int result = min;
+        for (int rounds = min; rounds <= max; rounds++) {
+            long durationMs = measureHashMillis(rounds);
+            LOG.info("BCrypt with {} log rounds takes {} ms", rounds, durationMs);
+            if (durationMs > targetMs) {
+                break;
+            }
+            result = rounds;
+        }
+        return result;
+    }
+
+    /**
+     * @return the fastest of a few BCrypt hashes with the provided cost, in milliseconds
+     */
+    private static long measureHashMillis(int rounds) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+            String salt = BCrypt.gensalt(rounds);
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1_000_000;
+    }
+
+    private static void initHashingExecutor(PasswordHashingExecutor executor) {
+        hashingExecutor = executor;
     }
 
     @Override
@@ -45,7 +165,14 @@ public class BCryptPasswordHashProviderFactory implements PasswordHashProviderFa
 
     @Override
     public void close() {
-        // no need to do anything
+        if (verifiedCache != null) {
+            verifiedCache.clear();
+        }
+        PasswordHashingExecutor executor = hashingExecutor;
+        if (executor != null) {
+            executor.shutdown();
+            initHashingExecutor(null);
+        }
     }
 
     @Override
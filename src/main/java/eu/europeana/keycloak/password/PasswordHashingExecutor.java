@@ -0,0 +1,209 @@
+package eu.europeana.keycloak.password;
+
+import eu.europeana.keycloak.exception.HashingOverloadException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dedicated, bounded thread pool for CPU-intensive password hashing so a burst of logins cannot tie up all request
+ * threads. Callers wait a limited time for their task to start and a limited time for it to finish. When the queue is
+ * full, or a task could not be started or finished in time, the request is shed with a
+ * {@link HashingOverloadException}.
+ */
+public class PasswordHashingExecutor {
+
+    private static final Logger LOG = LogManager.getLogger(PasswordHashingExecutor.class);
+
+    private static final long RETRY_AFTER_SECONDS = 1;
+    private static final long DEFAULT_HASH_TIMEOUT_MILLIS = 10_000L;
+
+    private final ThreadPoolExecutor executor;
+    private final long waitTimeoutMillis;
+    private final long hashTimeoutMillis;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Create a new hashing pool
+     * @param poolSize number of hashing threads
+     * @param queueSize maximum number of hashing tasks waiting for a thread
+     * @param waitTimeoutMillis maximum time in milliseconds that a task may wait for a thread
+     */
+    public PasswordHashingExecutor(int poolSize, int queueSize, long waitTimeoutMillis) {
+        this(poolSize, queueSize, waitTimeoutMillis, DEFAULT_HASH_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create a new hashing pool
+     * @param poolSize number of hashing threads
+     * @param queueSize maximum number of hashing tasks waiting for a thread
+     * @param waitTimeoutMillis maximum time in milliseconds that a task may wait for a thread
+     * @param hashTimeoutMillis maximum time in milliseconds that a caller waits for a started task to finish, 0 means
+     *                          no limit
+     */
+    public PasswordHashingExecutor(int poolSize, int queueSize, long waitTimeoutMillis, long hashTimeoutMillis) {
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.hashTimeoutMillis = hashTimeoutMillis;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new HashingThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+        LOG.info("Password hashing pool started with {} threads, queue size {}, wait timeout {} ms and hash timeout "
+                + "{} ms", poolSize, queueSize, waitTimeoutMillis, hashTimeoutMillis);
+    }
+
+    /**
+     * Run the provided hashing task on the hashing pool and wait for the result
+     * @param task hashing task to run
+     * @param <T> type of result
+     * @return the result of the task
+     * @throws HashingOverloadException when the hashing pool is saturated, or the task didn't finish in time
+     */
+    public <T> T execute(Callable<T> task) {
+        final long queuedAt = System.nanoTime();
+        final AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    // caller already gave up waiting, no need to do the work
+                    return null;
+                }
+                recordWait(System.nanoTime() - queuedAt);
+                return task.call();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new HashingOverloadException("Password hashing queue is full", RETRY_AFTER_SECONDS);
+        }
+
+        try {
+            T result;
+            try {
+                result = getResult(future, waitTimeoutMillis);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    future.cancel(false);
+                    timedOut.increment();
+                    throw new HashingOverloadException("Timeout waiting for password hashing thread", RETRY_AFTER_SECONDS);
+                }
+                // task was already started so we wait (a limited time) until it's finished
+                result = getResult(future, hashTimeoutMillis);
+            }
+            completed.increment();
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            throw new HashingOverloadException("Timeout waiting for password hashing to finish", RETRY_AFTER_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future, long timeoutMillis) throws InterruptedException, TimeoutException {
+        try {
+            return (timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Error during password hashing", cause);
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * @return true if new hashing tasks cannot be queued anymore
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of tasks that were not started or not finished in time
+     */
+    public long getTimeoutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * @return total time in milliseconds that started tasks waited in the queue
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum());
+    }
+
+    /**
+     * @return maximum time in milliseconds that a started task waited in the queue
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Stop the hashing pool
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class HashingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "password-hashing-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package eu.europeana.keycloak.password;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Creates the input for BCrypt hashing: base64(utf8(password + pepper)).
+ *
+ * Instead of concatenating strings and creating intermediate byte arrays for each call, the password is encoded
+ * directly into reusable per-thread buffers, followed by the pre-encoded pepper bytes. The only object that is created
+ * per call is the resulting (ASCII) string, because that's what the BCrypt library expects. The output is identical
+ * to <code>Base64.encodeBase64((password + pepper).getBytes(UTF_8))</code> which we used before, so existing hashes
+ * remain valid. Buffers are wiped after each use. Per-thread buffers grow to at most MAX_POOLED_BUFFER_SIZE bytes,
+ * longer passwords are encoded in temporary buffers (BCrypt only uses the first 72 bytes anyway, so there's no point in
+ * keeping large buffers for them).
+ */
+final class PepperedPasswordEncoder {
+
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte BASE64_PAD = '=';
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    static final int MAX_POOLED_BUFFER_SIZE = 1024;
+    private static final int MAX_BYTES_PER_CHAR =
+            (int) Math.ceil(StandardCharsets.UTF_8.newEncoder().maxBytesPerChar());
+
+    private static final ThreadLocal<Buffers> BUFFERS =
+            ThreadLocal.withInitial(() -> new Buffers(INITIAL_BUFFER_SIZE));
+
+    private final byte[] pepperBytes;
+
+    /**
+     * @param pepper pepper to add to each password. Note that for backwards compatibility a null pepper is treated as
+     *               the string "null" (as that's what string concatenation used to do)
+     */
+    PepperedPasswordEncoder(String pepper) {
+        this.pepperBytes = String.valueOf(pepper).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param rawPassword password to encode
+     * @return base64 encoded password plus pepper
+     */
+    String encode(String rawPassword) {
+        int maxLength = rawPassword.length() * MAX_BYTES_PER_CHAR + pepperBytes.length;
+        Buffers buffers = (maxLength <= MAX_POOLED_BUFFER_SIZE ? BUFFERS.get() : new Buffers(maxLength));
+        int plainLength = 0;
+        int base64Length = 0;
+        try {
+            buffers.ensureCapacity(maxLength);
+            plainLength = buffers.encodeUtf8(rawPassword, pepperBytes);
+            base64Length = buffers.encodeBase64(plainLength);
+            return new String(buffers.base64, 0, base64Length, StandardCharsets.ISO_8859_1);
+        } finally {
+            Arrays.fill(buffers.plain, 0, plainLength, (byte) 0);
+            Arrays.fill(buffers.base64, 0, base64Length, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the size of the current thread's plain buffer
+     */
+    static int getPooledBufferSize() {
+        return BUFFERS.get().plain.length;
+    }
+
+    private static final class Buffers {
+
+        private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] plain;
+        private ByteBuffer plainBuffer;
+        private byte[] base64;
+
+        private Buffers(int size) {
+            allocate(size);
+        }
+
+        private void allocate(int size) {
+            plain = new byte[size];
+            plainBuffer = ByteBuffer.wrap(plain);
+            base64 = new byte[base64Length(size)];
+        }
+
+        /**
+         * Make sure the buffers can hold maxLength plain bytes, wiping the old buffers if new ones are needed
+         */
+        private void ensureCapacity(int maxLength) {
+            if (maxLength > plain.length) {
+                Arrays.fill(plain, (byte) 0);
+                Arrays.fill(base64, (byte) 0);
+                allocate(maxLength);
+            }
+        }
+
+        /**
+         * UTF-8 encode the password into the plain buffer and append the pepper bytes
+         * @return number of bytes in the plain buffer
+         */
+        private int encodeUtf8(String rawPassword, byte[] pepperBytes) {
+            plainBuffer.clear();
+            utf8.reset();
+            utf8.encode(CharBuffer.wrap(rawPassword), plainBuffer, true);
+            utf8.flush(plainBuffer);
+            int length = plainBuffer.position();
+            System.arraycopy(pepperBytes, 0, plain, length, pepperBytes.length);
+            return length + pepperBytes.length;
+        }
+
+        /**
+         * Base64 encode (standard alphabet, with padding) the first length bytes of the plain buffer
+         * @return number of bytes in the base64 buffer
+         */
+        private int encodeBase64(int length) {
+            int in = 0;
+            int out = 0;
+            int fullGroups = length / 3 * 3;
+            while (in < fullGroups) {
+                int bits = (plain[in++] & 0xff) << 16 | (plain[in++] & 0xff) << 8 | (plain[in++] & 0xff);
+                base64[out++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+                base64[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+                base64[out++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+                base64[out++] = BASE64_ALPHABET[bits & 0x3f];
+            }
+            int remaining = length - fullGroups;
+            if (remaining > 0) {
+                int bits = (plain[in++] & 0xff) << 16;
+                if (remaining == 2) {
+                    bits |= (plain[in] & 0xff) << 8;
+                }
+                base64[out++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+                base64[out++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+                base64[out++] = (remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : BASE64_PAD);
+                base64[out++] = BASE64_PAD;
+            }
+            return out;
+        }
+
+        private static int base64Length(int plainLength) {
+            return (plainLength + 2) / 3 * 4;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package eu.europeana.keycloak.password;
+
+import eu.europeana.keycloak.StaticPropertyUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.UserCredentialModel;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * This class implements PBKDF2-HMAC-SHA256 hashing with salt and pepper for passwords. It uses the same pepper as the
+ * BCrypt provider, so when the realm's hash algorithm policy is set to this provider, existing BCrypt credentials are
+ * verified as usual and then re-encoded with this provider by Keycloak after each successful login.
+ */
+public class PepperedPbkdf2PasswordHashProvider implements PasswordHashProvider {
+
+    private static final Logger LOG = LogManager.getLogger(PepperedPbkdf2PasswordHashProvider.class);
+
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private String providerId;
+    private int defaultIterations;
+    private int keySize;
+    private String pepper;
+    private PasswordHashingExecutor hashingExecutor;
+
+    /**
+     * Create a new provider
+     * @param providerId id of the provider
+     * @param defaultIterations number of iterations to use if the password policy doesn't specify it
+     * @param keySize size in bits of the derived key
+     * @param hashingExecutor optional dedicated pool to run hashing on, if null hashing is done on the calling thread
+     */
+    public PepperedPbkdf2PasswordHashProvider(String providerId, int defaultIterations, int keySize,
+                                              PasswordHashingExecutor hashingExecutor) {
+        this(providerId, defaultIterations, keySize, StaticPropertyUtil.getPepper(), hashingExecutor);
+    }
+
+    /**
+     * Create a new provider with a specific pepper (for testing)
+     */
+    PepperedPbkdf2PasswordHashProvider(String providerId, int defaultIterations, int keySize, String pepper,
+                                       PasswordHashingExecutor hashingExecutor) {
+        LOG.debug("PepperedPbkdf2PasswordHashProvider created");
+        this.providerId        = providerId;
+        this.defaultIterations = defaultIterations;
+        this.keySize           = keySize;
+        this.pepper            = pepper;
+        this.hashingExecutor   = hashingExecutor;
+    }
+
+    @Override
+    public boolean policyCheck(PasswordPolicy passwordPolicy, CredentialModel credentialModel) {
+        LOG.debug("PepperedPbkdf2PasswordHashProvider policy check");
+        return providerId.equals(credentialModel.getAlgorithm())
+                && getIterations(passwordPolicy.getHashIterations()) == credentialModel.getHashIterations()
+                && keySize == getKeySize(credentialModel);
+    }
+
+    @Override
+    public void encode(String rawPassword, int iterations, CredentialModel credentialModel) {
+        LOG.debug("PepperedPbkdf2PasswordHashProvider encoding password ...");
+        int hashIterations = getIterations(iterations);
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] hash = hash(rawPassword, salt, hashIterations, keySize);
+
+        credentialModel.setAlgorithm(providerId);
+        credentialModel.setType(UserCredentialModel.PASSWORD);
+        credentialModel.setSalt(salt);
+        credentialModel.setValue(Base64.getEncoder().encodeToString(hash));
+        credentialModel.setHashIterations(hashIterations);
+    }
+
+    @Override
+    public boolean verify(String rawPassword, CredentialModel credentialModel) {
+        LOG.debug("PepperedPbkdf2PasswordHashProvider verifying password ...");
+        byte[] expected = Base64.getDecoder().decode(credentialModel.getValue());
+        byte[] actual = hash(rawPassword, credentialModel.getSalt(), credentialModel.getHashIterations(),
+                expected.length * Byte.SIZE);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private int getIterations(int iterations) {
+        return (iterations == -1 ? defaultIterations : iterations);
+    }
+
+    private static int getKeySize(CredentialModel credentialModel) {
+        return Base64.getDecoder().decode(credentialModel.getValue()).length * Byte.SIZE;
+    }
+
+    private byte[] hash(String rawPassword, byte[] salt, int iterations, int derivedKeySize) {
+        if (hashingExecutor == null) {
+            return getHash(rawPassword, salt, iterations, derivedKeySize);
+        }
+        return hashingExecutor.execute(() -> getHash(rawPassword, salt, iterations, derivedKeySize));
+    }
+
+    private byte[] getHash(String rawPassword, byte[] salt, int iterations, int derivedKeySize) {
+        char[] pepperedPassword = (rawPassword + pepper).toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(pepperedPassword, salt, iterations, derivedKeySize);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to hash password with " + PBKDF2_ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(pepperedPassword, '\0');
+        }
+    }
+
+    @Override
+    public void close() {
+        // no need to do anything
+    }
+}
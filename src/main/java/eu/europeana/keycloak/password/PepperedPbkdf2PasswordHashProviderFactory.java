@@ -0,0 +1,62 @@
+package eu.europeana.keycloak.password;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.Config;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.credential.hash.PasswordHashProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Factory for creating peppered PBKDF2-HMAC-SHA256 password hashing provider. Hashing is done on the same hashing
+ * pool as BCrypt (if enabled).
+ */
+public class PepperedPbkdf2PasswordHashProviderFactory implements PasswordHashProviderFactory {
+
+    private static final Logger LOG = LogManager.getLogger(PepperedPbkdf2PasswordHashProviderFactory.class);
+
+    private static final String ID = "PBKDF2-SHA256-Peppered";
+
+    private static final int DEFAULT_ITERATIONS = 27500;
+    private static final int DEFAULT_KEY_SIZE = 256;
+
+    private int iterations = DEFAULT_ITERATIONS;
+    private int keySize = DEFAULT_KEY_SIZE;
+
+    @Override
+    public PasswordHashProvider create(KeycloakSession keycloakSession) {
+        LOG.debug("Creating PepperedPbkdf2PasswordHashProvider ...");
+        return new PepperedPbkdf2PasswordHashProvider(ID, iterations, keySize,
+                BCryptPasswordHashProviderFactory.getHashingExecutor());
+    }
+
+    @Override
+    public void init(Config.Scope scope) {
+        LOG.debug("Initialising PepperedPbkdf2PasswordHashProviderFactory ...");
+        Integer configIterations = scope.getInt("iterations");
+        if (configIterations != null && configIterations > 0) {
+            iterations = configIterations;
+        }
+        Integer configKeySize = scope.getInt("key-size");
+        if (configKeySize != null && configKeySize > 0 && configKeySize % Byte.SIZE == 0) {
+            keySize = configKeySize;
+        }
+        LOG.info("PBKDF2 default iterations set to {}, key size {}", iterations, keySize);
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory keycloakSessionFactory) {
+        // no need to do anything
+    }
+
+    @Override
+    public void close() {
+        // no need to do anything, the hashing pool is closed by the BCrypt factory
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+}
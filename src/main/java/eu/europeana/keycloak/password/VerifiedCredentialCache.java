@@ -0,0 +1,169 @@
+package eu.europeana.keycloak.password;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.credential.CredentialModel;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, short-lived in-memory cache of successful password verifications.
+ *
+ * For each credential we only keep an HMAC-SHA256 digest of (credential id, credential value, password), computed with
+ * a random key that is generated at start-up and never leaves this class, so no plaintext password is ever stored.
+ * Because the stored credential value is part of the digest, a cached verification automatically stops matching as
+ * soon as the credential value changes. Entries are also removed explicitly when a credential is (re-)encoded.
+ */
+public class VerifiedCredentialCache {
+
+    private static final Logger LOG = LogManager.getLogger(VerifiedCredentialCache.class);
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+
+    private final long ttlMillis;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Create a new cache
+     * @param ttlMillis maximum time in milliseconds that a verification is remembered
+     * @param maxSize maximum number of credentials that are remembered, least recently used entries are removed first
+     */
+    public VerifiedCredentialCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        byte[] keyBytes = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        LOG.info("Verified credential cache enabled with ttl {} ms and max size {}", ttlMillis, maxSize);
+    }
+
+    /**
+     * Check if the provided password was recently verified successfully against the provided credential
+     * @param credentialModel stored credential
+     * @param rawPassword password to check
+     * @return true if there is a valid, non-expired cached verification, otherwise false
+     */
+    public boolean isVerified(CredentialModel credentialModel, String rawPassword) {
+        String credentialId = credentialModel.getId();
+        if (credentialId == null) {
+            return false;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(credentialId);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(credentialId);
+                entry = null;
+            }
+        }
+        return entry != null && MessageDigest.isEqual(entry.digest, digest(credentialModel, rawPassword));
+    }
+
+    /**
+     * Remember that the provided password was verified successfully against the provided credential
+     * @param credentialModel stored credential
+     * @param rawPassword password that was verified
+     */
+    public void putVerified(CredentialModel credentialModel, String rawPassword) {
+        String credentialId = credentialModel.getId();
+        if (credentialId == null) {
+            return;
+        }
+        Entry entry = new Entry(digest(credentialModel, rawPassword), System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(credentialId, entry);
+        }
+    }
+
+    /**
+     * Remove any cached verification for the provided credential
+     * @param credentialId id of the credential
+     */
+    public void invalidate(String credentialId) {
+        if (credentialId == null) {
+            return;
+        }
+        synchronized (entries) {
+            entries.remove(credentialId);
+        }
+    }
+
+    /**
+     * Remove all cached verifications
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of credentials for which a verification is cached (including expired ones that were not
+     * removed yet)
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private byte[] digest(CredentialModel credentialModel, String rawPassword) {
+        Mac mac = macs.get();
+        update(mac, credentialModel.getId());
+        update(mac, credentialModel.getValue());
+        update(mac, rawPassword);
+        return mac.doFinal();
+    }
+
+    /**
+     * Length-prefix each field so different combinations of field values can never result in the same input
+     */
+    private static void update(Mac mac, String value) {
+        if (value == null) {
+            mac.update(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        mac.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        mac.update(bytes);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialise " + HMAC_ALGORITHM, e);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] digest;
+        private final long expiresAt;
+
+        private Entry(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
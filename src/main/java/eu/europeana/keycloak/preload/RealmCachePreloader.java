@@ -0,0 +1,224 @@
+package eu.europeana.keycloak.preload;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.StartupTimer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads all clients (including their roles, client scopes and protocol mappers), realm roles and client scopes of a
+ * realm into Keycloak's realm cache directly after start-up, so the first requests of each client don't have to wait
+ * for database queries.
+ *
+ * This is done with Keycloak sessions in our own process, so no credentials or HTTP requests are needed. First the ids
+ * of all clients are retrieved with a single query, then clients are loaded in batches (each batch in its own
+ * transaction) on a small pool of threads. Preloading after start-up is disabled by default.
+ */
+public class RealmCachePreloader {
+
+    private static final Logger LOG = LogManager.getLogger(RealmCachePreloader.class);
+
+    /**
+     * State of the preloader
+     */
+    public enum State { PENDING, RUNNING, DONE, FAILED, SKIPPED }
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final KeycloakServerProperties.Preload settings;
+
+    private final AtomicInteger clients = new AtomicInteger();
+    private final Set<String> roleIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger clientScopes = new AtomicInteger();
+    private volatile State state = State.PENDING;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    public RealmCachePreloader(KeycloakSessionFactory sessionFactory, KeycloakServerProperties.Preload settings) {
+        this.sessionFactory = sessionFactory;
+        this.settings = settings;
+    }
+
+    /**
+     * Start preloading in a separate thread, so start-up isn't delayed
+     */
+    public void start() {
+        if (!settings.isEnabled()) {
+            state = State.SKIPPED;
+            return;
+        }
+        Thread thread = new Thread(this::run, "realm-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Load all clients, roles and client scopes of the configured realm
+     */
+    public void run() {
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()), r -> {
+            Thread t = new Thread(r, "realm-preload-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            AtomicReference<String> realmId = new AtomicReference<>();
+            List<String> clientIds = new ArrayList<>();
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealmByName(settings.getRealm());
+                if (realm != null) {
+                    realmId.set(realm.getId());
+                    loadRoles(realm.getRoles());
+                    clientScopes.addAndGet(realm.getClientScopes().size());
+                    clientIds.addAll(getClientIds(session, realm.getId()));
+                }
+            });
+            if (realmId.get() == null) {
+                LOG.warn("Not preloading realm cache, realm {} not found", settings.getRealm());
+                state = State.SKIPPED;
+                return;
+            }
+            loadClients(realmId.get(), clientIds, executor);
+            state = State.DONE;
+            LOG.info("Preloaded {} clients, {} roles and {} client scopes of realm {} in {} ms", clients.get(),
+                    getRoleCount(), clientScopes.get(), settings.getRealm(), getDuration());
+        } catch (RuntimeException e) {
+            state = State.FAILED;
+            LOG.error("Error preloading realm cache", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = State.FAILED;
+            LOG.warn("Preloading realm cache interrupted");
+        } finally {
+            endTime = System.currentTimeMillis();
+            StartupTimer.record(StartupTimer.PHASE_REALM_PRELOAD, startTime, endTime);
+            executor.shutdownNow();
+        }
+    }
+
+    private void loadClients(String realmId, List<String> clientIds, ExecutorService executor)
+            throws InterruptedException {
+        int batchSize = Math.max(1, settings.getBatchSize());
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < clientIds.size(); i += batchSize) {
+            List<String> batch = clientIds.subList(i, Math.min(i + batchSize, clientIds.size()));
+            results.add(executor.submit(() -> loadClientBatch(realmId, batch)));
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                LOG.warn("Error preloading batch of clients", e.getCause());
+            }
+        }
+    }
+
+    private void loadClientBatch(String realmId, List<String> batch) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            for (String id : batch) {
+                // loading through the (cached) realm puts the client in the realm cache
+                ClientModel client = realm.getClientById(id);
+                if (client != null) {
+                    clients.incrementAndGet();
+                    loadRoles(client.getRoles());
+                    client.getClientScopes(true, true);
+                    client.getClientScopes(false, true);
+                    client.getProtocolMappers();
+                }
+            }
+        });
+    }
+
+    /**
+     * Only the ids are retrieved, so the clients themselves are loaded (in parallel) by the batches. Loading them
+     * through realm.getClients() would load all clients one by one in this transaction.
+     * @return ids of all clients of the realm
+     */
+    static List<String> getClientIds(KeycloakSession session, String realmId) {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager()
+                .createNamedQuery("getClientIdsByRealm", String.class)
+                .setParameter("realm", realmId)
+                .getResultList();
+    }
+
+    /**
+     * Load the roles and their composites. A role can be a composite of several other roles, so we count role ids
+     * instead of adding up sizes.
+     */
+    private void loadRoles(Set<RoleModel> loaded) {
+        for (RoleModel role : loaded) {
+            roleIds.add(role.getId());
+            if (role.isComposite()) {
+                for (RoleModel composite : role.getComposites()) {
+                    roleIds.add(composite.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current state of the preloader
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if preloading is finished (successfully or not) or skipped
+     */
+    public boolean isFinished() {
+        State current = state;
+        return current != State.PENDING && current != State.RUNNING;
+    }
+
+    /**
+     * @return number of loaded clients (so far)
+     */
+    public int getClientCount() {
+        return clients.get();
+    }
+
+    /**
+     * @return number of loaded realm and client roles (so far)
+     */
+    public int getRoleCount() {
+        return roleIds.size();
+    }
+
+    /**
+     * @return number of loaded realm client scopes
+     */
+    public int getClientScopeCount() {
+        return clientScopes.get();
+    }
+
+    /**
+     * @return duration of the preloading in milliseconds (so far)
+     */
+    public long getDuration() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+}
@@ -0,0 +1,121 @@
+package eu.europeana.keycloak.userimport;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads users from a CSV file. The first line should be a header with the column names (username, email, firstName,
+ * lastName, password, enabled, emailVerified), in any order. Fields may be quoted with double quotes, quoted fields may
+ * contain separators, line breaks and escaped ("") quotes. Rows are numbered by record (excluding the header), so a
+ * field with line breaks doesn't change the numbering.
+ */
+public class CsvUserImportReader implements UserImportReader {
+
+    private static final CsvMapper MAPPER = new CsvMapper().enable(CsvParser.Feature.WRAP_AS_ARRAY);
+
+    private final MappingIterator<String[]> records;
+    // lower case column name -> index
+    private final Map<String, Integer> columns = new HashMap<>();
+    private long rowNumber;
+    private String[] nextRecord;
+
+    public CsvUserImportReader(Path file) throws IOException {
+        // we read the header as a regular record, so column names can be matched case-insensitively
+        this.records = MAPPER.readerFor(String[].class).readValues(file.toFile());
+        String[] header = read();
+        if (header == null) {
+            records.close();
+            throw new IOException("File " + file + " is empty");
+        }
+        for (int i = 0; i < header.length; i++) {
+            columns.put(header[i].trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("username")) {
+            records.close();
+            throw new IOException("File " + file + " has no username column");
+        }
+        rowNumber = 0;
+        readNextRecord();
+    }
+
+    /**
+     * @return the next non-empty record, or null if there are no more records
+     */
+    private String[] read() throws IOException {
+        while (records.hasNextValue()) {
+            String[] record = records.nextValue();
+            if (!isEmpty(record)) {
+                return record;
+            }
+            // empty lines are skipped, but still count so row numbers match the file
+            rowNumber++;
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String[] record) {
+        for (String value : record) {
+            if (value != null && !value.trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readNextRecord() throws IOException {
+        nextRecord = read();
+        rowNumber++;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextRecord != null;
+    }
+
+    @Override
+    public UserImportRow next() {
+        if (nextRecord == null) {
+            throw new NoSuchElementException();
+        }
+        String[] values = nextRecord;
+        UserImportRow row = new UserImportRow();
+        row.setRowNumber(rowNumber);
+        row.setUsername(get(values, "username"));
+        row.setEmail(get(values, "email"));
+        row.setFirstName(get(values, "firstname"));
+        row.setLastName(get(values, "lastname"));
+        row.setPassword(get(values, "password"));
+        String enabled = get(values, "enabled");
+        row.setEnabled(enabled == null || Boolean.parseBoolean(enabled));
+        row.setEmailVerified(Boolean.parseBoolean(get(values, "emailverified")));
+        try {
+            readNextRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return row;
+    }
+
+    private String get(String[] values, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= values.length) {
+            return null;
+        }
+        String value = values[index];
+        return (value == null || value.isEmpty() ? null : value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+}
@@ -0,0 +1,61 @@
+package eu.europeana.keycloak.userimport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads users from a JSON file containing an array of user objects. The array is streamed, so only one user object
+ * is in memory at a time.
+ */
+public class JsonUserImportReader implements UserImportReader {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final JsonParser parser;
+    private long rowNumber;
+    private boolean hasNext;
+
+    public JsonUserImportReader(Path file) throws IOException {
+        this.parser = MAPPER.getFactory().createParser(file.toFile());
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new IOException("File " + file + " does not contain a JSON array");
+        }
+        advance();
+    }
+
+    private void advance() throws IOException {
+        hasNext = (parser.nextToken() == JsonToken.START_OBJECT);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public UserImportRow next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        try {
+            UserImportRow row = MAPPER.readValue(parser, UserImportRow.class);
+            row.setRowNumber(++rowNumber);
+            advance();
+            return row;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,26 @@
+package eu.europeana.keycloak.userimport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Streams users from an import file, so the file never has to be loaded into memory completely
+ */
+public interface UserImportReader extends Iterator<UserImportRow>, Closeable {
+
+    /**
+     * Open a reader for the provided file. Files ending with .json are read as a JSON array of user objects, all other
+     * files are read as CSV with a header line.
+     * @param file file to read
+     * @return reader for the file
+     * @throws IOException when the file cannot be opened
+     */
+    static UserImportReader open(Path file) throws IOException {
+        if (file.getFileName().toString().toLowerCase().endsWith(".json")) {
+            return new JsonUserImportReader(file);
+        }
+        return new CsvUserImportReader(file);
+    }
+}
@@ -0,0 +1,112 @@
+package eu.europeana.keycloak.userimport;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.keycloak.credential.CredentialModel;
+
+/**
+ * A single user read from an import file
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class UserImportRow {
+
+    private long rowNumber;
+    private String username;
+    private String email;
+    private String firstName;
+    private String lastName;
+    private String password;
+    private boolean enabled = true;
+    private boolean emailVerified;
+
+    @JsonIgnore
+    private CredentialModel credential;
+    @JsonIgnore
+    private String error;
+
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    public void setRowNumber(long rowNumber) {
+        this.rowNumber = rowNumber;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEmailVerified() {
+        return emailVerified;
+    }
+
+    public void setEmailVerified(boolean emailVerified) {
+        this.emailVerified = emailVerified;
+    }
+
+    /**
+     * @return the hashed password credential, null if the row has no password or hashing failed
+     */
+    public CredentialModel getCredential() {
+        return credential;
+    }
+
+    public void setCredential(CredentialModel credential) {
+        this.credential = credential;
+    }
+
+    /**
+     * @return error message if the row could not be processed, otherwise null
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,289 @@
+package eu.europeana.keycloak.userimport;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.password.BCryptPasswordHashProvider;
+import eu.europeana.keycloak.password.BCryptPasswordHashProviderFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.provider.ProviderFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Imports users (including passwords) from a CSV or JSON file into a realm.
+ *
+ * Passwords are hashed with the algorithm of the realm's password policy, in parallel on a fork-join pool, after which
+ * each batch of users is stored in a single transaction. If a batch fails, its users are stored one by one so only the
+ * faulty rows are rejected. Rows that fail (including duplicate usernames) are written to &lt;file&gt;.errors.csv. After
+ * each batch the last processed row number is saved in &lt;file&gt;.progress, so an interrupted import continues where
+ * it left off when it's started again.
+ */
+public class UserImporter {
+
+    private static final Logger LOG = LogManager.getLogger(UserImporter.class);
+
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final String ERRORS_SUFFIX = ".errors.csv";
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final KeycloakServerProperties.UserImport settings;
+
+    private PasswordHashProvider hashProvider;
+    private int hashIterations;
+
+    private long imported;
+    private long failed;
+    private long skipped;
+
+    public UserImporter(KeycloakSessionFactory sessionFactory, KeycloakServerProperties.UserImport settings) {
+        this.sessionFactory = sessionFactory;
+        this.settings = settings;
+    }
+
+    /**
+     * Import all users from the configured file
+     * @throws IOException when the import file cannot be read, or progress or errors cannot be written
+     */
+    public void run() throws IOException {
+        Path file = Paths.get(settings.getFile());
+        Path progressFile = Paths.get(settings.getFile() + PROGRESS_SUFFIX);
+        Path errorsFile = Paths.get(settings.getFile() + ERRORS_SUFFIX);
+        long resumeAfter = readProgress(progressFile);
+        LOG.info("Starting import of users from {} into realm {}{}", file, settings.getRealm(),
+                (resumeAfter > 0 ? ", continuing after row " + resumeAfter : ""));
+        init();
+
+        long startTime = System.currentTimeMillis();
+        ForkJoinPool hashingPool = new ForkJoinPool(Math.max(1, settings.getParallelism()));
+        try (UserImportReader reader = UserImportReader.open(file);
+             PrintWriter errors = new PrintWriter(Files.newBufferedWriter(errorsFile, StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            List<UserImportRow> batch = new ArrayList<>(settings.getBatchSize());
+            while (reader.hasNext()) {
+                UserImportRow row = reader.next();
+                if (row.getRowNumber() <= resumeAfter) {
+                    skipped++;
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() >= settings.getBatchSize()) {
+                    processBatch(batch, hashingPool, errors, progressFile, startTime);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                processBatch(batch, hashingPool, errors, progressFile, startTime);
+            }
+        } finally {
+            hashingPool.shutdown();
+        }
+        LOG.info("Import finished in {} seconds: {} users imported, {} failed, {} skipped (already imported)",
+                (System.currentTimeMillis() - startTime) / 1000, imported, failed, skipped);
+        if (failed > 0) {
+            LOG.warn("Failed rows are listed in {}", errorsFile);
+        }
+    }
+
+    /**
+     * Check the realm exists and get the hash provider of the realm's password policy
+     */
+    private void init() {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            PasswordPolicy policy = getRealm(session).getPasswordPolicy();
+            hashIterations = policy.getHashIterations();
+            hashProvider = createHashProvider(session, policy.getHashAlgorithm());
+        });
+    }
+
+    private PasswordHashProvider createHashProvider(KeycloakSession session, String algorithm) {
+        ProviderFactory<?> factory = sessionFactory.getProviderFactory(PasswordHashProvider.class,
+                algorithm);
+        if (factory instanceof BCryptPasswordHashProviderFactory) {
+            // we create our own provider, so hashing is done on our fork-join pool and not on the (bounded) login pool
+            BCryptPasswordHashProviderFactory bcrypt = (BCryptPasswordHashProviderFactory) factory;
+            return new BCryptPasswordHashProvider(algorithm, bcrypt.getLogRounds(), bcrypt.getMinLogRounds(),
+                    null, null);
+        }
+        // hash providers don't keep any session state, so the provider can still be used after the session is closed
+        PasswordHashProvider provider = session.getProvider(PasswordHashProvider.class, algorithm);
+        if (provider == null) {
+            throw new IllegalStateException("No password hash provider found for algorithm " + algorithm);
+        }
+        return provider;
+    }
+
+    private RealmModel getRealm(KeycloakSession session) {
+        RealmModel realm = session.realms().getRealmByName(settings.getRealm());
+        if (realm == null) {
+            throw new IllegalStateException("Realm " + settings.getRealm() + " not found");
+        }
+        return realm;
+    }
+
+    private void processBatch(List<UserImportRow> batch, ForkJoinPool hashingPool, PrintWriter errors,
+                              Path progressFile, long startTime) throws IOException {
+        rejectDuplicates(batch);
+        hashPasswords(batch, hashingPool);
+
+        List<UserImportRow> valid = new ArrayList<>(batch.size());
+        for (UserImportRow row : batch) {
+            if (row.getError() == null) {
+                valid.add(row);
+            } else {
+                writeError(errors, row);
+            }
+        }
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = getRealm(session);
+                for (UserImportRow row : valid) {
+                    createUser(session, realm, row);
+                }
+            });
+            imported += valid.size();
+        } catch (RuntimeException e) {
+            LOG.warn("Storing batch of rows {}-{} failed ({}), retrying row by row...",
+                    batch.get(0).getRowNumber(), batch.get(batch.size() - 1).getRowNumber(), e.getMessage());
+            storeOneByOne(valid, errors);
+        }
+        errors.flush();
+        writeProgress(progressFile, batch.get(batch.size() - 1).getRowNumber());
+
+        long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        LOG.info("Processed up to row {}: {} imported, {} failed ({} users/second)",
+                batch.get(batch.size() - 1).getRowNumber(), imported, failed, imported / seconds);
+    }
+
+    /**
+     * Reject rows with a username that's already used by an earlier row in the same batch, so the batch doesn't fail
+     * as a whole. Duplicates of users in earlier batches or already in the realm are rejected when storing.
+     */
+    static void rejectDuplicates(List<UserImportRow> batch) {
+        Set<String> usernames = new HashSet<>(batch.size());
+        for (UserImportRow row : batch) {
+            // Keycloak stores usernames in lower case
+            if (row.getUsername() != null && !usernames.add(row.getUsername().toLowerCase(Locale.ROOT))) {
+                row.setError("Duplicate username " + row.getUsername());
+                row.setPassword(null);
+            }
+        }
+    }
+
+    private void hashPasswords(List<UserImportRow> batch, ForkJoinPool hashingPool) {
+        try {
+            hashingPool.submit(() -> batch.parallelStream().forEach(this::hashPassword)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error hashing passwords", e.getCause());
+        }
+    }
+
+    private void hashPassword(UserImportRow row) {
+        if (row.getError() != null) {
+            return;
+        }
+        if (row.getUsername() == null) {
+            row.setError("No username");
+            return;
+        }
+        if (row.getPassword() == null) {
+            return;
+        }
+        try {
+            CredentialModel credential = new CredentialModel();
+            hashProvider.encode(row.getPassword(), hashIterations, credential);
+            credential.setCreatedDate(Time.currentTimeMillis());
+            row.setCredential(credential);
+        } catch (RuntimeException e) {
+            row.setError("Error hashing password: " + e.getMessage());
+        } finally {
+            // no need to keep the plain text password around any longer
+            row.setPassword(null);
+        }
+    }
+
+    private void storeOneByOne(List<UserImportRow> rows, PrintWriter errors) {
+        for (UserImportRow row : rows) {
+            try {
+                KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+                        createUser(session, getRealm(session), row));
+                imported++;
+            } catch (RuntimeException e) {
+                row.setError(e.getMessage());
+                writeError(errors, row);
+            }
+        }
+    }
+
+    private void createUser(KeycloakSession session, RealmModel realm, UserImportRow row) {
+        if (session.users().getUserByUsername(row.getUsername(), realm) != null) {
+            throw new IllegalArgumentException("User " + row.getUsername() + " already exists");
+        }
+        UserModel user = session.users().addUser(realm, row.getUsername());
+        user.setEnabled(row.isEnabled());
+        user.setEmail(row.getEmail());
+        user.setEmailVerified(row.isEmailVerified());
+        user.setFirstName(row.getFirstName());
+        user.setLastName(row.getLastName());
+        if (row.getCredential() != null) {
+            session.userCredentialManager().createCredential(realm, user, row.getCredential());
+        }
+    }
+
+    /**
+     * @return number of rows that were imported
+     */
+    public long getImportedCount() {
+        return imported;
+    }
+
+    /**
+     * @return number of rows that could not be imported
+     */
+    public long getFailedCount() {
+        return failed;
+    }
+
+    private void writeError(PrintWriter errors, UserImportRow row) {
+        failed++;
+        String message = String.valueOf(row.getError()).replace("\"", "\"\"");
+        String username = String.valueOf(row.getUsername()).replace("\"", "\"\"");
+        errors.println(row.getRowNumber() + ",\"" + username + "\",\"" + message + "\"");
+    }
+
+    private static long readProgress(Path progressFile) throws IOException {
+        if (!Files.exists(progressFile)) {
+            return 0;
+        }
+        String progress = new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8).trim();
+        return (progress.isEmpty() ? 0 : Long.parseLong(progress));
+    }
+
+    private static void writeProgress(Path progressFile, long rowNumber) throws IOException {
+        Files.write(progressFile, Long.toString(rowNumber).getBytes(StandardCharsets.UTF_8));
+    }
+}
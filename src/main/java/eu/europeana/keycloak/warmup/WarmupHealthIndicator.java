@@ -0,0 +1,50 @@
+package eu.europeana.keycloak.warmup;
+
+import eu.europeana.keycloak.EmbeddedKeycloakApplication;
+import eu.europeana.keycloak.preload.RealmCachePreloader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports the application as DOWN until warm-up has finished (or timed out) and the realm cache is preloaded, so load
+ * balancers only send traffic to instances that are warmed up
+ */
+@Component
+public class WarmupHealthIndicator extends AbstractHealthIndicator {
+
+    private final WarmupService warmupService;
+
+    @Autowired
+    public WarmupHealthIndicator(WarmupService warmupService) {
+        this.warmupService = warmupService;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        RealmCachePreloader preloader = EmbeddedKeycloakApplication.getRealmCachePreloader();
+        boolean preloaded = preloader == null || preloader.isFinished();
+        if (warmupService.isReady() && preloaded) {
+            builder.up();
+        } else {
+            builder.down();
+        }
+        builder.withDetail("state", warmupService.getState())
+                .withDetail("duration", warmupService.getDuration())
+                .withDetail("failures", warmupService.getFailureCount())
+                .withDetail("stages", warmupService.getStageDurations());
+        if (preloader != null) {
+            Map<String, Object> preload = new LinkedHashMap<>();
+            preload.put("state", preloader.getState());
+            preload.put("duration", preloader.getDuration());
+            preload.put("clients", preloader.getClientCount());
+            preload.put("roles", preloader.getRoleCount());
+            preload.put("clientScopes", preloader.getClientScopeCount());
+            builder.withDetail("preload", preload);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package eu.europeana.keycloak.warmup;
+
+import com.jayway.jsonpath.JsonPath;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.KeycloakServerProperties.WarmupStage;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms up the application after start-up by running the configured warm-up stages (e.g. token requests, certs,
+ * userinfo and introspection) against our own http port, so the JIT, caches and connection pool are warm before the
+ * application receives real traffic. Until warm-up is finished or has timed out, {@link WarmupHealthIndicator} reports
+ * the application as DOWN.
+ *
+ * For backwards compatibility a configured keycloak.warmup.request is run as an extra GET stage at the end.
+ */
+@Component
+public class WarmupService {
+
+    private static final Logger LOG = LogManager.getLogger(WarmupService.class);
+
+    /**
+     * State of the warm-up
+     */
+    public enum State { PENDING, RUNNING, DONE, TIMED_OUT, SKIPPED }
+
+    @Value("${keycloak.manager-client.id}")
+    private String managerId;
+
+    @Value("${keycloak.manager-client.secret}")
+    private String managerSecret;
+
+    @Value("${keycloak.warmup.request:}")
+    private String warmupRequest;
+
+    @Value("${keycloak.forward.token-service}")
+    private String tokenBasePath;
+
+    private final KeycloakServerProperties.Warmup settings;
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final Map<String, Long> stageDurations = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile State state = State.PENDING;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile String token;
+
+    @Autowired
+    public WarmupService(KeycloakServerProperties kcProperties) {
+        this.settings = kcProperties.getWarmup();
+    }
+
+    /**
+     * Start warm-up in a separate thread, so start-up can finish (even in case of errors during warm-up)
+     * @param port http port the application is listening on
+     */
+    public void start(int port) {
+        List<WarmupStage> stages = getStages();
+        if (!settings.isEnabled() || stages.isEmpty() || !areWarmUpPropertiesSet(managerId, managerSecret)) {
+            LOG.info("Skipping warmup because it's disabled or not all necessary properties have been set");
+            state = State.SKIPPED;
+            return;
+        }
+        startTime = System.currentTimeMillis();
+        state = State.RUNNING;
+        Thread thread = new Thread(() -> run("http://localhost:" + port, stages), "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the current state of the warm-up
+     */
+    public State getState() {
+        State current = state;
+        if (current == State.RUNNING && System.currentTimeMillis() - startTime > settings.getTimeout() * 1000L) {
+            return State.TIMED_OUT;
+        }
+        return current;
+    }
+
+    /**
+     * @return true if the application can receive traffic, i.e. warm-up was done, skipped or has timed out
+     */
+    public boolean isReady() {
+        State current = getState();
+        return current != State.PENDING && current != State.RUNNING;
+    }
+
+    /**
+     * @return duration in milliseconds of each finished stage
+     */
+    public Map<String, Long> getStageDurations() {
+        synchronized (stageDurations) {
+            return new LinkedHashMap<>(stageDurations);
+        }
+    }
+
+    /**
+     * @return number of failed warm-up requests
+     */
+    public int getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return total warm-up duration in milliseconds (so far)
+     */
+    public long getDuration() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    private List<WarmupStage> getStages() {
+        List<WarmupStage> stages = new ArrayList<>(settings.getStages());
+        if (StringUtils.isNotBlank(warmupRequest)) {
+            stages.add(new WarmupStage("request", WarmupStage.Type.GET, warmupRequest, 1, false));
+        }
+        return stages;
+    }
+
+    private void run(String host, List<WarmupStage> stages) {
+        LOG.info("Starting warm-up with {} stages...", stages.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, settings.getParallelism()), r -> {
+            Thread t = new Thread(r, "warmup-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (WarmupStage stage : stages) {
+                if (getState() == State.TIMED_OUT) {
+                    state = State.TIMED_OUT;
+                    LOG.warn("Warm-up timed out after {} seconds, skipping remaining stages", settings.getTimeout());
+                    return;
+                }
+                runStage(host, stage, executor);
+            }
+            state = State.DONE;
+            LOG.info("Warm-up completed after {} ms with {} failed requests", getDuration(), failures.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = State.DONE;
+            LOG.warn("Warm-up interrupted");
+        } finally {
+            endTime = System.currentTimeMillis();
+            executor.shutdownNow();
+        }
+    }
+
+    private void runStage(String host, WarmupStage stage, ExecutorService executor) throws InterruptedException {
+        long stageStart = System.currentTimeMillis();
+        int iterations = Math.max(1, stage.getIterations());
+        if (stage.isParallel()) {
+            List<Future<?>> results = new ArrayList<>(iterations);
+            for (int i = 0; i < iterations; i++) {
+                results.add(executor.submit(() -> runRequest(host, stage)));
+            }
+            // all requests share the warm-up deadline, so stuck requests can't make us wait longer than the timeout
+            long deadline = startTime + settings.getTimeout() * 1000L;
+            for (Future<?> result : results) {
+                try {
+                    result.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    failures.incrementAndGet();
+                    result.cancel(true);
+                    LOG.debug("Warm-up request of stage {} failed", stage.getName(), e);
+                }
+            }
+        } else {
+            for (int i = 0; i < iterations && getState() == State.RUNNING; i++) {
+                runRequest(host, stage);
+            }
+        }
+        long duration = System.currentTimeMillis() - stageStart;
+        stageDurations.put(stage.getName(), duration);
+        LOG.info("Warm-up stage {} ({} x {} {}) finished in {} ms", stage.getName(), iterations, stage.getType(),
+                stage.getPath(), duration);
+    }
+
+    private void runRequest(String host, WarmupStage stage) {
+        try {
+            if (stage.getType() == WarmupStage.Type.TOKEN) {
+                token = getToken(host + StringUtils.defaultIfBlank(stage.getPath(), tokenBasePath + "/token"));
+                return;
+            }
+            String currentToken = token;
+            if (currentToken == null) {
+                currentToken = getToken(host + tokenBasePath + "/token");
+                token = currentToken;
+            }
+            HttpHeaders headers = new HttpHeaders();
+            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            headers.add("Authorization", "Bearer " + currentToken);
+            ResponseEntity<String> response;
+            if (stage.getType() == WarmupStage.Type.POST) {
+                headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+                MultiValueMap<String, String> form = getClientCredentials();
+                form.add("token", currentToken);
+                response = restTemplate.exchange(host + stage.getPath(), HttpMethod.POST,
+                        new HttpEntity<>(form, headers), String.class);
+            } else {
+                response = restTemplate.exchange(host + stage.getPath(), HttpMethod.GET,
+                        new HttpEntity<String>(headers), String.class);
+            }
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                failures.incrementAndGet();
+                LOG.warn("Warm-up request {} {} returned HTTP status {}", stage.getType(), stage.getPath(),
+                        response.getStatusCode());
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            LOG.warn("Warm-up request {} {} failed: {}", stage.getType(), stage.getPath(), e.getMessage());
+        }
+    }
+
+    private String getToken(String path) {
+        HttpHeaders tokenHeaders = new HttpHeaders();
+        tokenHeaders.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        MultiValueMap<String, String> map = getClientCredentials();
+        map.add("grant_type", "client_credentials");
+        LOG.debug("Token request = {}", path);
+        ResponseEntity<String> tokenResponse = restTemplate.postForEntity(path, new HttpEntity<>(map, tokenHeaders),
+                String.class);
+        return JsonPath.read(tokenResponse.getBody(), "access_token");
+    }
+
+    private MultiValueMap<String, String> getClientCredentials() {
+        MultiValueMap<String, String> map = new LinkedMultiValueMap<>();
+        map.add("client_id", managerId);
+        map.add("client_secret", managerSecret);
+        return map;
+    }
+
+    private static boolean areWarmUpPropertiesSet(String... requiredProperties) {
+        return StringUtils.isNoneBlank(requiredProperties) && !StringUtils.equalsAnyIgnoreCase("REMOVED", requiredProperties);
+    }
+}
@@ -0,0 +1,234 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.event.CacheInvalidationListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a forwarded GET response (e.g. the realm's public keys) in memory, so it can be served without going through
+ * Keycloak for every request. Responses are served with a strong ETag and a Cache-Control max-age, and requests with
+ * a matching If-None-Match header get a 304 Not Modified.
+ *
+ * The response is reloaded from Keycloak when it's older than the refresh interval, or after {@link #invalidate()} which
+ * is called when we receive an event that realm keys have changed.
+ * Only one request does the reloading, other requests get the previous version in the mean time. When there is no
+ * previous version (at start-up or after invalidation) other requests wait until it's loaded. Only 200 responses
+ * with a body are cached, anything else is passed on to the client as is.
+ */
+public class CachedForwardResponse implements CacheInvalidationListener {
+
+    private static final Logger LOG = LogManager.getLogger(CachedForwardResponse.class);
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    // headers set by Keycloak that we don't want to keep, either because we set them ourselves or they're user specific
+    private static final List<String> IGNORED_HEADERS = Arrays.asList("cache-control", "pragma", "expires", "etag",
+            "set-cookie", "date");
+
+    /**
+     * Loads the response that should be cached, normally by forwarding the request to Keycloak
+     */
+    @FunctionalInterface
+    public interface ResponseLoader {
+        void load(HttpServletResponse response);
+    }
+
+    private final String name;
+    private final long refreshMillis;
+    private final String cacheControl;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Object loadLock = new Object();
+    private volatile Entry entry;
+
+    /**
+     * @param name name of the cached response (for logging)
+     * @param maxAgeSeconds max-age that clients may cache the response
+     * @param refreshSeconds number of seconds after which the response is reloaded from Keycloak
+     */
+    public CachedForwardResponse(String name, int maxAgeSeconds, int refreshSeconds) {
+        this.name = name;
+        this.refreshMillis = refreshSeconds * 1000L;
+        this.cacheControl = "public, max-age=" + Math.max(0, maxAgeSeconds);
+    }
+
+    /**
+     * Send the cached response (or a 304 if the client has the latest version). If there is no cached response yet or
+     * it's time to refresh, the response is loaded first.
+     * @param request the incoming request
+     * @param response the response to write to
+     * @param loader used to load the response if necessary
+     * @throws IOException when writing the response fails
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, ResponseLoader loader)
+            throws IOException {
+        Entry current = entry;
+        long now = System.currentTimeMillis();
+        if (current == null) {
+            // only one request loads the response, others wait for it instead of all going to Keycloak
+            synchronized (loadLock) {
+                current = entry;
+                if (current == null) {
+                    current = load(null, response, loader, now);
+                    if (current == null) {
+                        return;
+                    }
+                }
+            }
+        } else if (now - current.loadedAt >= refreshMillis && refreshing.compareAndSet(false, true)) {
+            try {
+                current = load(current, response, loader, now);
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        write(current, request, response);
+    }
+
+    /**
+     * Load the response and store it if it can be cached
+     * @return the new entry, the previous entry if loading failed, or null if loading failed and there is no previous
+     * entry (in which case the loaded response is sent as is)
+     */
+    private Entry load(Entry previous, HttpServletResponse response, ResponseLoader loader, long now)
+            throws IOException {
+        BufferedResponseWrapper loaded = new BufferedResponseWrapper(response);
+        loader.load(loaded);
+        byte[] body = loaded.getBody();
+        if (loaded.getStatus() == HttpServletResponse.SC_OK && body.length > 0) {
+            return store(previous, loaded, body, now);
+        }
+        if (previous == null) {
+            loaded.copyTo(response);
+            return null;
+        }
+        LOG.warn("Refreshing {} failed with status {}, serving previous version", name, loaded.getStatus());
+        return previous;
+    }
+
+    /**
+     * Remove the cached response, so it's loaded again on the next request
+     */
+    public void invalidate() {
+        entry = null;
+    }
+
+    @Override
+    public void keysChanged() {
+        invalidate();
+    }
+
+    /**
+     * @return the ETag of the cached response, or null if nothing is cached
+     */
+    public String getETag() {
+        Entry current = entry;
+        return (current == null ? null : current.etag);
+    }
+
+    private Entry store(Entry previous, BufferedResponseWrapper loaded, byte[] body, long now) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : loaded.getHeaderMap().entrySet()) {
+            if (!IGNORED_HEADERS.contains(header.getKey())) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        Entry result = new Entry(body, loaded.getContentType(), Collections.unmodifiableMap(headers), now);
+        if (previous == null || !previous.etag.equals(result.etag)) {
+            LOG.info("Loaded {} ({} bytes, ETag {})", name, body.length, result.etag);
+        }
+        entry = result;
+        return result;
+    }
+
+    private void write(Entry current, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setHeader(HEADER_ETAG, current.etag);
+        response.setHeader(HEADER_CACHE_CONTROL, cacheControl);
+        if (isNotModified(request.getHeaders(HEADER_IF_NONE_MATCH), current.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        for (Map.Entry<String, List<String>> header : current.headers.entrySet()) {
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+        if (current.contentType != null) {
+            response.setContentType(current.contentType);
+        }
+        response.setContentLength(current.body.length);
+        response.getOutputStream().write(current.body);
+    }
+
+    /**
+     * Check If-None-Match header(s) against an ETag. As specified in RFC 7232 we use weak comparison, so W/ prefixes
+     * are ignored.
+     * @param ifNoneMatch values of If-None-Match headers (may be null)
+     * @param etag the current ETag
+     * @return true if one of the headers matches
+     */
+    static boolean isNotModified(Enumeration<String> ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = stripWeak(etag);
+        while (ifNoneMatch.hasMoreElements()) {
+            for (String tag : ifNoneMatch.nextElement().split(",")) {
+                String trimmed = tag.trim();
+                if ("*".equals(trimmed) || opaqueTag.equals(stripWeak(trimmed))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return (tag.startsWith("W/") ? tag.substring(2) : tag);
+    }
+
+    /**
+     * Generate a strong ETag based on the SHA-256 hash of the response body
+     */
+    static String createETag(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return '"' + new String(Base64.getUrlEncoder().withoutPadding().encode(hash), StandardCharsets.US_ASCII) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] body;
+        private final String contentType;
+        private final Map<String, List<String>> headers;
+        private final String etag;
+        private final long loadedAt;
+
+        private Entry(byte[] body, String contentType, Map<String, List<String>> headers, long loadedAt) {
+            this.body = body;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.etag = createETag(body);
+            this.loadedAt = loadedAt;
+        }
+    }
+}
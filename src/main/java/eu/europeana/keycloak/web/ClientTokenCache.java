@@ -0,0 +1,357 @@
+package eu.europeana.keycloak.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.event.CacheInvalidationListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory cache of client_credentials token responses, for API clients that request a new token for every
+ * call. Only clients that are configured to use it (opt-in) get cached tokens.
+ *
+ * Entries are keyed by a SHA-256 hash of the client's credentials (Authorization header or client_id and client_secret
+ * parameters) plus the requested scope, so a token is only returned to callers that present the same credentials.
+ * Requests that don't authenticate with a client secret (e.g. with a signed JWT) are never cached. A
+ * token is reused until the configured fraction of its lifetime has passed; the expires_in (and refresh_expires_in) of
+ * a reused token are lowered to the remaining lifetime. When several requests for the same key miss at the same time,
+ * only one of them requests a new token and the others wait for it.
+ *
+ * Entries are removed when the token's session is removed, when the client's service account user changes and when
+ * clients, roles or realm keys change (see {@link eu.europeana.keycloak.event.CacheInvalidationEventListenerProvider}).
+ */
+public class ClientTokenCache implements CacheInvalidationListener {
+
+    private static final Logger LOG = LogManager.getLogger(ClientTokenCache.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String GRANT_TYPE_CLIENT_CREDENTIALS = "client_credentials";
+    private static final String PARAM_GRANT_TYPE = "grant_type";
+    private static final String PARAM_SCOPE = "scope";
+    private static final String FIELD_ACCESS_TOKEN = "access_token";
+    private static final String FIELD_EXPIRES_IN = "expires_in";
+    private static final String FIELD_REFRESH_EXPIRES_IN = "refresh_expires_in";
+    private static final String FIELD_SESSION_STATE = "session_state";
+    private static final String CLAIM_SUBJECT = "sub";
+
+    // maximum time to wait for a token that's requested by another thread, before requesting one ourselves
+    private static final long LOAD_WAIT_MS = 10_000;
+
+    private final Set<String> clients;
+    private final double lifetimeFraction;
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    // guards storing new entries and invalidations, so tokens loaded during an invalidation aren't stored
+    private final Object invalidationLock = new Object();
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a new token cache
+     * @param settings token cache settings
+     */
+    public ClientTokenCache(KeycloakServerProperties.TokenCache settings) {
+        this.clients = new HashSet<>(settings.getClients());
+        this.lifetimeFraction = Math.max(0d, Math.min(1d, settings.getLifetimeFraction()));
+        this.maxSize = settings.getMaxSize();
+        LOG.info("Client token cache enabled for {} clients, reusing tokens for {}% of their lifetime",
+                clients.size(), Math.round(lifetimeFraction * 100));
+    }
+
+    /**
+     * @param request a token request
+     * @return true if the request is a client_credentials request of a client that uses the cache, authenticated with
+     * a client secret
+     */
+    public boolean isCacheable(HttpServletRequest request) {
+        return GRANT_TYPE_CLIENT_CREDENTIALS.equals(request.getParameter(PARAM_GRANT_TYPE))
+                && clients.contains(RateLimiter.getClientId(request))
+                && IntrospectionCache.hasSecretCredentials(request);
+    }
+
+    /**
+     * Send a cached token, or request (and cache) a new one if there is none that can be reused
+     * @param request the token request
+     * @param response the response to write to
+     * @param loader used to request a new token
+     * @throws IOException when writing the response fails
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      CachedForwardResponse.ResponseLoader loader) throws IOException {
+        serve(request, response, loader, System.currentTimeMillis());
+    }
+
+    void serve(HttpServletRequest request, HttpServletResponse response,
+               CachedForwardResponse.ResponseLoader loader, long now) throws IOException {
+        String key = IntrospectionCache.createKey(request, normalizeScope(request.getParameter(PARAM_SCOPE)));
+        Entry entry = entries.get(key);
+        if (entry != null && entry.reuseUntil > now) {
+            hits.increment();
+            write(entry, response, now);
+            return;
+        }
+        if (entry != null) {
+            entries.remove(key, entry);
+        }
+
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> future = loading.computeIfAbsent(key, k -> created);
+        if (future != created) {
+            Entry loadedByOther = await(future);
+            if (loadedByOther != null) {
+                hits.increment();
+                write(loadedByOther, response, now);
+                return;
+            }
+        }
+
+        misses.increment();
+        Entry loadedEntry = null;
+        try {
+            long loadGeneration = getGeneration();
+            BufferedResponseWrapper loaded = new BufferedResponseWrapper(response);
+            loader.load(loaded);
+            if (loaded.getStatus() == HttpServletResponse.SC_OK) {
+                loadedEntry = createEntry(loaded.getBody(), loaded.getContentType(), now);
+                if (loadedEntry != null && !store(key, loadedEntry, now, loadGeneration)) {
+                    // invalidated while loading, so waiting requests must not get this token either
+                    loadedEntry = null;
+                }
+            }
+            loaded.copyTo(response);
+        } finally {
+            if (future == created) {
+                loading.remove(key, created);
+                created.complete(loadedEntry);
+            }
+        }
+    }
+
+    /**
+     * Wait for a token that's requested by another thread
+     * @return the new entry, or null if no token could be cached in time
+     */
+    private static Entry await(CompletableFuture<Entry> future) {
+        try {
+            return future.get(LOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.debug("Unable to get token requested by another thread", e);
+            return null;
+        }
+    }
+
+    /**
+     * Scopes may be requested in any order, so we sort them
+     */
+    static String normalizeScope(String scope) {
+        if (scope == null) {
+            return "";
+        }
+        String[] scopes = scope.trim().split("\\s+");
+        Arrays.sort(scopes);
+        return String.join(" ", scopes);
+    }
+
+    /**
+     * @return a new entry if the response contains a token that can be reused, otherwise null
+     */
+    private Entry createEntry(byte[] body, String contentType, long now) {
+        try {
+            JsonNode json = MAPPER.readTree(body);
+            if (!(json instanceof ObjectNode) || !json.hasNonNull(FIELD_ACCESS_TOKEN)) {
+                return null;
+            }
+            long expiresIn = json.path(FIELD_EXPIRES_IN).asLong(0);
+            long reuseUntil = now + (long) (expiresIn * 1000L * lifetimeFraction);
+            if (reuseUntil <= now) {
+                return null;
+            }
+            return new Entry((ObjectNode) json, contentType, now, reuseUntil,
+                    json.path(FIELD_SESSION_STATE).asText(null), getSubject(json.get(FIELD_ACCESS_TOKEN).asText()));
+        } catch (IOException e) {
+            LOG.warn("Unable to parse token response", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the subject (for client_credentials the service account user id) of a JWT access token, or null if the
+     * token can't be parsed
+     */
+    static String getSubject(String accessToken) {
+        String[] parts = accessToken.split("\\.");
+        if (parts.length < 2) {
+            return null;
+        }
+        try {
+            return MAPPER.readTree(Base64.getUrlDecoder().decode(parts[1])).path(CLAIM_SUBJECT).asText(null);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.debug("Unable to parse access token", e);
+            return null;
+        }
+    }
+
+    private long getGeneration() {
+        synchronized (invalidationLock) {
+            return generation;
+        }
+    }
+
+    /**
+     * Store a new entry, unless there was an invalidation since it was requested
+     * @return false if the entry is outdated because of an invalidation, otherwise true (also when the cache is full)
+     */
+    private boolean store(String key, Entry entry, long now, long loadGeneration) {
+        synchronized (invalidationLock) {
+            if (generation != loadGeneration) {
+                return false;
+            }
+            if (entries.size() >= maxSize) {
+                removeExpired(now);
+                if (entries.size() >= maxSize) {
+                    return true;
+                }
+            }
+            entries.put(key, entry);
+            return true;
+        }
+    }
+
+    private void removeExpired(long now) {
+        // expired entries are not an invalidation, so this doesn't change the generation
+        remove(e -> e.reuseUntil <= now);
+    }
+
+    private static void write(Entry entry, HttpServletResponse response, long now) throws IOException {
+        ObjectNode json = entry.json.deepCopy();
+        long elapsedSeconds = Math.max(0L, now - entry.createdAt) / 1000;
+        lowerLifetime(json, FIELD_EXPIRES_IN, elapsedSeconds);
+        lowerLifetime(json, FIELD_REFRESH_EXPIRES_IN, elapsedSeconds);
+        byte[] body = MAPPER.writeValueAsBytes(json);
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        // token responses must not be cached by clients or proxies (RFC 6749 section 5.1)
+        response.setHeader("Cache-Control", "no-store");
+        response.setHeader("Pragma", "no-cache");
+        if (entry.contentType != null) {
+            response.setContentType(entry.contentType);
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static void lowerLifetime(ObjectNode json, String field, long elapsedSeconds) {
+        long lifetime = json.path(field).asLong(0);
+        if (lifetime > 0) {
+            json.put(field, Math.max(1, lifetime - elapsedSeconds));
+        }
+    }
+
+    @Override
+    public void sessionRemoved(String sessionId) {
+        removeIf(entry -> sessionId.equals(entry.sessionId));
+    }
+
+    @Override
+    public void userChanged(String userId) {
+        removeIf(entry -> userId.equals(entry.userId));
+    }
+
+    @Override
+    public void keysChanged() {
+        // tokens signed with removed keys are no longer valid
+        invalidateAll();
+    }
+
+    @Override
+    public void rolesChanged() {
+        // new tokens may contain different roles or claims
+        invalidateAll();
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (invalidationLock) {
+            generation++;
+            evictions.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    private void removeIf(Predicate<Entry> predicate) {
+        synchronized (invalidationLock) {
+            generation++;
+            remove(predicate);
+        }
+    }
+
+    private void remove(Predicate<Entry> predicate) {
+        int before = entries.size();
+        entries.values().removeIf(predicate);
+        evictions.add(Math.max(0L, (long) before - entries.size()));
+    }
+
+    /**
+     * @return the number of cached tokens
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Entry {
+        private final ObjectNode json;
+        private final String contentType;
+        private final long createdAt;
+        private final long reuseUntil;
+        private final String sessionId;
+        private final String userId;
+
+        private Entry(ObjectNode json, String contentType, long createdAt, long reuseUntil, String sessionId,
+                      String userId) {
+            this.json = json;
+            this.contentType = contentType;
+            this.createdAt = createdAt;
+            this.reuseUntil = reuseUntil;
+            this.sessionId = sessionId;
+            this.userId = userId;
+        }
+    }
+}
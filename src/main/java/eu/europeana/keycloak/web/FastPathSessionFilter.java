@@ -0,0 +1,68 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.jfr.KeycloakSessionEventFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Keycloak session filter with a fast path: requests of which the path matches one of the bypass paths are served
+ * without creating a Keycloak session (and starting a transaction) if the response is available in memory. All other
+ * requests, including bypass path requests that aren't in memory yet, get a Keycloak session as usual, because
+ * Keycloak needs one to handle them.
+ */
+public class FastPathSessionFilter extends KeycloakSessionEventFilter {
+
+    private final List<Pattern> bypassPaths;
+    private final StaticResourceFilter staticResources;
+    private final AtomicLong fastPathCount = new AtomicLong();
+
+    /**
+     * @param bypassPaths regular expressions of paths that may be served without a Keycloak session
+     * @param staticResources resources that are available in memory
+     */
+    public FastPathSessionFilter(List<String> bypassPaths, StaticResourceFilter staticResources) {
+        this.bypassPaths = bypassPaths.stream().map(Pattern::compile).collect(Collectors.toList());
+        this.staticResources = staticResources;
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+        if (servletRequest instanceof HttpServletRequest && servletResponse instanceof HttpServletResponse) {
+            HttpServletRequest request = (HttpServletRequest) servletRequest;
+            HttpServletResponse response = (HttpServletResponse) servletResponse;
+            if (isBypassed(request) && staticResources.serveFromMemory(request, response)) {
+                fastPathCount.incrementAndGet();
+                return;
+            }
+        }
+        super.doFilter(servletRequest, servletResponse, filterChain);
+    }
+
+    boolean isBypassed(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        for (Pattern pattern : bypassPaths) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of requests that were served without a Keycloak session
+     */
+    public long getFastPathCount() {
+        return fastPathCount.get();
+    }
+}
@@ -1,19 +1,35 @@
 package eu.europeana.keycloak.web;
 
+import eu.europeana.keycloak.EmbeddedKeycloakApplication;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.event.CacheInvalidationEventListenerProviderFactory;
 import eu.europeana.keycloak.exception.ForwardException;
+import eu.europeana.keycloak.jfr.ForwardEvent;
+import eu.europeana.keycloak.jfr.JfrSupport;
+import eu.europeana.keycloak.metrics.RouteMetrics;
+import eu.europeana.keycloak.password.BCryptPasswordHashProviderFactory;
 import org.apache.logging.log4j.LogManager;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides short urls for user login and token requests to Europeana realm.
@@ -28,12 +44,35 @@ public class ForwardController {
 
     private static final String BASE_PATH_LOGIN = "/login";
 
+    private static final String PATH_CERTS = "/certs";
+    private static final String PATH_INTROSPECT = "/token/introspect";
+    private static final String PATH_AUTH = "/auth";
+    private static final String PATH_TOKEN = "/token";
+    private static final String PATH_USERINFO = "/userinfo";
+    // route names used for rate limiting, these are fixed per mapping so they can't be influenced by the request path
+    private static final String ROUTE_AUTH = "auth";
+    private static final String ROUTE_TOKEN = "token";
+    private static final String ROUTE_USERINFO = "userinfo";
+    private static final String ROUTE_INTROSPECT = "introspect";
+
+    private static final String UNKNOWN_ROUTE = "(unknown)";
+
+
     @Value("${keycloak.forward.account-service:}")
     private String forwardLoginPath;
 
     @Value("${keycloak.forward.token-service}")
     private String forwardTokenPath;
 
+    @Autowired
+    private KeycloakServerProperties kcProperties;
+
+    private CachedForwardResponse certsCache;
+    private IntrospectionCache introspectionCache;
+    private ClientTokenCache tokenCache;
+    private RateLimiter rateLimiter;
+    private final RouteMetrics routeMetrics = new RouteMetrics();
+
     @PostConstruct
     private void validateConfig() {
         if (StringUtils.isEmpty(forwardLoginPath)) {
@@ -45,38 +84,260 @@ public class ForwardController {
         if (!forwardTokenPath.endsWith("/")) {
             forwardTokenPath += '/';
         }
+        KeycloakServerProperties.CertsCache certsSettings = kcProperties.getCertsCache();
+        if (certsSettings.getRefresh() > 0) {
+            certsCache = new CachedForwardResponse("realm public keys", certsSettings.getMaxAge(),
+                    certsSettings.getRefresh());
+            CacheInvalidationEventListenerProviderFactory.addListener(certsCache);
+        }
+        KeycloakServerProperties.IntrospectionCache introspectionSettings = kcProperties.getIntrospectionCache();
+        if (introspectionSettings.isEnabled() && introspectionSettings.getMaxTtl() > 0
+                && introspectionSettings.getMaxSize() > 0) {
+            introspectionCache = new IntrospectionCache(introspectionSettings.getMaxTtl(),
+                    introspectionSettings.getMaxSize(), ForwardController::getSessionIdleTimeout);
+            CacheInvalidationEventListenerProviderFactory.addListener(introspectionCache);
+        }
+        if (kcProperties.getTokenCache().isEnabled() && !kcProperties.getTokenCache().getClients().isEmpty()) {
+            tokenCache = new ClientTokenCache(kcProperties.getTokenCache());
+            CacheInvalidationEventListenerProviderFactory.addListener(tokenCache);
+        }
+        if (kcProperties.getRateLimit().isEnabled()) {
+            rateLimiter = new RateLimiter(kcProperties.getRateLimit());
+        }
+    }
+
+    @PreDestroy
+    private void removeCacheListeners() {
+        if (certsCache != null) {
+            CacheInvalidationEventListenerProviderFactory.removeListener(certsCache);
+        }
+        if (introspectionCache != null) {
+            CacheInvalidationEventListenerProviderFactory.removeListener(introspectionCache);
+        }
+        if (tokenCache != null) {
+            CacheInvalidationEventListenerProviderFactory.removeListener(tokenCache);
+        }
+    }
+
+    /**
+     * @return the SSO session idle timeout (in seconds) of the provided realm, 0 if Keycloak isn't started yet or the
+     * realm doesn't exist
+     */
+    private static int getSessionIdleTimeout(String realmName) {
+        KeycloakSessionFactory sessionFactory = EmbeddedKeycloakApplication.getKeycloakSessionFactory();
+        if (sessionFactory == null) {
+            return 0;
+        }
+        AtomicInteger idleTimeout = new AtomicInteger();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealmByName(realmName);
+            if (realm != null) {
+                idleTimeout.set(realm.getSsoSessionIdleTimeout());
+            }
+        });
+        return idleTimeout.get();
+    }
+
+    /**
+     * @return request statistics of all routes handled by this controller
+     */
+    public RouteMetrics getRouteMetrics() {
+        return routeMetrics;
+    }
+
+    /**
+     * @return the rate limiter, null if rate limiting is not enabled
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the token introspection cache, null if it's not enabled
+     */
+    public IntrospectionCache getIntrospectionCache() {
+        return introspectionCache;
+    }
+
+    /**
+     * @return the client_credentials token cache, null if it's not enabled
+     */
+    public ClientTokenCache getTokenCache() {
+        return tokenCache;
     }
 
     @GetMapping(BASE_PATH_LOGIN)
     public void fowardLoginGet(HttpServletRequest request, HttpServletResponse response) {
-        forward(forwardLoginPath, request, response);
+        measure(request, response, () -> forward(forwardLoginPath, request, response));
+    }
+
+    /**
+     * Returns the realm's public keys. These are polled frequently by resource servers but hardly ever change, so we
+     * keep them in memory and only forward to Keycloak periodically to check for key changes.
+     */
+    @GetMapping(BASE_PATH_OIDC + PATH_CERTS)
+    public void getOidcCerts(HttpServletRequest request, HttpServletResponse response) {
+        measure(request, response, () -> {
+            if (certsCache == null) {
+                forwardOidc(request, response);
+                return;
+            }
+            try {
+                certsCache.serve(request, response, loadResponse -> forwardOidc(request, loadResponse));
+            } catch (IOException e) {
+                throw new ForwardException("Error sending response for " + request.getMethod() + " " + request.getRequestURI(), e);
+            }
+        });
     }
 
     /**
      * Forwards certain OIDC GET requests to the appropriate Keycloak endpoints
      */
-    @GetMapping({BASE_PATH_OIDC + "/certs", BASE_PATH_OIDC + "/login-status-iframe.html", BASE_PATH_OIDC + "/logout"})
+    @GetMapping({BASE_PATH_OIDC + "/login-status-iframe.html", BASE_PATH_OIDC + "/logout"})
     public void forwardOidcGet(HttpServletRequest request, HttpServletResponse response) {
-        String path = request.getRequestURI().substring(
-                request.getRequestURI().lastIndexOf(BASE_PATH_OIDC) + BASE_PATH_OIDC.length() + 1);
-        forward(forwardTokenPath + path, request, response);
+        measure(request, response, () -> forwardOidc(request, response));
+    }
+
+    /**
+     * Forwards OIDC authentication POST requests to Keycloak
+     */
+    @PostMapping(BASE_PATH_OIDC + PATH_AUTH)
+    public void forwardOidcAuth(HttpServletRequest request, HttpServletResponse response) {
+        forwardOidcPost(ROUTE_AUTH, request, response);
+    }
+
+    /**
+     * Forwards token requests to Keycloak. Client_credentials token requests of clients that are configured to use the
+     * token cache may get a token that was issued earlier.
+     */
+    @PostMapping(BASE_PATH_OIDC + PATH_TOKEN)
+    public void forwardOidcToken(HttpServletRequest request, HttpServletResponse response) {
+        forwardOidcPost(ROUTE_TOKEN, request, response);
+    }
+
+    /**
+     * Forwards userinfo POST requests to Keycloak
+     */
+    @PostMapping(BASE_PATH_OIDC + PATH_USERINFO)
+    public void forwardOidcUserinfo(HttpServletRequest request, HttpServletResponse response) {
+        forwardOidcPost(ROUTE_USERINFO, request, response);
+    }
+
+    private void forwardOidcPost(String route, HttpServletRequest request, HttpServletResponse response) {
+        measure(request, response, () -> {
+            if (isRateLimited(route, request, response)) {
+                return;
+            }
+            if (PasswordHashingLoadFilter.isPasswordGrant(request)
+                    && PasswordHashingLoadFilter.isSaturated(BCryptPasswordHashProviderFactory.getHashingExecutor())) {
+                // shed password grants right away instead of letting them queue up in Keycloak
+                PasswordHashingLoadFilter.sendOverloaded(response);
+                return;
+            }
+            if (tokenCache != null && ROUTE_TOKEN.equals(route) && tokenCache.isCacheable(request)) {
+                try {
+                    tokenCache.serve(request, response, loadResponse -> forwardOidc(request, loadResponse));
+                } catch (IOException e) {
+                    throw new ForwardException("Error sending response for " + request.getMethod() + " " + request.getRequestURI(), e);
+                }
+                return;
+            }
+            forwardOidc(request, response);
+        });
+    }
+
+    /**
+     * Forwards token introspection requests to Keycloak. If enabled, results for active tokens are cached for a short
+     * while, because resource servers tend to introspect the same token for every request they receive.
+     */
+    @PostMapping(BASE_PATH_OIDC + PATH_INTROSPECT)
+    public void introspectToken(HttpServletRequest request, HttpServletResponse response) {
+        measure(request, response, () -> {
+            if (isRateLimited(ROUTE_INTROSPECT, request, response)) {
+                return;
+            }
+            if (introspectionCache == null) {
+                forwardOidc(request, response);
+                return;
+            }
+            try {
+                introspectionCache.serve(request, response, loadResponse -> forwardOidc(request, loadResponse));
+            } catch (IOException e) {
+                throw new ForwardException("Error sending response for " + request.getMethod() + " " + request.getRequestURI(), e);
+            }
+        });
+    }
+
+    /**
+     * Runs the handler and records its duration, response status and errors in the route metrics. Metrics are kept per
+     * request mapping pattern, not per request path, so requests can't create new metrics.
+     */
+    private void measure(HttpServletRequest request, HttpServletResponse response, Runnable handler) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String route = (pattern == null ? UNKNOWN_ROUTE : pattern.toString());
+        long start = System.nanoTime();
+        int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+        try {
+            handler.run();
+            status = response.getStatus();
+        } catch (ForwardException e) {
+            routeMetrics.recordForwardException(route);
+            throw e;
+        } finally {
+            routeMetrics.record(route, System.nanoTime() - start, status);
+        }
     }
 
     /**
-     * Forwards certain OIDC POST requests to the appropriate Keycloak endpoints
+     * Check the rate limit of the requesting client, and if it's exceeded respond with 429 Too Many Requests
+     * @return true if the request is rate limited, otherwise false
      */
-    @PostMapping({BASE_PATH_OIDC + "/auth", BASE_PATH_OIDC + "/token", BASE_PATH_OIDC + "/token/introspect",
-            BASE_PATH_OIDC +"/userinfo"})
-    public void forwardOidcPost(HttpServletRequest request, HttpServletResponse response) {
-        forwardOidcGet(request, response);
+    private boolean isRateLimited(String route, HttpServletRequest request, HttpServletResponse response) {
+        if (rateLimiter == null) {
+            return false;
+        }
+        long retryAfter = rateLimiter.acquire(route, request);
+        if (retryAfter == 0) {
+            return false;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        return true;
+    }
+
+    private void forwardOidc(HttpServletRequest request, HttpServletResponse response) {
+        String path = request.getRequestURI().substring(
+                request.getRequestURI().lastIndexOf(BASE_PATH_OIDC) + BASE_PATH_OIDC.length() + 1);
+        forward(forwardTokenPath + path, request, response);
     }
 
     private void forward(String forwardPath, HttpServletRequest request, HttpServletResponse response) {
+        ForwardEvent event = null;
+        if (JfrSupport.isEnabled()) {
+            event = JfrSupport.getEventFactory().newForwardEvent();
+            event.begin();
+        }
         try {
             RequestDispatcher rd = request.getRequestDispatcher(forwardPath);
             rd.forward(request, response);
         } catch (ServletException | IOException se) {
             throw new ForwardException("Error forwarding request " + request.getMethod() + " " + request.getContextPath(), se);
+        } finally {
+            if (event != null) {
+                commitForwardEvent(event, forwardPath, request, response);
+            }
+        }
+    }
+
+    private static void commitForwardEvent(ForwardEvent event, String forwardPath, HttpServletRequest request,
+                                           HttpServletResponse response) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setMethod(request.getMethod());
+            event.setPath(request.getRequestURI());
+            event.setForwardPath(forwardPath);
+            event.setStatus(response.getStatus());
+            event.commit();
         }
     }
 
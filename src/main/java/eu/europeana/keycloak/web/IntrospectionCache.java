@@ -0,0 +1,335 @@
+package eu.europeana.keycloak.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.keycloak.event.CacheInvalidationListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded in-memory cache of token introspection results.
+ *
+ * Entries are keyed by a SHA-256 hash of the calling client's credentials (Authorization header or client_id and
+ * client_secret parameters) plus the token, so a client only gets cached results for its own introspection requests
+ * and no tokens are stored. Requests of clients that don't authenticate with a client secret (e.g. with a signed JWT)
+ * are always forwarded. Only responses for active tokens are cached, until the token expires, the max ttl has
+ * passed or the user session may have expired because it was idle (the token's iat plus the realm's SSO session idle
+ * timeout), whichever comes first. Least recently used entries are removed when the cache is full.
+ *
+ * To prevent returning active: true for tokens that were revoked, entries are removed when the user session is logged
+ * out or removed, when the user changes and on any change to clients or the realm (see
+ * {@link eu.europeana.keycloak.event.CacheInvalidationEventListenerProvider}). These events are only received by the
+ * instance that handled the change, so when running multiple instances a revoked token can still be reported active by
+ * other instances for at most the max ttl.
+ */
+public class IntrospectionCache implements CacheInvalidationListener {
+
+    private static final Logger LOG = LogManager.getLogger(IntrospectionCache.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String PARAM_TOKEN = "token";
+    private static final String PARAM_CLIENT_ID = "client_id";
+    private static final String PARAM_CLIENT_SECRET = "client_secret";
+    private static final String PARAM_CLIENT_ASSERTION = "client_assertion";
+    private static final String PARAM_CLIENT_ASSERTION_TYPE = "client_assertion_type";
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String BASIC_AUTH_PREFIX = "Basic ";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+    private static final String REALMS_PATH = "/realms/";
+
+    private final long maxTtlMillis;
+    private final Map<String, Entry> entries;
+    private final ToIntFunction<String> idleTimeoutLookup;
+    private final Map<String, Integer> idleTimeouts = new ConcurrentHashMap<>();
+    // incremented (while holding the entries lock) on every invalidation, so results loaded meanwhile aren't stored
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a new introspection cache
+     * @param maxTtlSeconds maximum number of seconds a result is cached
+     * @param maxSize maximum number of results that are cached
+     */
+    public IntrospectionCache(int maxTtlSeconds, int maxSize) {
+        this(maxTtlSeconds, maxSize, realm -> 0);
+    }
+
+    /**
+     * Create a new introspection cache
+     * @param maxTtlSeconds maximum number of seconds a result is cached
+     * @param maxSize maximum number of results that are cached
+     * @param idleTimeoutLookup returns the SSO session idle timeout (in seconds) of a realm, 0 if it's not known
+     */
+    public IntrospectionCache(int maxTtlSeconds, int maxSize, ToIntFunction<String> idleTimeoutLookup) {
+        this.maxTtlMillis = maxTtlSeconds * 1000L;
+        this.idleTimeoutLookup = idleTimeoutLookup;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        LOG.info("Introspection cache enabled with max ttl {} seconds and max size {}", maxTtlSeconds, maxSize);
+    }
+
+    /**
+     * Send the cached introspection result, or load (and cache) it if there is none
+     * @param request the introspection request
+     * @param response the response to write to
+     * @param loader used to do the actual introspection
+     * @throws IOException when writing the response fails
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      CachedForwardResponse.ResponseLoader loader) throws IOException {
+        String token = request.getParameter(PARAM_TOKEN);
+        if (token == null || token.isEmpty() || !hasSecretCredentials(request)) {
+            loader.load(response);
+            return;
+        }
+        String key = createKey(request, token);
+        long now = System.currentTimeMillis();
+        Entry entry = get(key, now);
+        if (entry != null) {
+            hits.increment();
+            write(entry, response);
+            return;
+        }
+
+        misses.increment();
+        long loadGeneration = getGeneration();
+        BufferedResponseWrapper loaded = new BufferedResponseWrapper(response);
+        loader.load(loaded);
+        byte[] body = loaded.getBody();
+        if (loaded.getStatus() == HttpServletResponse.SC_OK) {
+            entry = createEntry(body, loaded.getContentType(), now);
+            if (entry != null) {
+                synchronized (entries) {
+                    // a logout or change during the introspection may have made the result outdated
+                    if (generation == loadGeneration) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+        }
+        loaded.copyTo(response);
+    }
+
+    private long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    private Entry get(String key, long now) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return a new entry if the response is about an active token, otherwise null
+     */
+    private Entry createEntry(byte[] body, String contentType, long now) {
+        try {
+            JsonNode json = MAPPER.readTree(body);
+            if (json == null || !json.path("active").asBoolean(false)) {
+                return null;
+            }
+            long expiresAt = now + maxTtlMillis;
+            if (json.hasNonNull("exp")) {
+                expiresAt = Math.min(expiresAt, json.get("exp").asLong() * 1000L);
+            }
+            String sessionId = json.path("session_state").asText(null);
+            if (sessionId != null && json.hasNonNull("iat")) {
+                // the session was last used when the token was issued (or later), so it lives at least until then
+                int idleTimeout = getIdleTimeout(getRealm(json.path("iss").asText(null)));
+                if (idleTimeout > 0) {
+                    expiresAt = Math.min(expiresAt, (json.get("iat").asLong() + idleTimeout) * 1000L);
+                }
+            }
+            if (expiresAt <= now) {
+                return null;
+            }
+            return new Entry(body, contentType, expiresAt, sessionId, json.path("sub").asText(null));
+        } catch (IOException e) {
+            LOG.warn("Unable to parse introspection response", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the name of the realm that issued a token, or null if the issuer is not a Keycloak realm url
+     */
+    static String getRealm(String issuer) {
+        if (issuer == null) {
+            return null;
+        }
+        int start = issuer.lastIndexOf(REALMS_PATH);
+        return (start == -1 ? null : issuer.substring(start + REALMS_PATH.length()));
+    }
+
+    /**
+     * Realm settings hardly ever change (and if they do all entries are removed), so we keep the idle timeouts
+     */
+    private int getIdleTimeout(String realm) {
+        if (realm == null) {
+            return 0;
+        }
+        Integer idleTimeout = idleTimeouts.get(realm);
+        if (idleTimeout == null) {
+            idleTimeout = idleTimeoutLookup.applyAsInt(realm);
+            if (idleTimeout > 0) {
+                idleTimeouts.put(realm, idleTimeout);
+            }
+        }
+        return idleTimeout;
+    }
+
+    private static void write(Entry entry, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader(HEADER_CACHE_CONTROL, "no-store");
+        if (entry.contentType != null) {
+            response.setContentType(entry.contentType);
+        }
+        response.setContentLength(entry.body.length);
+        response.getOutputStream().write(entry.body);
+    }
+
+    /**
+     * Check if a request authenticates the client with a secret (basic authentication or the client_secret parameter),
+     * which is part of the cache key. Clients that authenticate with a signed JWT (client_assertion) or not at all must
+     * not use a cache: their key wouldn't contain anything that only the client knows, so anyone sending the same
+     * client id would get their cached response.
+     * @return true if the request can be served from a cache keyed by {@link #createKey(HttpServletRequest, String)}
+     */
+    static boolean hasSecretCredentials(HttpServletRequest request) {
+        if (request.getParameter(PARAM_CLIENT_ASSERTION) != null
+                || request.getParameter(PARAM_CLIENT_ASSERTION_TYPE) != null) {
+            return false;
+        }
+        String authorization = request.getHeader(HEADER_AUTHORIZATION);
+        if (authorization != null) {
+            return authorization.regionMatches(true, 0, BASIC_AUTH_PREFIX, 0, BASIC_AUTH_PREFIX.length())
+                    && !authorization.substring(BASIC_AUTH_PREFIX.length()).trim().isEmpty();
+        }
+        String secret = request.getParameter(PARAM_CLIENT_SECRET);
+        return secret != null && !secret.isEmpty();
+    }
+
+    /**
+     * Create a cache key from the client credentials and the token
+     */
+    static String createKey(HttpServletRequest request, String token) {
+        String clientAuth = request.getHeader(HEADER_AUTHORIZATION);
+        if (clientAuth == null) {
+            clientAuth = request.getParameter(PARAM_CLIENT_ID) + ':' + request.getParameter(PARAM_CLIENT_SECRET);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(clientAuth.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    @Override
+    public void sessionRemoved(String sessionId) {
+        removeIf(entry -> sessionId.equals(entry.sessionId));
+    }
+
+    @Override
+    public void userChanged(String userId) {
+        removeIf(entry -> userId.equals(entry.userId));
+    }
+
+    @Override
+    public void keysChanged() {
+        // tokens signed with removed keys are no longer valid
+        invalidateAll();
+    }
+
+    @Override
+    public void invalidateAll() {
+        idleTimeouts.clear();
+        synchronized (entries) {
+            generation++;
+            evictions.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    private void removeIf(Predicate<Entry> predicate) {
+        synchronized (entries) {
+            generation++;
+            int before = entries.size();
+            entries.values().removeIf(predicate);
+            evictions.add((long) before - entries.size());
+        }
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Entry {
+        private final byte[] body;
+        private final String contentType;
+        private final long expiresAt;
+        private final String sessionId;
+        private final String userId;
+
+        private Entry(byte[] body, String contentType, long expiresAt, String sessionId, String userId) {
+            this.body = body;
+            this.contentType = contentType;
+            this.expiresAt = expiresAt;
+            this.sessionId = sessionId;
+            this.userId = userId;
+        }
+    }
+}
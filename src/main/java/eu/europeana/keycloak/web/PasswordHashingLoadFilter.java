@@ -0,0 +1,98 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.password.PasswordHashingExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Sheds requests that need password hashing (login and registration forms, password grants) with 503 Service
+ * Unavailable and a Retry-After header when the hashing queue is full, before they reach Keycloak. Requests that are
+ * shed by the hashing pool itself (see {@link eu.europeana.keycloak.exception.HashingOverloadException}) are handled by
+ * Keycloak's error handler, which doesn't send a Retry-After header.
+ */
+public class PasswordHashingLoadFilter extends OncePerRequestFilter {
+
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    private static final String GRANT_TYPE_PASSWORD = "password";
+
+    private final Pattern formPaths;
+    private final Pattern tokenPath;
+    private final Supplier<PasswordHashingExecutor> executor;
+
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * Create a new filter
+     * @param contextPath Keycloak's context path (e.g. /auth)
+     * @param executor provides the hashing pool to check, or null if there is none
+     */
+    public PasswordHashingLoadFilter(String contextPath, Supplier<PasswordHashingExecutor> executor) {
+        String realmPath = Pattern.quote(contextPath) + "/realms/[^/]+/";
+        this.formPaths = Pattern.compile(realmPath
+                + "login-actions/(authenticate|registration|reset-credentials|required-action)");
+        this.tokenPath = Pattern.compile(realmPath + "protocol/openid-connect/token");
+        this.executor = executor;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (needsHashing(request) && isSaturated(executor.get())) {
+            shed.increment();
+            sendOverloaded(response);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    boolean needsHashing(HttpServletRequest request) {
+        if (!"POST".equals(request.getMethod())) {
+            return false;
+        }
+        String path = request.getRequestURI();
+        if (formPaths.matcher(path).matches()) {
+            return true;
+        }
+        return tokenPath.matcher(path).matches() && isPasswordGrant(request);
+    }
+
+    /**
+     * @return true if the request is a token request with the password grant
+     */
+    static boolean isPasswordGrant(HttpServletRequest request) {
+        return GRANT_TYPE_PASSWORD.equals(request.getParameter("grant_type"));
+    }
+
+    /**
+     * @return true if new hashing tasks cannot be queued on the provided pool
+     */
+    static boolean isSaturated(PasswordHashingExecutor executor) {
+        return executor != null && executor.isSaturated();
+    }
+
+    /**
+     * Respond with 503 Service Unavailable and a Retry-After header
+     */
+    static void sendOverloaded(HttpServletResponse response) {
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * @return number of requests that were shed by this filter
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,210 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free rate limiter for requests per client and route.
+ *
+ * Each client and route combination has its own bucket, implemented with the generic cell rate algorithm (GCRA): a
+ * bucket only stores the theoretical arrival time of the next request, which is updated with a single compare-and-set.
+ * A client's limit applies to all its requests, regardless of the address they're sent from. Client ids are not
+ * authenticated at this point, so someone sending the client id of another client counts towards that client's limit.
+ * Requests without a client id are limited per remote address. Behind a proxy or router this is only the caller's
+ * address when forward headers are used (server.use-forward-headers), otherwise all these requests share the
+ * router's buckets.
+ *
+ * Buckets are kept in a concurrent map, so there's no global lock. A bucket of which the theoretical arrival time has
+ * passed is in the same state as a new bucket, so these idle buckets are removed when a route has maxTrackedClients
+ * buckets. If there are still too many (active) buckets, new clients are limited per remote address only.
+ *
+ * Throttled requests are counted per configured client; all other clients are counted together, so the number of
+ * metrics doesn't depend on what clients send.
+ */
+public class RateLimiter {
+
+    private static final Logger LOG = LogManager.getLogger(RateLimiter.class);
+
+    private static final String OTHER_CLIENTS = "(other)";
+    private static final String BASIC_AUTH_PREFIX = "Basic ";
+    private static final String IP_PREFIX = "ip:";
+    private static final long PURGE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final KeycloakServerProperties.RateLimit settings;
+    private final Map<String, Map<String, Bucket>> bucketsPerRoute = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> throttledPerClient = new ConcurrentHashMap<>();
+    private final LongAdder throttledTotal = new LongAdder();
+    private final AtomicLong lastPurge = new AtomicLong(Long.MIN_VALUE);
+
+    public RateLimiter(KeycloakServerProperties.RateLimit settings) {
+        this.settings = settings;
+        LOG.info("Rate limiting enabled, default {} requests/second (burst {}), {} route and {} client limits",
+                settings.getDefaultLimit().getRate(), settings.getDefaultLimit().getBurst(),
+                settings.getRoutes().size(), settings.getClients().size());
+    }
+
+    /**
+     * Check if a request is allowed
+     * @param route the requested route (e.g. token), this should be a fixed value and not taken from the request
+     * @param request the request
+     * @return 0 if the request is allowed, otherwise the number of seconds after which a new request is allowed
+     */
+    public long acquire(String route, HttpServletRequest request) {
+        return acquire(route, getClientId(request), request.getRemoteAddr(), System.nanoTime());
+    }
+
+    long acquire(String route, String clientId, String remoteAddr, long now) {
+        Bucket bucket = getBucket(route, clientId, remoteAddr, now);
+        long waitNanos = bucket.tryAcquire(now);
+        if (waitNanos == 0) {
+            return 0;
+        }
+        throttledTotal.increment();
+        throttledPerClient.computeIfAbsent(bucket.metricsClientId, k -> new LongAdder()).increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private Bucket getBucket(String route, String clientId, String remoteAddr, long now) {
+        Map<String, Bucket> buckets = bucketsPerRoute.computeIfAbsent(route, k -> new ConcurrentHashMap<>());
+        Bucket bucket = buckets.get(clientId);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= settings.getMaxTrackedClients()) {
+            purgeIdle(now);
+            if (buckets.size() >= settings.getMaxTrackedClients()) {
+                // too many active clients, so limit this one together with everything else from the same address
+                return buckets.computeIfAbsent(IP_PREFIX + remoteAddr,
+                        k -> new Bucket(OTHER_CLIENTS, settings.getDefaultLimit()));
+            }
+        }
+        return buckets.computeIfAbsent(clientId,
+                k -> new Bucket(getMetricsClientId(clientId), getLimit(route, clientId)));
+    }
+
+    /**
+     * Remove buckets that are in the same state as a new bucket. This is done at most once per purge interval.
+     */
+    private void purgeIdle(long now) {
+        long last = lastPurge.get();
+        if (last != Long.MIN_VALUE && now - last < PURGE_INTERVAL_NANOS || !lastPurge.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map<String, Bucket> buckets : bucketsPerRoute.values()) {
+            buckets.values().removeIf(bucket -> bucket.isIdle(now));
+        }
+    }
+
+    private String getMetricsClientId(String clientId) {
+        return settings.getClients().containsKey(clientId) ? clientId : OTHER_CLIENTS;
+    }
+
+    private KeycloakServerProperties.Limit getLimit(String route, String clientId) {
+        KeycloakServerProperties.Limit limit = settings.getClients().get(clientId);
+        if (limit == null) {
+            limit = settings.getRoutes().get(route);
+        }
+        return (limit == null ? settings.getDefaultLimit() : limit);
+    }
+
+    /**
+     * @return the total number of throttled requests
+     */
+    public long getThrottledCount() {
+        return throttledTotal.sum();
+    }
+
+    /**
+     * @return the number of buckets of a route
+     */
+    int getBucketCount(String route) {
+        Map<String, Bucket> buckets = bucketsPerRoute.get(route);
+        return buckets == null ? 0 : buckets.size();
+    }
+
+    /**
+     * @return the number of throttled requests per configured client id (only clients that were throttled at least
+     * once), all other clients are counted as (other)
+     */
+    public Map<String, Long> getThrottledCountPerClient() {
+        Map<String, Long> result = new HashMap<>();
+        throttledPerClient.forEach((clientId, count) -> result.put(clientId, count.sum()));
+        return result;
+    }
+
+    /**
+     * Determine the client id of a request, either from the client_id parameter or the basic authentication header.
+     * If neither is available we use the client's ip address.
+     */
+    public static String getClientId(HttpServletRequest request) {
+        String clientId = request.getParameter("client_id");
+        if (clientId != null && !clientId.isEmpty()) {
+            return clientId;
+        }
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, BASIC_AUTH_PREFIX, 0, BASIC_AUTH_PREFIX.length())) {
+            try {
+                String credentials = new String(Base64.getDecoder().decode(
+                        authorization.substring(BASIC_AUTH_PREFIX.length()).trim()), StandardCharsets.UTF_8);
+                int separator = credentials.indexOf(':');
+                // client credentials in basic authentication are form-url-encoded (RFC 6749 section 2.3.1)
+                return URLDecoder.decode(separator == -1 ? credentials : credentials.substring(0, separator),
+                        StandardCharsets.UTF_8.name());
+            } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+                LOG.debug("Invalid basic authentication header", e);
+            }
+        }
+        return IP_PREFIX + request.getRemoteAddr();
+    }
+
+    private static final class Bucket {
+        private final String metricsClientId;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        private Bucket(String metricsClientId, KeycloakServerProperties.Limit limit) {
+            this.metricsClientId = metricsClientId;
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(limit.getRate(), 0.001));
+            this.toleranceNanos = intervalNanos * (Math.max(limit.getBurst(), 1) - 1);
+        }
+
+        /**
+         * @return 0 if the request is allowed, otherwise the number of nanoseconds until a request is allowed
+         */
+        private long tryAcquire(long now) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long tat = (current == Long.MIN_VALUE || current - now < 0 ? now : current);
+                long wait = tat - now - toleranceNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (theoreticalArrival.compareAndSet(current, tat + intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * @return true if the bucket has fully refilled, so it can be replaced by a new one
+         */
+        private boolean isIdle(long now) {
+            long current = theoreticalArrival.get();
+            return current == Long.MIN_VALUE || current - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves static resources, such as theme resources (/resources/...), the JavaScript adapter (/js/...) and the login
+ * status iframe, from memory. Only requests of which the path matches one of the configured paths are handled. The
+ * first GET request for a resource goes through Keycloak as usual, after which the resource is kept in memory together with a gzip
+ * compressed version (for text based content types), so later requests don't go through the JAX-RS stack and aren't
+ * compressed again. Resources are served with a content hash ETag (requests with a matching If-None-Match get a 304).
+ * Theme resource urls contain the Keycloak version, so these get a max-age of keycloak.theme.staticMaxAge seconds,
+ * other resources keep Keycloak's Cache-Control header.
+ *
+ * Resources are kept by path only, so query parameters (such as cache busting parameters) don't create new entries.
+ * Only 200 responses are kept. When the configured maximum size is reached the least recently used resources are
+ * removed.
+ */
+public class StaticResourceFilter extends OncePerRequestFilter {
+
+    private static final Logger LOG = LogManager.getLogger(StaticResourceFilter.class);
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_VARY = "Vary";
+    private static final String GZIP = "gzip";
+    private static final String THEME_RESOURCES_PATH = "/resources/";
+
+    private final KeycloakServerProperties.StaticResources settings;
+    private final List<Pattern> paths;
+    private final String themeCacheControl;
+    private final ConcurrentMap<String, Entry> resources = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param settings static resource settings
+     * @param staticMaxAge max-age in seconds for theme resources
+     */
+    public StaticResourceFilter(KeycloakServerProperties.StaticResources settings, int staticMaxAge) {
+        this.settings = settings;
+        this.paths = settings.getPaths().stream().map(Pattern::compile).collect(Collectors.toList());
+        this.themeCacheControl = "public, max-age=" + Math.max(0, staticMaxAge);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !isStaticResource(request);
+    }
+
+    private boolean isStaticResource(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return false;
+        }
+        String path = request.getRequestURI();
+        for (Pattern pattern : paths) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send the response to a request for a static resource if it's available in memory
+     * @param request the incoming request
+     * @param response the response to write to
+     * @return true if the response was sent, false if the request isn't for a static resource or it's not in memory
+     * @throws IOException when writing the response fails
+     */
+    public boolean serveFromMemory(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!isStaticResource(request)) {
+            return false;
+        }
+        Entry entry = resources.get(getKey(request));
+        if (entry == null) {
+            return false;
+        }
+        hits.incrementAndGet();
+        entry.lastAccess = System.nanoTime();
+        write(entry, request, response);
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (serveFromMemory(request, response)) {
+            return;
+        }
+        String key = getKey(request);
+        misses.incrementAndGet();
+        if (!"GET".equals(request.getMethod())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        BufferedResponseWrapper loaded = new BufferedResponseWrapper(response);
+        filterChain.doFilter(request, loaded);
+        byte[] body = loaded.getBody();
+        if (loaded.getStatus() != HttpServletResponse.SC_OK || body.length == 0
+                || body.length > settings.getMaxEntrySize()) {
+            loaded.copyTo(response);
+            return;
+        }
+        Entry entry = createEntry(request, loaded, body);
+        if (store(key, entry)) {
+            LOG.debug("Keeping {} in memory ({} bytes, {} gzipped)", key, body.length,
+                    entry.gzipped == null ? "not" : entry.gzipped.length);
+        }
+        write(entry, request, response);
+    }
+
+    private static String getKey(HttpServletRequest request) {
+        return request.getRequestURI();
+    }
+
+    private Entry createEntry(HttpServletRequest request, BufferedResponseWrapper loaded, byte[] body)
+            throws IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String cacheControl = loaded.getHeader(HEADER_CACHE_CONTROL);
+        if (path.contains(THEME_RESOURCES_PATH)) {
+            cacheControl = themeCacheControl;
+        }
+        String contentType = loaded.getContentType();
+        byte[] gzipped = (isCompressible(contentType) ? gzip(body) : null);
+        if (gzipped != null && gzipped.length >= body.length) {
+            gzipped = null;
+        }
+        return new Entry(body, gzipped, contentType, cacheControl);
+    }
+
+    /**
+     * Keep a resource in memory, removing the least recently used resources when the maximum size is exceeded. Lookups
+     * don't lock, only storing is synchronized.
+     */
+    private synchronized boolean store(String key, Entry entry) {
+        long entrySize = entry.getSize();
+        if (entrySize > settings.getMaxSize() || resources.putIfAbsent(key, entry) != null) {
+            // too large, or another request was first
+            return false;
+        }
+        long total = size.addAndGet(entrySize);
+        while (total > settings.getMaxSize()) {
+            long evicted = evictLeastRecentlyUsed(key);
+            if (evicted == 0) {
+                break;
+            }
+            total = size.addAndGet(-evicted);
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the removed resource
+     */
+    private long evictLeastRecentlyUsed(String keep) {
+        Map.Entry<String, Entry> oldest = null;
+        for (Map.Entry<String, Entry> candidate : resources.entrySet()) {
+            if (!candidate.getKey().equals(keep)
+                    && (oldest == null || candidate.getValue().lastAccess - oldest.getValue().lastAccess < 0)) {
+                oldest = candidate;
+            }
+        }
+        if (oldest == null) {
+            return 0;
+        }
+        resources.remove(oldest.getKey());
+        evictions.incrementAndGet();
+        LOG.debug("Removed {} from memory", oldest.getKey());
+        return oldest.getValue().getSize();
+    }
+
+    private static void write(Entry entry, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        // the compressed version is a different representation, so it needs its own ETag
+        boolean gzip = entry.gzipped != null && acceptsGzip(request.getHeaders(HEADER_ACCEPT_ENCODING));
+        String etag = (gzip ? entry.gzippedEtag : entry.etag);
+        response.setHeader(HEADER_ETAG, etag);
+        if (entry.cacheControl != null) {
+            response.setHeader(HEADER_CACHE_CONTROL, entry.cacheControl);
+        }
+        if (entry.gzipped != null) {
+            response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+        }
+        if (CachedForwardResponse.isNotModified(request.getHeaders(HEADER_IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (entry.contentType != null) {
+            response.setContentType(entry.contentType);
+        }
+        byte[] body = entry.body;
+        if (gzip) {
+            response.setHeader(HEADER_CONTENT_ENCODING, GZIP);
+            body = entry.gzipped;
+        }
+        response.setContentLength(body.length);
+        if (!"HEAD".equals(request.getMethod())) {
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * @param acceptEncoding values of the Accept-Encoding headers (may be null)
+     * @return true if gzip is accepted (and not explicitly refused with q=0)
+     */
+    static boolean acceptsGzip(Enumeration<String> acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        while (acceptEncoding.hasMoreElements()) {
+            for (String coding : acceptEncoding.nextElement().split(",")) {
+                String[] parts = coding.trim().toLowerCase(Locale.ROOT).split(";");
+                if (GZIP.equals(parts[0].trim()) || "*".equals(parts[0].trim())) {
+                    return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.contains("javascript") || type.contains("json")
+                || type.contains("xml") || type.contains("svg");
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(result)) {
+            out.write(body);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * @return number of resources kept in memory
+     */
+    public int getResourceCount() {
+        return resources.size();
+    }
+
+    /**
+     * @return number of bytes used by the resources kept in memory (uncompressed and compressed)
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return number of requests served from memory
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests that went through Keycloak
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of resources removed from memory to make room for other resources
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static final class Entry {
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final String contentType;
+        private final String cacheControl;
+        private final String etag;
+        private final String gzippedEtag;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Entry(byte[] body, byte[] gzipped, String contentType, String cacheControl) {
+            this.body = body;
+            this.gzipped = gzipped;
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.etag = CachedForwardResponse.createETag(body);
+            this.gzippedEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+
+        private long getSize() {
+            return body.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+}
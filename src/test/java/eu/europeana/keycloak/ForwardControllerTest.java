@@ -14,6 +14,8 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import javax.sql.DataSource;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -31,6 +33,9 @@ public class ForwardControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private ForwardController forwardController;
+
     @MockBean
     DataSource datasource; // needed by EmbeddedKeycloakConfig
 
@@ -48,6 +53,23 @@ public class ForwardControllerTest {
         testForwardGet("/login", loginEndpoint);
     }
 
+    /**
+     * Test that route metrics are kept per mapping and not per requested path
+     */
+    @Test
+    public void testRouteMetricsPerMapping() throws Exception {
+        testForwardGet("/login", loginEndpoint);
+        long before = forwardController.getRouteMetrics().getRoutes().get("/login").getRequestCount();
+
+        testForwardGet("/login/", loginEndpoint);
+        testForwardGet("/login;random=1", loginEndpoint);
+
+        assertEquals(before + 2, forwardController.getRouteMetrics().getRoutes().get("/login").getRequestCount());
+        for (String route : forwardController.getRouteMetrics().getRoutes().keySet()) {
+            assertFalse(route, route.startsWith("/login") && !"/login".equals(route));
+        }
+    }
+
     private void testForwardGet(String path, String expectedPath) throws Exception {
         mockMvc.perform(get(path))
                 .andExpect(status().isOk())
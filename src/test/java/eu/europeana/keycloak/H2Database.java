@@ -0,0 +1,81 @@
+package eu.europeana.keycloak;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.rules.ExternalResource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Test rule that provides an H2 in-memory database, of which all tables are dropped after each test
+ */
+public class H2Database extends ExternalResource {
+
+    private final String name;
+    private JdbcDataSource dataSource;
+
+    /**
+     * Create a new in-memory database
+     * @param name name of the database, tests that run at the same time must use different names
+     */
+    public H2Database(String name) {
+        this.name = name;
+    }
+
+    @Override
+    protected void before() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+    }
+
+    @Override
+    protected void after() {
+        try {
+            execute("DROP ALL OBJECTS");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to drop database " + name, e);
+        }
+    }
+
+    public JdbcDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Execute a statement in its own connection
+     * @param sql the statement to execute
+     * @throws SQLException when the statement fails
+     */
+    public void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * Run a query that returns a single number (e.g. a COUNT)
+     * @param sql the query to run
+     * @param parameters values of the query parameters
+     * @return the first column of the first row
+     * @throws SQLException when the query fails or doesn't return a row
+     */
+    public int queryForInt(String sql, Object... parameters) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No result for " + sql);
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package eu.europeana.keycloak;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests keeping track of start-up phases. Phases are static, so each test uses its own phase names.
+ */
+public class StartupTimerTest {
+
+    @Test
+    public void testBeginEnd() throws InterruptedException {
+        StartupTimer.begin("test-phase");
+        assertEquals(Long.valueOf(-1), StartupTimer.getPhaseDurations().get("test-phase"));
+
+        Thread.sleep(10);
+        StartupTimer.end("test-phase");
+        long duration = StartupTimer.getPhaseDurations().get("test-phase");
+        assertTrue(duration >= 10);
+
+        // ending a phase again doesn't change its duration
+        Thread.sleep(10);
+        StartupTimer.end("test-phase");
+        assertEquals(Long.valueOf(duration), StartupTimer.getPhaseDurations().get("test-phase"));
+    }
+
+    @Test
+    public void testEndUnknownPhase() {
+        StartupTimer.end("test-unknown");
+        assertFalse(StartupTimer.getPhaseDurations().containsKey("test-unknown"));
+    }
+
+    @Test
+    public void testRecord() {
+        StartupTimer.record("test-recorded", 1000, 1500);
+        // a phase that's recorded again (e.g. preheating the realm cache later) keeps its start-up duration
+        StartupTimer.record("test-recorded", 2000, 4000);
+        assertEquals(Long.valueOf(500), StartupTimer.getPhaseDurations().get("test-recorded"));
+    }
+
+    @Test
+    public void testPhaseOrder() {
+        StartupTimer.record("test-first", 0, 1);
+        StartupTimer.record("test-second", 0, 1);
+        int first = -1;
+        int second = -1;
+        int index = 0;
+        for (Map.Entry<String, Long> phase : StartupTimer.getPhaseDurations().entrySet()) {
+            if ("test-first".equals(phase.getKey())) {
+                first = index;
+            } else if ("test-second".equals(phase.getKey())) {
+                second = index;
+            }
+            index++;
+        }
+        assertTrue(first >= 0 && second == first + 1);
+    }
+
+    @Test
+    public void testReady() {
+        StartupTimer.ready();
+        assertTrue(StartupTimer.getTotalMillis() >= 0);
+        assertTrue(StartupTimer.getJvmStartTime() <= System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,87 @@
+package eu.europeana.keycloak.cluster;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests configuring the size, expiration and statistics of local caches
+ */
+public class EuropeanaInfinispanConnectionProviderFactoryTest {
+
+    private static final String PREFIX = "keycloak.test.infinispan.";
+    private static final String REALMS = InfinispanConnectionProvider.REALM_CACHE_NAME;
+    private static final String REALM_REVISIONS = InfinispanConnectionProvider.REALM_REVISIONS_CACHE_NAME;
+    private static final String KEYS = InfinispanConnectionProvider.KEYS_CACHE_NAME;
+
+    private EmbeddedCacheManager manager;
+
+    @Before
+    public void setup() {
+        manager = new DefaultCacheManager(new GlobalConfigurationBuilder()
+                .globalJmxStatistics().allowDuplicateDomains(true).build());
+        // like Keycloak, the realm cache and its revision cache are already started
+        manager.defineConfiguration(REALMS, new ConfigurationBuilder().memory().size(100).build());
+        manager.defineConfiguration(REALM_REVISIONS, new ConfigurationBuilder().memory().size(200).build());
+        manager.defineConfiguration(KEYS, new ConfigurationBuilder().memory().size(1000).build());
+        manager.getCache(REALMS);
+        manager.getCache(REALM_REVISIONS);
+
+        System.setProperty(PREFIX + REALMS + "MaxEntries", "500");
+        System.setProperty(PREFIX + REALMS + "Lifespan", "60");
+        System.setProperty(PREFIX + KEYS + "MaxIdle", "30");
+    }
+
+    @After
+    public void cleanup() {
+        manager.stop();
+        System.clearProperty(PREFIX + REALMS + "MaxEntries");
+        System.clearProperty(PREFIX + REALMS + "Lifespan");
+        System.clearProperty(PREFIX + KEYS + "MaxIdle");
+    }
+
+    @Test
+    public void testConfigureRunningCache() {
+        EuropeanaInfinispanConnectionProviderFactory.configureLocalCache(manager,
+                new Config.SystemPropertiesScope(PREFIX), REALMS);
+
+        assertTrue(manager.isRunning(REALMS));
+        Cache<String, String> cache = manager.getCache(REALMS);
+        Configuration configuration = cache.getCacheConfiguration();
+        assertEquals(500, configuration.memory().size());
+        assertEquals(60_000, configuration.expiration().lifespan());
+        assertTrue(configuration.jmxStatistics().enabled());
+        // revision caches must be larger than the cache itself
+        assertEquals(1000, manager.getCache(REALM_REVISIONS).getCacheConfiguration().memory().size());
+
+        cache.put("realm", "europeana");
+        cache.get("realm");
+        cache.get("other");
+        assertEquals(1, cache.getAdvancedCache().getStats().getHits());
+        assertEquals(1, cache.getAdvancedCache().getStats().getMisses());
+    }
+
+    @Test
+    public void testConfigureCacheNotStarted() {
+        EuropeanaInfinispanConnectionProviderFactory.configureLocalCache(manager,
+                new Config.SystemPropertiesScope(PREFIX), KEYS);
+
+        assertFalse(manager.isRunning(KEYS));
+        Configuration configuration = manager.getCacheConfiguration(KEYS);
+        assertEquals(1000, configuration.memory().size());
+        assertEquals(30_000, configuration.expiration().maxIdle());
+        assertTrue(configuration.jmxStatistics().enabled());
+    }
+}
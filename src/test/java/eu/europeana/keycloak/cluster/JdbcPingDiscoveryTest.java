@@ -0,0 +1,157 @@
+package eu.europeana.keycloak.cluster;
+
+import eu.europeana.keycloak.EmbeddedInitialContextFactory;
+import eu.europeana.keycloak.H2Database;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.context.Flag;
+import org.jgroups.JChannel;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.connections.infinispan.InfinispanConnectionProvider;
+
+import javax.naming.Context;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Starts 2 cluster members on the loopback interface and checks that they find each other through the JGROUPSPING
+ * table of an H2 in-memory database, and that Keycloak's clustered caches work across them
+ */
+public class JdbcPingDiscoveryTest {
+
+    private static final String CLUSTER = "keycloak-test";
+    private static final String PREFIX = "keycloak.test.cluster.";
+    private static final String SESSIONS = InfinispanConnectionProvider.USER_SESSION_CACHE_NAME;
+    private static final String DATA_SOURCE_NAME = "spring/datasource";
+    private static final long TIMEOUT = 30_000;
+
+    @ClassRule
+    public static final H2Database DATABASE = new H2Database("jgroups");
+
+    private final List<String> properties = new ArrayList<>();
+    private final List<EuropeanaInfinispanConnectionProviderFactory> nodes = new ArrayList<>();
+
+    @BeforeClass
+    public static void setup() {
+        EmbeddedInitialContextFactory.bind(DATA_SOURCE_NAME, DATABASE.getDataSource());
+        EmbeddedInitialContextFactory.install();
+        System.setProperty("jgroups.bind_addr", "127.0.0.1");
+        System.setProperty("java.net.preferIPv4Stack", "true");
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        EmbeddedInitialContextFactory.unbind(DATA_SOURCE_NAME);
+        System.clearProperty(Context.INITIAL_CONTEXT_FACTORY);
+        System.clearProperty("jgroups.bind_addr");
+    }
+
+    @After
+    public void stopNodes() {
+        for (EuropeanaInfinispanConnectionProviderFactory node : nodes) {
+            node.close();
+        }
+        for (String property : properties) {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void testTwoMembersFindEachOther() throws Exception {
+        try (JChannel node1 = EuropeanaInfinispanConnectionProviderFactory.createChannel("node1");
+             JChannel node2 = EuropeanaInfinispanConnectionProviderFactory.createChannel("node2")) {
+            node1.connect(CLUSTER);
+            node2.connect(CLUSTER);
+
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (node1.getView().size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(2, node1.getView().size());
+            assertEquals(node1.getView(), node2.getView());
+        }
+    }
+
+    /**
+     * Sessions are distributed with 2 owners, so with 2 members each member has a copy and a session survives when one
+     * member stops
+     */
+    @Test
+    public void testSessionsReplicated() throws Exception {
+        Cache<String, String> sessions1 = getCache(startNode("node1"), SESSIONS);
+        Cache<String, String> sessions2 = getCache(startNode("node2"), SESSIONS);
+        waitForMembers(sessions1, 2);
+        assertEquals(CacheMode.DIST_SYNC, sessions1.getCacheConfiguration().clustering().cacheMode());
+        assertEquals(2, sessions1.getCacheConfiguration().clustering().hash().numOwners());
+
+        sessions1.put("session-id", "user-id");
+        assertEquals("user-id", sessions2.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL).get("session-id"));
+
+        nodes.remove(0).close();
+        waitForMembers(sessions2, 1);
+        assertEquals("user-id", sessions2.get("session-id"));
+
+        sessions2.remove("session-id");
+        assertNull(sessions2.get("session-id"));
+    }
+
+    /**
+     * The realm and user caches are local to each member, changes are sent to the other members through the replicated
+     * work cache so they can invalidate their own copy
+     */
+    @Test
+    public void testInvalidationsReplicated() throws Exception {
+        EuropeanaInfinispanConnectionProviderFactory node1 = startNode("node1");
+        EuropeanaInfinispanConnectionProviderFactory node2 = startNode("node2");
+        Cache<String, String> work1 = getCache(node1, InfinispanConnectionProvider.WORK_CACHE_NAME);
+        Cache<String, String> work2 = getCache(node2, InfinispanConnectionProvider.WORK_CACHE_NAME);
+        waitForMembers(work1, 2);
+        assertEquals(CacheMode.LOCAL, getCache(node1, InfinispanConnectionProvider.REALM_CACHE_NAME)
+                .getCacheConfiguration().clustering().cacheMode());
+        assertEquals(CacheMode.REPL_SYNC, work1.getCacheConfiguration().clustering().cacheMode());
+
+        work1.put("realm-updated", "realm-id");
+        assertEquals("realm-id", work2.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL).get("realm-updated"));
+        work2.remove("realm-updated");
+        assertNull(work1.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL).get("realm-updated"));
+    }
+
+    private EuropeanaInfinispanConnectionProviderFactory startNode(String name) {
+        String prefix = PREFIX + name + ".";
+        setProperty(prefix + "clustered", "true");
+        setProperty(prefix + "clusterName", CLUSTER + "-caches");
+        setProperty(prefix + "nodeName", name);
+        setProperty(prefix + "sessionsOwners", "2");
+        EuropeanaInfinispanConnectionProviderFactory factory = new EuropeanaInfinispanConnectionProviderFactory();
+        factory.init(new Config.SystemPropertiesScope(prefix));
+        nodes.add(factory);
+        return factory;
+    }
+
+    private void setProperty(String name, String value) {
+        System.setProperty(name, value);
+        properties.add(name);
+    }
+
+    private static Cache<String, String> getCache(EuropeanaInfinispanConnectionProviderFactory node, String name) {
+        // the session isn't used when creating the (embedded) cache manager
+        return node.create(null).getCache(name);
+    }
+
+    private static void waitForMembers(Cache<?, ?> cache, int members) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (cache.getAdvancedCache().getRpcManager().getMembers().size() != members
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(members, cache.getAdvancedCache().getRpcManager().getMembers().size());
+    }
+}
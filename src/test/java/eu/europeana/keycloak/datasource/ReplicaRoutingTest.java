@@ -0,0 +1,126 @@
+package eu.europeana.keycloak.datasource;
+
+import eu.europeana.keycloak.H2Database;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests routing of read-only work to a replica, using two H2 in-memory databases as primary and replica
+ */
+public class ReplicaRoutingTest {
+
+    @Rule
+    public H2Database primaryDatabase = new H2Database("primary");
+    @Rule
+    public H2Database replicaDatabase = new H2Database("replica");
+
+    private DataSource primary;
+    private DataSource replica;
+    private ReplicaRouting routing;
+
+    private static DataSource createTables(H2Database database, String name) throws SQLException {
+        database.execute("CREATE TABLE server (name VARCHAR(20))");
+        database.execute("INSERT INTO server VALUES ('" + name + "')");
+        database.execute("CREATE TABLE replica_lag (seconds DOUBLE)");
+        database.execute("INSERT INTO replica_lag VALUES (0)");
+        return database.getDataSource();
+    }
+
+    private static String getServerName(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT name FROM server")) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    @Before
+    public void setup() throws SQLException {
+        primary = createTables(primaryDatabase, "primary");
+        replica = createTables(replicaDatabase, "replica");
+        KeycloakServerProperties.Replicas settings = new KeycloakServerProperties.Replicas();
+        settings.setEnabled(true);
+        settings.setMaxLag(5);
+        settings.setLagQuery("SELECT seconds FROM replica_lag");
+        routing = new ReplicaRouting(settings, Collections.singletonMap("replica", replica));
+        routing.checkReplicas();
+    }
+
+    @After
+    public void cleanup() {
+        ReadOnlyContext.clear();
+        routing.close();
+    }
+
+    @Test
+    public void testWritesGoToPrimary() throws SQLException {
+        assertEquals("primary", getServerName(routing.route(primary)));
+        assertEquals(0, routing.getReplicaConnectionCount());
+    }
+
+    @Test
+    public void testReadOnlyGoesToReplica() throws SQLException {
+        ReadOnlyContext.setReadOnly();
+        assertEquals("replica", getServerName(routing.route(primary)));
+        assertEquals(1, routing.getReplicaConnectionCount());
+        assertEquals(Long.valueOf(0), routing.getReplicaLag().get("replica"));
+    }
+
+    @Test
+    public void testFallbackWhenReplicaLags() throws SQLException {
+        replicaDatabase.execute("UPDATE replica_lag SET seconds = 10");
+        routing.checkReplicas();
+        assertEquals(0, routing.getAvailableReplicaCount());
+
+        ReadOnlyContext.setReadOnly();
+        assertEquals("primary", getServerName(routing.route(primary)));
+        assertEquals(1, routing.getPrimaryFallbackCount());
+
+        // replica caught up again
+        replicaDatabase.execute("UPDATE replica_lag SET seconds = 1");
+        routing.checkReplicas();
+        assertEquals("replica", getServerName(routing.route(primary)));
+    }
+
+    @Test
+    public void testFallbackWhenReplicaIsDown() throws SQLException {
+        replicaDatabase.execute("DROP TABLE replica_lag");
+        routing.checkReplicas();
+        assertEquals(Long.valueOf(-1), routing.getReplicaLag().get("replica"));
+
+        ReadOnlyContext.setReadOnly();
+        assertEquals("primary", getServerName(routing.route(primary)));
+    }
+
+    @Test
+    public void testNoReplicas() {
+        ReplicaRouting noReplicas = new ReplicaRouting(new KeycloakServerProperties.Replicas());
+        assertTrue(noReplicas.route(primary) == primary);
+    }
+
+    @Test
+    public void testReadOnlyRequestFilter() {
+        ReadOnlyRequestFilter filter = new ReadOnlyRequestFilter(
+                Collections.singletonList("/auth/admin/realms/[^/]+/(events|admin-events)"));
+        assertTrue(filter.isReadOnly(new MockHttpServletRequest("GET", "/auth/admin/realms/europeana/events")));
+        assertTrue(filter.isReadOnly(new MockHttpServletRequest("GET", "/auth/admin/realms/europeana/admin-events")));
+        assertFalse(filter.isReadOnly(new MockHttpServletRequest("DELETE", "/auth/admin/realms/europeana/events")));
+        assertFalse(filter.isReadOnly(new MockHttpServletRequest("GET", "/auth/admin/realms/europeana/users")));
+    }
+}
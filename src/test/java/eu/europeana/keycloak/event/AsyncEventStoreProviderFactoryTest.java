@@ -0,0 +1,83 @@
+package eu.europeana.keycloak.event;
+
+import eu.europeana.keycloak.H2Database;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.keycloak.Config;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that queries, admin events and clearing events work when the async event store is the configured event store
+ * (in which case Keycloak doesn't load the regular JPA event store)
+ */
+public class AsyncEventStoreProviderFactoryTest {
+
+    @Rule
+    public H2Database database = new H2Database("async-events");
+
+    private AsyncEventStoreProviderFactory factory;
+    private KeycloakSession session;
+
+    @Before
+    public void setup() {
+        Config.init(new Config.ConfigProvider() {
+            @Override
+            public String getProvider(String spi) {
+                return "eventsStore".equals(spi) ? AsyncEventStoreProviderFactory.ID : null;
+            }
+
+            @Override
+            public Config.Scope scope(String... scope) {
+                return new Config.SystemPropertiesScope("keycloak." + String.join(".", scope) + ".");
+            }
+        });
+
+        factory = new AsyncEventStoreProviderFactory() {
+            @Override
+            DataSource lookupDataSource(String name) {
+                return database.getDataSource();
+            }
+        };
+        factory.init(Config.scope("eventsStore", AsyncEventStoreProviderFactory.ID));
+        factory.postInit(mock(KeycloakSessionFactory.class));
+
+        JpaConnectionProvider connection = mock(JpaConnectionProvider.class);
+        when(connection.getEntityManager()).thenReturn(mock(EntityManager.class, RETURNS_DEEP_STUBS));
+        session = mock(KeycloakSession.class);
+        when(session.getProvider(JpaConnectionProvider.class)).thenReturn(connection);
+    }
+
+    @After
+    public void cleanup() {
+        factory.close();
+    }
+
+    @Test
+    public void testQueriesWithoutJpaEventStore() {
+        // Keycloak only loads the configured event store factory, so there is no "jpa" provider in the session
+        assertNull(session.getProvider(EventStoreProvider.class, "jpa"));
+        assertNotNull(AsyncEventStoreProviderFactory.getEventWriter());
+
+        EventStoreProvider store = factory.create(session);
+
+        assertNotNull(store.createQuery());
+        assertNotNull(store.createAdminQuery());
+        store.clear();
+        store.clearAdmin();
+        store.close();
+    }
+}
@@ -0,0 +1,124 @@
+package eu.europeana.keycloak.event;
+
+import eu.europeana.keycloak.H2Database;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests writing events in batches to an H2 in-memory database
+ */
+public class BatchedEventWriterTest {
+
+    private static final String WRITER_THREAD = "event-writer";
+
+    @Rule
+    public H2Database database = new H2Database("events");
+
+    private DataSource dataSource;
+
+    @Before
+    public void setup() throws SQLException {
+        dataSource = database.getDataSource();
+        database.execute("CREATE TABLE EVENT_ENTITY (ID VARCHAR(36) PRIMARY KEY, CLIENT_ID VARCHAR(255), "
+                + "DETAILS_JSON VARCHAR(2550), ERROR VARCHAR(255), IP_ADDRESS VARCHAR(255), REALM_ID VARCHAR(255), "
+                + "SESSION_ID VARCHAR(255), EVENT_TIME BIGINT, TYPE VARCHAR(255), USER_ID VARCHAR(255))");
+    }
+
+    private int countEvents() throws SQLException {
+        return database.queryForInt("SELECT COUNT(*) FROM EVENT_ENTITY");
+    }
+
+    private static Event createEvent(int i) {
+        Event event = new Event();
+        event.setType(EventType.LOGIN);
+        event.setTime(System.currentTimeMillis());
+        event.setRealmId("europeana");
+        event.setClientId("client");
+        event.setUserId("user" + i);
+        event.setIpAddress("127.0.0.1");
+        event.setDetails(Collections.singletonMap("username", "user" + i));
+        return event;
+    }
+
+    @Test
+    public void testWriteOnBatchSizeAndClose() throws SQLException, InterruptedException {
+        BatchedEventWriter writer = new BatchedEventWriter(dataSource, 1000, 10, 60_000, 0);
+        for (int i = 0; i < 25; i++) {
+            assertTrue(writer.enqueue(createEvent(i)));
+        }
+        // the 2 full batches are written right away, the rest waits for the flush interval
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenCount() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(20, writer.getWrittenCount());
+
+        // on close the remaining events are written
+        writer.close();
+        assertEquals(25, writer.getWrittenCount());
+        assertEquals(25, countEvents());
+    }
+
+    @Test
+    public void testWriteOnFlushInterval() throws SQLException, InterruptedException {
+        BatchedEventWriter writer = new BatchedEventWriter(dataSource, 1000, 100, 50, 0);
+        writer.enqueue(createEvent(1));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getWrittenCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, countEvents());
+        writer.close();
+    }
+
+    @Test
+    public void testWriteSynchronouslyWhenFull() throws SQLException {
+        // data source that blocks the writer thread until released, so it can't empty the queue
+        CountDownLatch release = new CountDownLatch(1);
+        DataSource blocking = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{DataSource.class}, (proxy, method, args) -> {
+                    if (WRITER_THREAD.equals(Thread.currentThread().getName())) {
+                        release.await();
+                    }
+                    return method.invoke(dataSource, args);
+                });
+        BatchedEventWriter writer = new BatchedEventWriter(blocking, 2, 1, 60_000, 0);
+        int queued = 0;
+        for (int i = 0; i < 10; i++) {
+            if (writer.enqueue(createEvent(i))) {
+                queued++;
+            }
+        }
+        // 2 events fit in the queue, and possibly 1 more is already taken by the writer, the rest is written right away
+        assertTrue(queued == 2 || queued == 3);
+        assertEquals(10 - queued, writer.getSynchronousCount());
+        assertEquals(10 - queued, countEvents());
+
+        release.countDown();
+        writer.close();
+        assertEquals(10, countEvents());
+    }
+
+    @Test
+    public void testWriteSynchronouslyAfterClose() throws SQLException {
+        BatchedEventWriter writer = new BatchedEventWriter(dataSource, 10, 10, 60_000, 0);
+        writer.close();
+
+        assertFalse(writer.enqueue(createEvent(1)));
+        assertEquals(1, writer.getSynchronousCount());
+        assertEquals(1, countEvents());
+    }
+}
@@ -0,0 +1,108 @@
+package eu.europeana.keycloak.event;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests parsing of admin event resource paths and that caches are only notified after the transaction completed
+ */
+public class CacheInvalidationEventListenerProviderTest {
+
+    private final List<String> notifications = new ArrayList<>();
+    private final CacheInvalidationListener listener = new CacheInvalidationListener() {
+        @Override
+        public void sessionRemoved(String sessionId) {
+            notifications.add("session " + sessionId);
+        }
+
+        @Override
+        public void userChanged(String userId) {
+            notifications.add("user " + userId);
+        }
+    };
+
+    private KeycloakTransactionManager transactionManager;
+    private CacheInvalidationEventListenerProvider provider;
+
+    @Before
+    public void setup() {
+        transactionManager = mock(KeycloakTransactionManager.class);
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.getTransactionManager()).thenReturn(transactionManager);
+        provider = new CacheInvalidationEventListenerProvider(session, Collections.singletonList(listener));
+    }
+
+    @Test
+    public void testGetId() {
+        assertEquals("123", CacheInvalidationEventListenerProvider.getId("users/123", "users/"));
+        assertEquals("123", CacheInvalidationEventListenerProvider.getId("users/123/logout", "users/"));
+        assertEquals("abc", CacheInvalidationEventListenerProvider.getId("sessions/abc", "sessions/"));
+        assertNull(CacheInvalidationEventListenerProvider.getId("users/", "users/"));
+        assertNull(CacheInvalidationEventListenerProvider.getId("clients/123", "users/"));
+        assertNull(CacheInvalidationEventListenerProvider.getId(null, "users/"));
+    }
+
+    @Test
+    public void testNotifiedAfterCommit() {
+        when(transactionManager.isActive()).thenReturn(true);
+        Event event = new Event();
+        event.setType(EventType.LOGOUT);
+        event.setSessionId("session1");
+
+        provider.onEvent(event);
+        assertTrue(notifications.isEmpty());
+
+        ArgumentCaptor<KeycloakTransaction> transaction = ArgumentCaptor.forClass(KeycloakTransaction.class);
+        verify(transactionManager).enlistAfterCompletion(transaction.capture());
+        transaction.getValue().begin();
+        transaction.getValue().commit();
+        assertEquals(Collections.singletonList("session session1"), notifications);
+    }
+
+    @Test
+    public void testNotifiedAfterRollback() {
+        when(transactionManager.isActive()).thenReturn(true);
+        AdminEvent event = new AdminEvent();
+        event.setResourceType(ResourceType.USER);
+        event.setResourcePath("users/123/logout");
+
+        provider.onEvent(event, false);
+        assertTrue(notifications.isEmpty());
+
+        ArgumentCaptor<KeycloakTransaction> transaction = ArgumentCaptor.forClass(KeycloakTransaction.class);
+        verify(transactionManager).enlistAfterCompletion(transaction.capture());
+        transaction.getValue().begin();
+        transaction.getValue().rollback();
+        assertEquals(Collections.singletonList("user 123"), notifications);
+    }
+
+    @Test
+    public void testNotifiedWithoutTransaction() {
+        when(transactionManager.isActive()).thenReturn(false);
+        Event event = new Event();
+        event.setType(EventType.REVOKE_GRANT);
+        event.setUserId("user1");
+
+        provider.onEvent(event);
+        assertEquals(Collections.singletonList("user user1"), notifications);
+    }
+}
@@ -0,0 +1,70 @@
+package eu.europeana.keycloak.event;
+
+import eu.europeana.keycloak.H2Database;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests deleting events in chunks from an H2 in-memory database
+ */
+public class ChunkedEventCleanerTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    @Rule
+    public H2Database database = new H2Database("cleanup");
+
+    @Before
+    public void setup() throws SQLException {
+        database.execute("CREATE TABLE REALM (ID VARCHAR(36) PRIMARY KEY, EVENTS_EXPIRATION BIGINT)");
+        database.execute("CREATE TABLE EVENT_ENTITY (ID VARCHAR(36) PRIMARY KEY, REALM_ID VARCHAR(255), EVENT_TIME BIGINT)");
+        database.execute("INSERT INTO REALM VALUES ('europeana', " + (7 * DAY / 1000) + ")");
+        database.execute("INSERT INTO REALM VALUES ('master', 0)");
+
+        long now = System.currentTimeMillis();
+        insertEvents("europeana", now - 10 * DAY, 25);
+        insertEvents("europeana", now - DAY, 5);
+        insertEvents("master", now - 10 * DAY, 3);
+    }
+
+    private void insertEvents(String realmId, long time, int count) throws SQLException {
+        try (Connection connection = database.getDataSource().getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO EVENT_ENTITY VALUES (?, ?, ?)")) {
+            for (int i = 0; i < count; i++) {
+                statement.setString(1, UUID.randomUUID().toString());
+                statement.setString(2, realmId);
+                statement.setLong(3, time + i);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private int countEvents(String realmId) throws SQLException {
+        return database.queryForInt("SELECT COUNT(*) FROM EVENT_ENTITY WHERE REALM_ID = ?", realmId);
+    }
+
+    @Test
+    public void testDeleteExpiredEvents() throws SQLException {
+        ChunkedEventCleaner cleaner = new ChunkedEventCleaner(database.getDataSource(), 10, 0);
+        assertEquals(25, cleaner.deleteExpiredEvents());
+        assertEquals(5, countEvents("europeana"));
+        // master realm has no expiration
+        assertEquals(3, countEvents("master"));
+    }
+
+    @Test
+    public void testDeleteOlderThan() throws SQLException {
+        ChunkedEventCleaner cleaner = new ChunkedEventCleaner(database.getDataSource(), 7, 1);
+        assertEquals(30, cleaner.deleteEvents("europeana", System.currentTimeMillis()));
+        assertEquals(0, countEvents("europeana"));
+        assertEquals(3, countEvents("master"));
+    }
+}
@@ -0,0 +1,30 @@
+package eu.europeana.keycloak.jfr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests that our JFR events can be used whenever they are enabled (only when compiled with the jfr profile). Events are
+ * verified in a real recording by the tests in src/jfr/test.
+ */
+public class JfrSupportTest {
+
+    @Test
+    public void testEventsWhenEnabled() {
+        assertEquals(JfrSupport.isEnabled(), JfrSupport.getEventFactory() != null);
+        if (!JfrSupport.isEnabled()) {
+            return;
+        }
+        JfrEventFactory factory = JfrSupport.getEventFactory();
+        RecordedEvent[] events = {factory.newForwardEvent(), factory.newKeycloakSessionEvent(),
+                factory.newPasswordHashEvent(), factory.newStartupPhaseEvent()};
+        for (RecordedEvent event : events) {
+            assertNotNull(event);
+            event.begin();
+            event.end();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package eu.europeana.keycloak.loadtest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the load test results as JSON, checks their error rates and compares them with the results of a previous run.
+ * This is in src/test/java (not src/loadtest/java) so the checks are unit tested in the regular build.
+ */
+final class LoadTestReport {
+
+    static final String REQUESTS = "requests";
+    static final String ERRORS = "errors";
+    static final String THROUGHPUT = "throughput";
+    static final String P99 = "p99";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private LoadTestReport() {
+        // empty constructor to avoid initialization
+    }
+
+    static void write(Path file, Map<String, Map<String, Number>> results) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        MAPPER.writeValue(file.toFile(), results);
+    }
+
+    static Map<String, Map<String, Number>> read(Path file) throws IOException {
+        return MAPPER.readValue(file.toFile(), new TypeReference<Map<String, Map<String, Number>>>() {});
+    }
+
+    /**
+     * Compare results with a baseline. A route has regressed when its throughput is lower, or its 99th percentile
+     * latency is higher, than the baseline by more than the allowed percentage. Routes that are not in the baseline
+     * are ignored.
+     * @param results results of this run
+     * @param baseline results of the baseline run
+     * @param maxRegressionPercent allowed difference in percent
+     * @return descriptions of all regressions, empty if there are none
+     */
+    static List<String> findRegressions(Map<String, Map<String, Number>> results,
+                                        Map<String, Map<String, Number>> baseline, double maxRegressionPercent) {
+        List<String> regressions = new ArrayList<>();
+        double factor = maxRegressionPercent / 100d;
+        for (Map.Entry<String, Map<String, Number>> route : results.entrySet()) {
+            Map<String, Number> previous = baseline.get(route.getKey());
+            if (previous == null) {
+                continue;
+            }
+            double throughput = route.getValue().get(THROUGHPUT).doubleValue();
+            double previousThroughput = previous.get(THROUGHPUT).doubleValue();
+            if (throughput < previousThroughput * (1 - factor)) {
+                regressions.add(String.format("%s throughput %.1f/s is lower than baseline %.1f/s", route.getKey(),
+                        throughput, previousThroughput));
+            }
+            double p99 = route.getValue().get(P99).doubleValue();
+            double previousP99 = previous.get(P99).doubleValue();
+            if (p99 > previousP99 * (1 + factor)) {
+                regressions.add(String.format("%s p99 latency %.1f ms is higher than baseline %.1f ms", route.getKey(),
+                        p99, previousP99));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Check the error rate of each route. A route fails when more than the allowed percentage of its requests failed,
+     * or when none of its requests succeeded.
+     * @param results results of this run
+     * @param maxErrorPercent allowed percentage of failed requests
+     * @return descriptions of all routes with too many errors, empty if there are none
+     */
+    static List<String> findErrors(Map<String, Map<String, Number>> results, double maxErrorPercent) {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Number>> route : results.entrySet()) {
+            long requests = route.getValue().get(REQUESTS).longValue();
+            long errors = route.getValue().get(ERRORS).longValue();
+            if (requests == 0) {
+                failures.add(String.format("%s had no successful requests (%d errors)", route.getKey(), errors));
+                continue;
+            }
+            double errorPercent = errors * 100d / (requests + errors);
+            if (errorPercent > maxErrorPercent) {
+                failures.add(String.format("%s error rate %.2f%% (%d of %d) is higher than %.2f%%", route.getKey(),
+                        errorPercent, errors, requests + errors, maxErrorPercent));
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,65 @@
+package eu.europeana.keycloak.loadtest;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the regression and error checks of the load test results
+ */
+public class LoadTestReportTest {
+
+    private static Map<String, Number> route(long requests, long errors, double throughput, double p99) {
+        Map<String, Number> result = new LinkedHashMap<>();
+        result.put(LoadTestReport.REQUESTS, requests);
+        result.put(LoadTestReport.ERRORS, errors);
+        result.put(LoadTestReport.THROUGHPUT, throughput);
+        result.put(LoadTestReport.P99, p99);
+        return result;
+    }
+
+    @Test
+    public void testNoRegressions() {
+        Map<String, Map<String, Number>> baseline = Collections.singletonMap("token", route(1000, 0, 100, 50));
+        Map<String, Map<String, Number>> results = Collections.singletonMap("token", route(950, 0, 95, 54));
+        assertTrue(LoadTestReport.findRegressions(results, baseline, 10).isEmpty());
+    }
+
+    @Test
+    public void testRegressions() {
+        Map<String, Map<String, Number>> baseline = new LinkedHashMap<>();
+        baseline.put("token", route(1000, 0, 100, 50));
+        baseline.put("certs", route(1000, 0, 100, 50));
+        Map<String, Map<String, Number>> results = new LinkedHashMap<>();
+        results.put("token", route(800, 0, 80, 50));
+        results.put("certs", route(1000, 0, 100, 60));
+        // not in the baseline, so ignored
+        results.put("userinfo", route(10, 0, 1, 1000));
+
+        List<String> regressions = LoadTestReport.findRegressions(results, baseline, 10);
+
+        assertEquals(2, regressions.size());
+        assertTrue(regressions.get(0), regressions.get(0).startsWith("token throughput"));
+        assertTrue(regressions.get(1), regressions.get(1).startsWith("certs p99"));
+    }
+
+    @Test
+    public void testErrors() {
+        Map<String, Map<String, Number>> results = new LinkedHashMap<>();
+        results.put("token", route(990, 10, 99, 50));
+        results.put("introspect", route(900, 100, 90, 50));
+        results.put("userinfo", route(0, 500, 0, 0));
+
+        List<String> failures = LoadTestReport.findErrors(results, 1);
+
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0), failures.get(0).startsWith("introspect error rate"));
+        assertTrue(failures.get(1), failures.get(1).startsWith("userinfo had no successful requests"));
+    }
+}
@@ -0,0 +1,74 @@
+package eu.europeana.keycloak.password;
+
+import org.junit.Test;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.PasswordPolicy;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the BCrypt password hash provider
+ */
+public class BCryptPasswordHashProviderTest {
+
+    private static final int LOG_ROUNDS = 4;
+
+    @Test
+    public void testEncodeVerify() {
+        BCryptPasswordHashProvider provider = new BCryptPasswordHashProvider("BCrypt", LOG_ROUNDS);
+        CredentialModel credential = new CredentialModel();
+        provider.encode("secret", -1, credential);
+
+        assertEquals("BCrypt", credential.getAlgorithm());
+        assertEquals(LOG_ROUNDS, BCryptPasswordHashProvider.getLogRounds(credential.getSalt()));
+        assertTrue(provider.verify("secret", credential));
+        assertFalse(provider.verify("Secret", credential));
+
+        credential.setValue(credential.getValue().substring(1));
+        assertFalse(provider.verify("secret", credential));
+        credential.setValue(null);
+        assertFalse(provider.verify("secret", credential));
+    }
+
+    @Test
+    public void testPolicyCheckNeverDowngrades() {
+        PasswordPolicy policy = mock(PasswordPolicy.class);
+        when(policy.getHashAlgorithm()).thenReturn("BCrypt");
+        CredentialModel cost5 = new CredentialModel();
+        new BCryptPasswordHashProvider("BCrypt", 5, "pepper", null, null).encode("secret", -1, cost5);
+        CredentialModel cost4 = new CredentialModel();
+        new BCryptPasswordHashProvider("BCrypt", 4, "pepper", null, null).encode("secret", -1, cost4);
+
+        // another instance calibrated to a lower (or higher) cost doesn't re-encode hashes with at least the minimum
+        BCryptPasswordHashProvider provider = new BCryptPasswordHashProvider("BCrypt", 4, 4, "pepper", null, null);
+        assertTrue(provider.policyCheck(policy, cost5));
+        assertTrue(provider.policyCheck(policy, cost4));
+
+        // hashes below the minimum are re-encoded, with at least the minimum cost
+        provider = new BCryptPasswordHashProvider("BCrypt", 4, 5, "pepper", null, null);
+        assertTrue(provider.policyCheck(policy, cost5));
+        assertFalse(provider.policyCheck(policy, cost4));
+        CredentialModel rehashed = new CredentialModel();
+        provider.encode("secret", -1, rehashed);
+        assertEquals(5, BCryptPasswordHashProvider.getLogRounds(rehashed.getSalt()));
+    }
+
+    @Test
+    public void testGetLogRounds() {
+        assertEquals(13, BCryptPasswordHashProvider.getLogRounds(bytes("$2a$13$abcdefghijklmnopqrstuv")));
+        assertEquals(10, BCryptPasswordHashProvider.getLogRounds(bytes("$2$10$abcdefghijklmnopqrstuv")));
+        assertEquals(-1, BCryptPasswordHashProvider.getLogRounds(bytes("$2a$1x$abcdefghijklmnopqrstuv")));
+        assertEquals(-1, BCryptPasswordHashProvider.getLogRounds(bytes("pbkdf2")));
+        assertEquals(-1, BCryptPasswordHashProvider.getLogRounds(null));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package eu.europeana.keycloak.password;
+
+import eu.europeana.keycloak.exception.HashingOverloadException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that callers of the hashing pool never wait longer than the configured timeouts
+ */
+public class PasswordHashingExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PasswordHashingExecutor executor;
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private String slowHash() throws InterruptedException {
+        release.await(10, TimeUnit.SECONDS);
+        return "hash";
+    }
+
+    @Test
+    public void testResult() {
+        executor = new PasswordHashingExecutor(1, 1, 1000, 1000);
+        assertEquals("hash", executor.execute(() -> "hash"));
+        assertEquals(1, executor.getCompletedCount());
+    }
+
+    @Test
+    public void testHashTimeout() {
+        executor = new PasswordHashingExecutor(1, 1, 50, 200);
+        long start = System.nanoTime();
+        try {
+            executor.execute(this::slowHash);
+            fail("Expected HashingOverloadException");
+        } catch (HashingOverloadException e) {
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Waited " + waitedMs + " ms", waitedMs < 5000);
+            assertEquals(1, executor.getTimeoutCount());
+            assertEquals(0, executor.getCompletedCount());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package eu.europeana.keycloak.password;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the buffer-based peppered password encoding is identical to the original string-based implementation,
+ * so existing password hashes remain valid
+ */
+public class PepperedPasswordEncoderTest {
+
+    private static String originalEncoding(String rawPassword, String pepper) {
+        String pepperedPassword = rawPassword + pepper;
+        return new String(Base64.encodeBase64(pepperedPassword.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8);
+    }
+
+    private static void assertCompatible(String rawPassword, String pepper) {
+        assertEquals(originalEncoding(rawPassword, pepper), new PepperedPasswordEncoder(pepper).encode(rawPassword));
+    }
+
+    @Test
+    public void testCompatibility() {
+        String[] peppers = {"", "pepper", "p\u00e9pper\u20ac", null};
+        String[] passwords = {"", "a", "ab", "abc", "secret", "\u00fcml\u00e4\u00fct", "\ud83d\ude00 emoji",
+                "lone \ud83d surrogate", RandomStringUtils.random(1000)};
+        for (String pepper : peppers) {
+            for (String password : passwords) {
+                assertCompatible(password, pepper);
+            }
+        }
+    }
+
+    /**
+     * Check that results are still correct when buffers are reused for shorter passwords after growing
+     */
+    @Test
+    public void testBufferReuse() {
+        PepperedPasswordEncoder encoder = new PepperedPasswordEncoder("pepper");
+        String mediumPassword = RandomStringUtils.random(200);
+        assertEquals(originalEncoding(mediumPassword, "pepper"), encoder.encode(mediumPassword));
+        assertEquals(originalEncoding("short", "pepper"), encoder.encode("short"));
+    }
+
+    /**
+     * Very long passwords are encoded in temporary buffers, so they don't grow the per-thread buffers
+     */
+    @Test
+    public void testLongPasswordNotPooled() {
+        PepperedPasswordEncoder encoder = new PepperedPasswordEncoder("pepper");
+        String longPassword = RandomStringUtils.randomAlphanumeric(5000);
+        assertEquals(originalEncoding(longPassword, "pepper"), encoder.encode(longPassword));
+        assertTrue(PepperedPasswordEncoder.getPooledBufferSize() <= PepperedPasswordEncoder.MAX_POOLED_BUFFER_SIZE);
+        assertEquals(originalEncoding("short", "pepper"), encoder.encode("short"));
+    }
+}
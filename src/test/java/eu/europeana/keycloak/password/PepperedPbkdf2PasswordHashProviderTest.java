@@ -0,0 +1,107 @@
+package eu.europeana.keycloak.password;
+
+import org.junit.Test;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.PasswordPolicy;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the peppered PBKDF2 password hash provider
+ */
+public class PepperedPbkdf2PasswordHashProviderTest {
+
+    private static final String ID = "PBKDF2-SHA256-Peppered";
+    private static final int ITERATIONS = 1000;
+    private static final int KEY_SIZE = 256;
+
+    private static PepperedPbkdf2PasswordHashProvider createProvider(String pepper) {
+        return new PepperedPbkdf2PasswordHashProvider(ID, ITERATIONS, KEY_SIZE, pepper, null);
+    }
+
+    private static PasswordPolicy createPolicy(int hashIterations) {
+        PasswordPolicy policy = mock(PasswordPolicy.class);
+        when(policy.getHashAlgorithm()).thenReturn(ID);
+        when(policy.getHashIterations()).thenReturn(hashIterations);
+        return policy;
+    }
+
+    @Test
+    public void testEncodeVerify() {
+        PepperedPbkdf2PasswordHashProvider provider = createProvider("pepper");
+        CredentialModel credential = new CredentialModel();
+        provider.encode("secret", -1, credential);
+
+        assertEquals(ID, credential.getAlgorithm());
+        assertEquals(ITERATIONS, credential.getHashIterations());
+        assertEquals(KEY_SIZE / Byte.SIZE, Base64.getDecoder().decode(credential.getValue()).length);
+        assertTrue(provider.verify("secret", credential));
+        assertFalse(provider.verify("Secret", credential));
+
+        // the salt is random, so encoding the same password twice gives a different hash
+        CredentialModel other = new CredentialModel();
+        provider.encode("secret", -1, other);
+        assertFalse(credential.getValue().equals(other.getValue()));
+    }
+
+    @Test
+    public void testWrongPepper() {
+        CredentialModel credential = new CredentialModel();
+        createProvider("pepper").encode("secret", -1, credential);
+
+        assertFalse(createProvider("other pepper").verify("secret", credential));
+    }
+
+    @Test
+    public void testPolicyCheck() {
+        PepperedPbkdf2PasswordHashProvider provider = createProvider("pepper");
+        CredentialModel credential = new CredentialModel();
+        provider.encode("secret", -1, credential);
+
+        // -1 means the policy doesn't set the number of iterations, so the default is used
+        assertTrue(provider.policyCheck(createPolicy(-1), credential));
+        assertTrue(provider.policyCheck(createPolicy(ITERATIONS), credential));
+        assertFalse(provider.policyCheck(createPolicy(ITERATIONS * 2), credential));
+
+        // changing the key size re-encodes the password
+        PepperedPbkdf2PasswordHashProvider largerKey = new PepperedPbkdf2PasswordHashProvider(ID, ITERATIONS,
+                KEY_SIZE * 2, "pepper", null);
+        assertFalse(largerKey.policyCheck(createPolicy(-1), credential));
+        // but existing hashes can still be verified
+        assertTrue(largerKey.verify("secret", credential));
+    }
+
+    /**
+     * Credentials created by Keycloak's own (unpeppered) PBKDF2 provider don't pass the policy check, so Keycloak
+     * re-encodes them with our provider after the next successful login
+     */
+    @Test
+    public void testMigrateFromPbkdf2() throws GeneralSecurityException {
+        CredentialModel plain = new CredentialModel();
+        plain.setAlgorithm("pbkdf2-sha256");
+        plain.setHashIterations(ITERATIONS);
+        plain.setSalt(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        PBEKeySpec spec = new PBEKeySpec("secret".toCharArray(), plain.getSalt(), ITERATIONS, KEY_SIZE);
+        plain.setValue(Base64.getEncoder().encodeToString(
+                SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded()));
+
+        PepperedPbkdf2PasswordHashProvider provider = createProvider("pepper");
+        assertFalse(provider.policyCheck(createPolicy(-1), plain));
+        // an unpeppered hash must not be accepted by our provider
+        assertFalse(provider.verify("secret", plain));
+
+        CredentialModel migrated = new CredentialModel();
+        provider.encode("secret", -1, migrated);
+        assertTrue(provider.policyCheck(createPolicy(-1), migrated));
+        assertTrue(provider.verify("secret", migrated));
+    }
+}
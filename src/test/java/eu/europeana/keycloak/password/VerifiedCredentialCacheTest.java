@@ -0,0 +1,86 @@
+package eu.europeana.keycloak.password;
+
+import org.junit.Test;
+import org.keycloak.credential.CredentialModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the cache of verified credentials
+ */
+public class VerifiedCredentialCacheTest {
+
+    private static final long TTL = 60_000;
+
+    private static CredentialModel createCredential(String id, String value) {
+        CredentialModel credential = new CredentialModel();
+        credential.setId(id);
+        credential.setValue(value);
+        return credential;
+    }
+
+    /**
+     * Test that only the exact verified password is remembered
+     */
+    @Test
+    public void testVerified() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(TTL, 10);
+        CredentialModel credential = createCredential("1", "hash1");
+        assertFalse(cache.isVerified(credential, "secret"));
+
+        cache.putVerified(credential, "secret");
+        assertTrue(cache.isVerified(credential, "secret"));
+        assertFalse(cache.isVerified(credential, "Secret"));
+        assertFalse(cache.isVerified(createCredential("2", "hash1"), "secret"));
+    }
+
+    /**
+     * Test that a cached verification no longer matches when the credential value changes
+     */
+    @Test
+    public void testCredentialValueChanged() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(TTL, 10);
+        cache.putVerified(createCredential("1", "hash1"), "secret");
+        assertFalse(cache.isVerified(createCredential("1", "hash2"), "secret"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(TTL, 10);
+        CredentialModel credential = createCredential("1", "hash1");
+        cache.putVerified(credential, "secret");
+        cache.invalidate("1");
+        assertFalse(cache.isVerified(credential, "secret"));
+    }
+
+    @Test
+    public void testExpired() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(-1, 10);
+        CredentialModel credential = createCredential("1", "hash1");
+        cache.putVerified(credential, "secret");
+        assertFalse(cache.isVerified(credential, "secret"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxSize() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(TTL, 2);
+        CredentialModel credential1 = createCredential("1", "hash1");
+        cache.putVerified(credential1, "secret");
+        cache.putVerified(createCredential("2", "hash2"), "secret");
+        cache.putVerified(createCredential("3", "hash3"), "secret");
+        assertEquals(2, cache.size());
+        assertFalse(cache.isVerified(credential1, "secret"));
+    }
+
+    @Test
+    public void testNoCredentialId() {
+        VerifiedCredentialCache cache = new VerifiedCredentialCache(TTL, 10);
+        CredentialModel credential = createCredential(null, "hash1");
+        cache.putVerified(credential, "secret");
+        assertFalse(cache.isVerified(credential, "secret"));
+        assertEquals(0, cache.size());
+    }
+}
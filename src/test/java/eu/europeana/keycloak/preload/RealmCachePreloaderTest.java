@@ -0,0 +1,141 @@
+package eu.europeana.keycloak.preload;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests preloading a realm with mocked Keycloak sessions
+ */
+public class RealmCachePreloaderTest {
+
+    private static final String REALM = "europeana";
+    private static final String REALM_ID = "realm-id";
+
+    private KeycloakSessionFactory sessionFactory;
+    private KeycloakSession session;
+    private RealmModel realm;
+    private KeycloakServerProperties.Preload settings;
+
+    @Before
+    public void setup() {
+        RoleModel user = createRole("user");
+        RoleModel clientRole = createRole("client-role");
+        // composites are also roles of the realm or of a client, so they must not be counted twice
+        RoleModel admin = createRole("admin", user, clientRole);
+        RoleModel clientAdmin = createRole("client-admin", clientRole, user);
+
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(REALM_ID);
+        when(realm.getRoles()).thenReturn(roles(admin, user));
+        when(realm.getClientScopes()).thenReturn(Arrays.asList(mock(ClientScopeModel.class),
+                mock(ClientScopeModel.class)));
+        ClientModel client1 = createClient(clientRole, clientAdmin);
+        ClientModel client2 = createClient();
+        ClientModel client3 = createClient(clientRole);
+        when(realm.getClientById("client1")).thenReturn(client1);
+        when(realm.getClientById("client2")).thenReturn(client2);
+        when(realm.getClientById("client3")).thenReturn(client3);
+
+        @SuppressWarnings("unchecked")
+        TypedQuery<String> query = mock(TypedQuery.class);
+        when(query.setParameter("realm", REALM_ID)).thenReturn(query);
+        when(query.getResultList()).thenReturn(Arrays.asList("client1", "client2", "client3", "removed"));
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.createNamedQuery("getClientIdsByRealm", String.class)).thenReturn(query);
+        JpaConnectionProvider connection = mock(JpaConnectionProvider.class);
+        when(connection.getEntityManager()).thenReturn(entityManager);
+
+        session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        when(session.getProvider(JpaConnectionProvider.class)).thenReturn(connection);
+        when(session.realms().getRealmByName(REALM)).thenReturn(realm);
+        when(session.realms().getRealm(REALM_ID)).thenReturn(realm);
+        sessionFactory = mock(KeycloakSessionFactory.class);
+        when(sessionFactory.create()).thenReturn(session);
+
+        settings = new KeycloakServerProperties.Preload();
+        settings.setEnabled(true);
+        settings.setRealm(REALM);
+        settings.setBatchSize(2);
+        settings.setParallelism(2);
+    }
+
+    private static RoleModel createRole(String id, RoleModel... composites) {
+        RoleModel role = mock(RoleModel.class);
+        when(role.getId()).thenReturn(id);
+        when(role.isComposite()).thenReturn(composites.length > 0);
+        when(role.getComposites()).thenReturn(roles(composites));
+        return role;
+    }
+
+    private static Set<RoleModel> roles(RoleModel... roles) {
+        return new HashSet<>(Arrays.asList(roles));
+    }
+
+    private static ClientModel createClient(RoleModel... roles) {
+        ClientModel client = mock(ClientModel.class);
+        when(client.getRoles()).thenReturn(roles(roles));
+        return client;
+    }
+
+    @Test
+    public void testPreload() {
+        RealmCachePreloader preloader = new RealmCachePreloader(sessionFactory, settings);
+        preloader.run();
+
+        assertEquals(RealmCachePreloader.State.DONE, preloader.getState());
+        assertTrue(preloader.isFinished());
+        assertEquals(3, preloader.getClientCount());
+        assertEquals(4, preloader.getRoleCount());
+        assertEquals(2, preloader.getClientScopeCount());
+        // clients are loaded by id in the batches, not all at once through the realm
+        verify(realm, never()).getClients();
+        verify(realm).getClientById("removed");
+    }
+
+    @Test
+    public void testRealmNotFound() {
+        when(session.realms().getRealmByName(REALM)).thenReturn(null);
+        RealmCachePreloader preloader = new RealmCachePreloader(sessionFactory, settings);
+        preloader.run();
+
+        assertEquals(RealmCachePreloader.State.SKIPPED, preloader.getState());
+        assertEquals(0, preloader.getClientCount());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        RealmCachePreloader preloader = new RealmCachePreloader(sessionFactory, new KeycloakServerProperties.Preload());
+        preloader.start();
+
+        assertEquals(RealmCachePreloader.State.SKIPPED, preloader.getState());
+        verify(sessionFactory, never()).create();
+    }
+
+    @Test
+    public void testGetClientIds() {
+        assertEquals(Arrays.asList("client1", "client2", "client3", "removed"),
+                RealmCachePreloader.getClientIds(session, REALM_ID));
+    }
+}
@@ -0,0 +1,101 @@
+package eu.europeana.keycloak.userimport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading users from CSV and JSON import files
+ */
+public class UserImportReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadCsv() throws IOException {
+        List<UserImportRow> rows = read("users.csv",
+                "Email,USERNAME,firstName,lastName,password,enabled,emailVerified\n"
+                + "alice@example.com,alice,Alice,\"Smith, Jr.\",secret,true,true\n"
+                + "\n"
+                + "bob@example.com,bob,\"Bob \"\"The Builder\"\"\",\"Multi\nLine\",\"pass,word\",false,\n"
+                + "carol@example.com,carol,,,,,\n");
+
+        assertEquals(3, rows.size());
+        UserImportRow alice = rows.get(0);
+        assertEquals(1, alice.getRowNumber());
+        assertEquals("alice", alice.getUsername());
+        assertEquals("alice@example.com", alice.getEmail());
+        assertEquals("Smith, Jr.", alice.getLastName());
+        assertEquals("secret", alice.getPassword());
+        assertTrue(alice.isEnabled());
+        assertTrue(alice.isEmailVerified());
+
+        UserImportRow bob = rows.get(1);
+        // the empty line still counts as a row
+        assertEquals(3, bob.getRowNumber());
+        assertEquals("Bob \"The Builder\"", bob.getFirstName());
+        assertEquals("Multi\nLine", bob.getLastName());
+        assertEquals("pass,word", bob.getPassword());
+        assertFalse(bob.isEnabled());
+        assertFalse(bob.isEmailVerified());
+
+        UserImportRow carol = rows.get(2);
+        assertEquals(4, carol.getRowNumber());
+        assertNull(carol.getFirstName());
+        assertNull(carol.getPassword());
+        assertTrue(carol.isEnabled());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCsvWithoutUsername() throws IOException {
+        read("users.csv", "email,password\nalice@example.com,secret\n");
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptyCsv() throws IOException {
+        read("users.csv", "");
+    }
+
+    @Test
+    public void testReadJson() throws IOException {
+        List<UserImportRow> rows = read("users.json",
+                "[{\"username\":\"alice\",\"email\":\"alice@example.com\",\"password\":\"secret\",\"unknown\":1},"
+                + "{\"username\":\"bob\",\"enabled\":false}]");
+
+        assertEquals(2, rows.size());
+        assertEquals(1, rows.get(0).getRowNumber());
+        assertEquals("alice", rows.get(0).getUsername());
+        assertEquals("secret", rows.get(0).getPassword());
+        assertTrue(rows.get(0).isEnabled());
+        assertEquals(2, rows.get(1).getRowNumber());
+        assertFalse(rows.get(1).isEnabled());
+    }
+
+    @Test(expected = IOException.class)
+    public void testJsonWithoutArray() throws IOException {
+        read("users.json", "{\"username\":\"alice\"}");
+    }
+
+    private List<UserImportRow> read(String fileName, String content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(fileName);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        List<UserImportRow> result = new ArrayList<>();
+        try (UserImportReader reader = UserImportReader.open(file)) {
+            reader.forEachRemaining(result::add);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,201 @@
+package eu.europeana.keycloak.userimport;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests importing users with a mocked Keycloak session
+ */
+public class UserImporterTest {
+
+    private static final String REALM = "europeana";
+    private static final String ALGORITHM = "pbkdf2-test";
+    private static final int ITERATIONS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, UserModel> users = new HashMap<>();
+    private KeycloakSessionFactory sessionFactory;
+    private KeycloakSession session;
+    private RealmModel realm;
+    private PasswordHashProvider hashProvider;
+
+    @Before
+    public void setup() {
+        realm = mock(RealmModel.class);
+        PasswordPolicy policy = mock(PasswordPolicy.class);
+        when(policy.getHashAlgorithm()).thenReturn(ALGORITHM);
+        when(policy.getHashIterations()).thenReturn(ITERATIONS);
+        when(realm.getPasswordPolicy()).thenReturn(policy);
+
+        hashProvider = mock(PasswordHashProvider.class);
+        doAnswer(invocation -> {
+            CredentialModel credential = (CredentialModel) invocation.getArguments()[2];
+            credential.setAlgorithm(ALGORITHM);
+            credential.setValue("hashed-" + invocation.getArguments()[0]);
+            return null;
+        }).when(hashProvider).encode(anyString(), anyInt(), any(CredentialModel.class));
+
+        UserProvider userProvider = mock(UserProvider.class);
+        when(userProvider.getUserByUsername(anyString(), eq(realm)))
+                .thenAnswer(invocation -> users.get(invocation.getArguments()[0]));
+        when(userProvider.addUser(eq(realm), anyString())).thenAnswer(invocation -> {
+            UserModel user = mock(UserModel.class);
+            users.put((String) invocation.getArguments()[1], user);
+            return user;
+        });
+
+        session = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        when(session.realms().getRealmByName(REALM)).thenReturn(realm);
+        when(session.users()).thenReturn(userProvider);
+        when(session.getProvider(PasswordHashProvider.class, ALGORITHM)).thenReturn(hashProvider);
+        sessionFactory = mock(KeycloakSessionFactory.class);
+        when(sessionFactory.create()).thenReturn(session);
+    }
+
+    @Test
+    public void testImport() throws IOException {
+        users.put("existing", mock(UserModel.class));
+        Path file = write("username,email,password\n"
+                + "existing,existing@example.com,secret\n"
+                + "alice,alice@example.com,\"secret, with comma\"\n"
+                + "bob,bob@example.com,\n"
+                + "Alice,other@example.com,secret\n"
+                + ",nobody@example.com,secret\n");
+
+        UserImporter importer = new UserImporter(sessionFactory, settings(file, 10));
+        importer.run();
+
+        assertEquals(2, importer.getImportedCount());
+        assertEquals(3, importer.getFailedCount());
+        assertEquals(3, users.size());
+        assertNotNull(users.get("alice"));
+        assertNotNull(users.get("bob"));
+        verify(users.get("alice")).setEmail("alice@example.com");
+
+        // passwords are hashed with the algorithm and iterations of the realm's password policy
+        verify(hashProvider).encode(eq("secret, with comma"), eq(ITERATIONS), any(CredentialModel.class));
+        // duplicates and rows without username are not hashed
+        verify(hashProvider, times(2)).encode(anyString(), anyInt(), any(CredentialModel.class));
+        ArgumentCaptor<CredentialModel> credential = ArgumentCaptor.forClass(CredentialModel.class);
+        verify(session.userCredentialManager()).createCredential(eq(realm), eq(users.get("alice")),
+                credential.capture());
+        assertEquals(ALGORITHM, credential.getValue().getAlgorithm());
+        assertEquals("hashed-secret, with comma", credential.getValue().getValue());
+        verify(session.userCredentialManager(), never()).createCredential(eq(realm), eq(users.get("bob")),
+                any(CredentialModel.class));
+
+        List<String> errors = Files.readAllLines(folder.getRoot().toPath().resolve("users.csv.errors.csv"),
+                StandardCharsets.UTF_8);
+        assertEquals(3, errors.size());
+        assertTrue(errors.contains("4,\"Alice\",\"Duplicate username Alice\""));
+        assertTrue(errors.contains("5,\"null\",\"No username\""));
+        assertTrue(errors.contains("1,\"existing\",\"User existing already exists\""));
+        assertEquals("5", readProgress());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        Path file = write("username,password\nalice,secret\nbob,secret\ncarol,secret\n");
+        Files.write(folder.getRoot().toPath().resolve("users.csv.progress"), "2".getBytes(StandardCharsets.UTF_8));
+
+        new UserImporter(sessionFactory, settings(file, 1)).run();
+
+        assertEquals(Collections.singleton("carol"), users.keySet());
+        assertEquals("3", readProgress());
+    }
+
+    @Test
+    public void testRejectDuplicates() {
+        UserImportRow first = row("alice", "secret");
+        UserImportRow second = row("ALICE", "secret");
+        UserImportRow other = row("bob", "secret");
+
+        UserImporter.rejectDuplicates(Arrays.asList(first, second, other));
+
+        assertNull(first.getError());
+        assertEquals("secret", first.getPassword());
+        assertEquals("Duplicate username ALICE", second.getError());
+        assertNull(second.getPassword());
+        assertNull(other.getError());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownAlgorithm() throws IOException {
+        when(session.getProvider(PasswordHashProvider.class, ALGORITHM)).thenReturn(null);
+        new UserImporter(sessionFactory, settings(write("username\nalice\n"), 10)).run();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownRealm() throws IOException {
+        when(session.realms().getRealmByName(REALM)).thenReturn(null);
+        new UserImporter(sessionFactory, settings(write("username\nalice\n"), 10)).run();
+    }
+
+    private static UserImportRow row(String username, String password) {
+        UserImportRow row = new UserImportRow();
+        row.setUsername(username);
+        row.setPassword(password);
+        return row;
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("users.csv");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String readProgress() throws IOException {
+        Path progress = folder.getRoot().toPath().resolve("users.csv.progress");
+        assertTrue(Files.exists(progress));
+        return new String(Files.readAllBytes(progress), StandardCharsets.UTF_8);
+    }
+
+    private static KeycloakServerProperties.UserImport settings(Path file, int batchSize) {
+        KeycloakServerProperties.UserImport settings = new KeycloakServerProperties.UserImport();
+        settings.setFile(file.toString());
+        settings.setRealm(REALM);
+        settings.setBatchSize(batchSize);
+        settings.setParallelism(2);
+        return settings;
+    }
+}
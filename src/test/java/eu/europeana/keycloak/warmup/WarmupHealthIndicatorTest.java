@@ -0,0 +1,35 @@
+package eu.europeana.keycloak.warmup;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the health indicator reports DOWN until warm-up is ready
+ */
+public class WarmupHealthIndicatorTest {
+
+    @Test
+    public void testDownUntilReady() {
+        WarmupService warmupService = new WarmupService(new KeycloakServerProperties());
+        Health health = new WarmupHealthIndicator(warmupService).health();
+        assertEquals(Status.DOWN, health.getStatus());
+        assertEquals(WarmupService.State.PENDING, health.getDetails().get("state"));
+        assertEquals(0, health.getDetails().get("failures"));
+    }
+
+    @Test
+    public void testUpWhenSkipped() {
+        KeycloakServerProperties properties = new KeycloakServerProperties();
+        properties.getWarmup().setEnabled(false);
+        WarmupService warmupService = new WarmupService(properties);
+        warmupService.start(8080);
+
+        Health health = new WarmupHealthIndicator(warmupService).health();
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(WarmupService.State.SKIPPED, health.getDetails().get("state"));
+    }
+}
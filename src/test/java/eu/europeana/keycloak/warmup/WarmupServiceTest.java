@@ -0,0 +1,199 @@
+package eu.europeana.keycloak.warmup;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import eu.europeana.keycloak.KeycloakServerProperties.WarmupStage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the readiness state of the warm-up service and running warm-up stages against a stub http server
+ */
+public class WarmupServiceTest {
+
+    private static final long SLOW_MILLIS = 5000;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Token requests return token1, /fail returns an error, /slow takes SLOW_MILLIS and everything else returns {}
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(exchange.getRequestMethod() + " " + path, k -> new AtomicInteger()).incrementAndGet();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null) {
+            authorizations.add(authorization);
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // read the form data, if any
+            }
+        }
+        int status = 200;
+        String body = "{}";
+        if (path.endsWith("/token")) {
+            body = "{\"access_token\":\"token1\"}";
+        } else if ("/fail".equals(path)) {
+            status = 500;
+        } else if ("/slow".equals(path)) {
+            try {
+                Thread.sleep(SLOW_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static WarmupService createService(KeycloakServerProperties properties, String warmupRequest) {
+        WarmupService warmupService = new WarmupService(properties);
+        ReflectionTestUtils.setField(warmupService, "managerId", "manager");
+        ReflectionTestUtils.setField(warmupService, "managerSecret", "secret");
+        ReflectionTestUtils.setField(warmupService, "warmupRequest", warmupRequest);
+        ReflectionTestUtils.setField(warmupService, "tokenBasePath", "/auth");
+        return warmupService;
+    }
+
+    private int getRequestCount(String request) {
+        AtomicInteger count = requests.get(request);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testNotReadyBeforeStart() {
+        WarmupService warmupService = new WarmupService(new KeycloakServerProperties());
+        assertEquals(WarmupService.State.PENDING, warmupService.getState());
+        assertFalse(warmupService.isReady());
+    }
+
+    @Test
+    public void testSkippedWhenDisabled() {
+        KeycloakServerProperties properties = new KeycloakServerProperties();
+        properties.getWarmup().setEnabled(false);
+        WarmupService warmupService = new WarmupService(properties);
+        warmupService.start(8080);
+        assertEquals(WarmupService.State.SKIPPED, warmupService.getState());
+        assertTrue(warmupService.isReady());
+    }
+
+    @Test
+    public void testSkippedWithoutManagerClient() {
+        KeycloakServerProperties properties = new KeycloakServerProperties();
+        properties.getWarmup().getStages().add(new WarmupStage("certs", WarmupStage.Type.GET, "/certs", 1, false));
+        WarmupService warmupService = createService(properties, "");
+        ReflectionTestUtils.setField(warmupService, "managerSecret", "REMOVED");
+        warmupService.start(server.getAddress().getPort());
+        assertEquals(WarmupService.State.SKIPPED, warmupService.getState());
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void testStagesRun() throws InterruptedException {
+        KeycloakServerProperties properties = new KeycloakServerProperties();
+        List<WarmupStage> stages = properties.getWarmup().getStages();
+        stages.add(new WarmupStage("token", WarmupStage.Type.TOKEN, null, 2, false));
+        stages.add(new WarmupStage("certs", WarmupStage.Type.GET, "/certs", 5, true));
+        stages.add(new WarmupStage("introspect", WarmupStage.Type.POST, "/introspect", 2, false));
+        stages.add(new WarmupStage("broken", WarmupStage.Type.GET, "/fail", 3, true));
+        WarmupService warmupService = createService(properties, "/legacy");
+
+        warmupService.start(server.getAddress().getPort());
+        waitFor(() -> warmupService.getState() == WarmupService.State.DONE);
+
+        assertTrue(warmupService.isReady());
+        assertEquals(3, warmupService.getFailureCount());
+        assertEquals(Arrays.asList("token", "certs", "introspect", "broken", "request"),
+                new ArrayList<>(warmupService.getStageDurations().keySet()));
+        assertEquals(2, getRequestCount("POST /auth/token"));
+        assertEquals(5, getRequestCount("GET /certs"));
+        assertEquals(2, getRequestCount("POST /introspect"));
+        assertEquals(3, getRequestCount("GET /fail"));
+        assertEquals(1, getRequestCount("GET /legacy"));
+        // all requests except token requests use the token of the token stage
+        assertEquals(11, authorizations.size());
+        assertTrue(authorizations.stream().allMatch("Bearer token1"::equals));
+    }
+
+    @Test
+    public void testTimedOut() throws InterruptedException {
+        KeycloakServerProperties properties = new KeycloakServerProperties();
+        properties.getWarmup().setTimeout(1);
+        List<WarmupStage> stages = properties.getWarmup().getStages();
+        stages.add(new WarmupStage("slow", WarmupStage.Type.GET, "/slow", 4, true));
+        stages.add(new WarmupStage("certs", WarmupStage.Type.GET, "/certs", 1, false));
+        WarmupService warmupService = createService(properties, "");
+
+        warmupService.start(server.getAddress().getPort());
+        assertEquals(WarmupService.State.RUNNING, warmupService.getState());
+        assertFalse(warmupService.isReady());
+
+        waitFor(() -> warmupService.getStageDurations().containsKey("slow"));
+        // all stuck requests together wait at most until the timeout, not each of them for the full timeout
+        assertTrue(warmupService.getStageDurations().get("slow") < 2500);
+        assertEquals(4, warmupService.getFailureCount());
+        assertEquals(WarmupService.State.TIMED_OUT, warmupService.getState());
+        assertTrue(warmupService.isReady());
+
+        // remaining stages are skipped
+        Thread.sleep(200);
+        assertEquals(0, getRequestCount("GET /certs"));
+        assertNull(warmupService.getStageDurations().get("certs"));
+    }
+}
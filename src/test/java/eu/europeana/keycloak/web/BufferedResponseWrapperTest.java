@@ -0,0 +1,84 @@
+package eu.europeana.keycloak.web;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests capturing and copying responses
+ */
+public class BufferedResponseWrapperTest {
+
+    private static final String BODY = "{\"keys\":[]}";
+
+    @Test
+    public void testCopyTo() throws IOException {
+        BufferedResponseWrapper wrapper = new BufferedResponseWrapper(new MockHttpServletResponse());
+        wrapper.setStatus(201);
+        wrapper.setHeader("Content-Type", "application/json");
+        wrapper.addHeader("X-Test", "1");
+        wrapper.addHeader("x-test", "2");
+        wrapper.getWriter().write(BODY);
+
+        MockHttpServletResponse target = new MockHttpServletResponse();
+        wrapper.copyTo(target);
+
+        assertEquals(201, target.getStatus());
+        assertEquals("application/json", target.getContentType());
+        assertEquals(2, target.getHeaders("x-test").size());
+        assertEquals(BODY.length(), target.getContentLength());
+        assertEquals(BODY, target.getContentAsString());
+    }
+
+    @Test
+    public void testWriteListener() throws IOException {
+        BufferedResponseWrapper wrapper = new BufferedResponseWrapper(new MockHttpServletResponse());
+        ServletOutputStream out = wrapper.getOutputStream();
+        Throwable[] error = new Throwable[1];
+
+        out.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() throws IOException {
+                assertTrue(out.isReady());
+                out.write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+            }
+        });
+
+        assertNull(error[0]);
+        assertEquals(BODY, new String(wrapper.getBody(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteListenerError() {
+        BufferedResponseWrapper wrapper = new BufferedResponseWrapper(new MockHttpServletResponse());
+        IOException exception = new IOException("test");
+        Throwable[] error = new Throwable[1];
+
+        wrapper.getOutputStream().setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() throws IOException {
+                throw exception;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+            }
+        });
+
+        assertEquals(exception, error[0]);
+    }
+}
@@ -0,0 +1,159 @@
+package eu.europeana.keycloak.web;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests caching of forwarded responses
+ */
+public class CachedForwardResponseTest {
+
+    private static final String BODY = "{\"keys\":[]}";
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    private void loadKeys(HttpServletResponse response) {
+        loadCount.incrementAndGet();
+        try {
+            response.setContentType("application/json");
+            response.setHeader("Cache-Control", "no-cache");
+            response.getOutputStream().write(BODY.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testServeFromCache() throws IOException {
+        CachedForwardResponse cache = new CachedForwardResponse("test", 60, 3600);
+
+        MockHttpServletResponse first = serve(cache, new MockHttpServletRequest());
+        MockHttpServletResponse second = serve(cache, new MockHttpServletRequest());
+
+        assertEquals(1, loadCount.get());
+        for (MockHttpServletResponse response : Arrays.asList(first, second)) {
+            assertEquals(200, response.getStatus());
+            assertEquals(BODY, response.getContentAsString());
+            assertEquals("application/json", response.getContentType());
+            assertEquals("public, max-age=60", response.getHeader("Cache-Control"));
+            assertEquals(cache.getETag(), response.getHeader("ETag"));
+        }
+    }
+
+    @Test
+    public void testNotModified() throws IOException {
+        CachedForwardResponse cache = new CachedForwardResponse("test", 60, 3600);
+        String etag = serve(cache, new MockHttpServletRequest()).getHeader("ETag");
+        assertNotNull(etag);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("If-None-Match", etag);
+        MockHttpServletResponse response = serve(cache, request);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void testRefreshAndInvalidate() throws IOException {
+        CachedForwardResponse cache = new CachedForwardResponse("test", 60, 0);
+        serve(cache, new MockHttpServletRequest());
+        serve(cache, new MockHttpServletRequest());
+        assertEquals(2, loadCount.get());
+
+        cache.invalidate();
+        assertNull(cache.getETag());
+    }
+
+    @Test
+    public void testColdStartLoadedOnce() throws InterruptedException {
+        CachedForwardResponse cache = new CachedForwardResponse("test", 60, 3600);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<MockHttpServletResponse> responses = new CopyOnWriteArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                executor.submit(() -> {
+                    MockHttpServletResponse response = new MockHttpServletResponse();
+                    cache.serve(new MockHttpServletRequest(), response, r -> {
+                        loading.countDown();
+                        await(release);
+                        loadKeys(r);
+                    });
+                    responses.add(response);
+                    return null;
+                });
+            }
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            // give the other requests time to arrive while the first one is loading
+            Thread.sleep(100);
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, loadCount.get());
+        assertEquals(4, responses.size());
+        for (MockHttpServletResponse response : responses) {
+            assertEquals(BODY, response.getContentAsString());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testErrorNotCached() throws IOException {
+        CachedForwardResponse cache = new CachedForwardResponse("test", 60, 3600);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.serve(new MockHttpServletRequest(), response, r -> r.setStatus(500));
+
+        assertEquals(500, response.getStatus());
+        assertNull(response.getHeader("ETag"));
+        assertNull(cache.getETag());
+    }
+
+    @Test
+    public void testIsNotModified() {
+        String etag = CachedForwardResponse.createETag(BODY.getBytes(StandardCharsets.UTF_8));
+        assertTrue(CachedForwardResponse.isNotModified(Collections.enumeration(Arrays.asList(etag)), etag));
+        assertTrue(CachedForwardResponse.isNotModified(Collections.enumeration(Arrays.asList("\"x\", W/" + etag)), etag));
+        assertTrue(CachedForwardResponse.isNotModified(Collections.enumeration(Arrays.asList("*")), etag));
+        assertFalse(CachedForwardResponse.isNotModified(Collections.enumeration(Arrays.asList("\"x\"")), etag));
+        assertFalse(CachedForwardResponse.isNotModified(Collections.emptyEnumeration(), etag));
+        assertFalse(CachedForwardResponse.isNotModified(null, etag));
+    }
+
+    private MockHttpServletResponse serve(CachedForwardResponse cache, MockHttpServletRequest request)
+            throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.serve(request, response, this::loadKeys);
+        return response;
+    }
+}
@@ -0,0 +1,297 @@
+package eu.europeana.keycloak.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reusing client_credentials tokens
+ */
+public class ClientTokenCacheTest {
+
+    private static final String TOKEN = "{\"access_token\":\"token1\",\"expires_in\":300,\"token_type\":\"bearer\"}";
+    private static final String JWT = "eyJhbGciOiJSUzI1NiJ9."
+            + Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    "{\"sub\":\"user1\",\"azp\":\"client1\"}".getBytes(StandardCharsets.UTF_8)) + ".signature";
+    private static final String SESSION_TOKEN = "{\"access_token\":\"" + JWT + "\",\"expires_in\":300,"
+            + "\"session_state\":\"session1\",\"token_type\":\"bearer\"}";
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    private CachedForwardResponse.ResponseLoader respondWith(int status, String json) {
+        return (HttpServletResponse response) -> {
+            loadCount.incrementAndGet();
+            try {
+                response.setStatus(status);
+                response.setContentType("application/json");
+                response.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static ClientTokenCache createCache(int maxSize) {
+        KeycloakServerProperties.TokenCache settings = new KeycloakServerProperties.TokenCache();
+        settings.getClients().add("client1");
+        settings.setMaxSize(maxSize);
+        return new ClientTokenCache(settings);
+    }
+
+    private static MockHttpServletRequest request(String client, String secret, String scope) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/oidc/token");
+        request.addParameter("grant_type", "client_credentials");
+        request.addParameter("client_id", client);
+        if (secret != null) {
+            request.addParameter("client_secret", secret);
+        }
+        if (scope != null) {
+            request.addParameter("scope", scope);
+        }
+        return request;
+    }
+
+    private MockHttpServletResponse token(ClientTokenCache cache, MockHttpServletRequest request, int status,
+                                          String json) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.serve(request, response, respondWith(status, json));
+        return response;
+    }
+
+    @Test
+    public void testTokenReused() throws IOException {
+        ClientTokenCache cache = createCache(10);
+
+        token(cache, request("client1", "secret", "profile email"), 200, TOKEN);
+        MockHttpServletResponse second = token(cache, request("client1", "secret", "email  profile"), 200, TOKEN);
+
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(200, second.getStatus());
+        assertEquals("no-store", second.getHeader("Cache-Control"));
+        JsonNode json = new ObjectMapper().readTree(second.getContentAsByteArray());
+        assertEquals("token1", json.get("access_token").asText());
+        assertTrue(json.get("expires_in").asLong() <= 300);
+    }
+
+    @Test
+    public void testDifferentSecretOrScope() throws IOException {
+        ClientTokenCache cache = createCache(10);
+
+        token(cache, request("client1", "secret", null), 200, TOKEN);
+        token(cache, request("client1", "other-secret", null), 200, TOKEN);
+        token(cache, request("client1", "secret", "email"), 200, TOKEN);
+
+        assertEquals(3, loadCount.get());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testErrorNotCached() throws IOException {
+        ClientTokenCache cache = createCache(10);
+        String error = "{\"error\":\"unauthorized_client\"}";
+
+        MockHttpServletResponse response = token(cache, request("client1", "secret", null), 400, error);
+        token(cache, request("client1", "secret", null), 400, error);
+
+        assertEquals(400, response.getStatus());
+        assertEquals(error, response.getContentAsString());
+        assertEquals(2, loadCount.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        ClientTokenCache cache = createCache(1);
+
+        token(cache, request("client1", "secret", null), 200, TOKEN);
+        token(cache, request("client1", "secret", "email"), 200, TOKEN);
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRolesChanged() throws IOException {
+        ClientTokenCache cache = createCache(10);
+        token(cache, request("client1", "secret", null), 200, TOKEN);
+
+        cache.rolesChanged();
+        token(cache, request("client1", "secret", null), 200, TOKEN);
+
+        assertEquals(2, loadCount.get());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testIsCacheable() {
+        ClientTokenCache cache = createCache(10);
+        MockHttpServletRequest password = request("client1", "secret", null);
+        password.setParameter("grant_type", "password");
+
+        assertTrue(cache.isCacheable(request("client1", "secret", null)));
+        assertFalse(cache.isCacheable(request("client2", "secret", null)));
+        assertFalse(cache.isCacheable(password));
+    }
+
+    @Test
+    public void testNotCacheableWithoutSecret() {
+        ClientTokenCache cache = createCache(10);
+        MockHttpServletRequest basic = request("client1", null, null);
+        basic.addHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                "client1:secret".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(cache.isCacheable(basic));
+
+        // a client that authenticates with a signed JWT caches nothing, so a bare client_id can't get its token
+        MockHttpServletRequest jwt = request("client1", null, null);
+        jwt.addParameter("client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer");
+        jwt.addParameter("client_assertion", "assertion1");
+        MockHttpServletRequest otherAssertion = request("client1", null, null);
+        otherAssertion.addParameter("client_assertion", "assertion2");
+        MockHttpServletRequest bare = request("client1", null, null);
+        MockHttpServletRequest secretAndAssertion = request("client1", "secret", null);
+        secretAndAssertion.addParameter("client_assertion", "assertion1");
+
+        assertFalse(cache.isCacheable(jwt));
+        assertFalse(cache.isCacheable(otherAssertion));
+        assertFalse(cache.isCacheable(bare));
+        assertFalse(cache.isCacheable(secretAndAssertion));
+    }
+
+    @Test
+    public void testNormalizeScope() {
+        assertEquals("", ClientTokenCache.normalizeScope(null));
+        assertEquals("email openid profile", ClientTokenCache.normalizeScope(" profile openid  email"));
+    }
+
+    @Test
+    public void testExpiresInLowered() throws IOException {
+        ClientTokenCache cache = createCache(10);
+        long now = System.currentTimeMillis();
+        cache.serve(request("client1", "secret", null), new MockHttpServletResponse(), respondWith(200, TOKEN), now);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.serve(request("client1", "secret", null), response, respondWith(200, TOKEN), now + 100_000);
+
+        assertEquals(1, loadCount.get());
+        JsonNode json = new ObjectMapper().readTree(response.getContentAsByteArray());
+        assertEquals(200, json.get("expires_in").asLong());
+
+        // after half of the lifetime a new token is requested
+        cache.serve(request("client1", "secret", null), new MockHttpServletResponse(), respondWith(200, TOKEN),
+                now + 150_000);
+        assertEquals(2, loadCount.get());
+    }
+
+    @Test
+    public void testSessionRemovedAndUserChanged() throws IOException {
+        ClientTokenCache cache = createCache(10);
+        token(cache, request("client1", "secret", null), 200, SESSION_TOKEN);
+        cache.userChanged("user2");
+        cache.sessionRemoved("session2");
+        assertEquals(1, cache.size());
+
+        cache.sessionRemoved("session1");
+        assertEquals(0, cache.size());
+
+        token(cache, request("client1", "secret", null), 200, SESSION_TOKEN);
+        cache.userChanged("user1");
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testNotCachedWhenInvalidatedDuringLoad() throws IOException {
+        ClientTokenCache cache = createCache(10);
+        // the roles of the client change while Keycloak is still issuing the token
+        CachedForwardResponse.ResponseLoader changeDuringLoad = (HttpServletResponse response) -> {
+            respondWith(200, SESSION_TOKEN).load(response);
+            cache.rolesChanged();
+        };
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        cache.serve(request("client1", "secret", null), response, changeDuringLoad);
+        assertEquals(SESSION_TOKEN, response.getContentAsString());
+        assertEquals(0, cache.size());
+
+        CachedForwardResponse.ResponseLoader logoutDuringLoad = (HttpServletResponse loadResponse) -> {
+            respondWith(200, SESSION_TOKEN).load(loadResponse);
+            cache.sessionRemoved("session1");
+        };
+        cache.serve(request("client1", "secret", null), new MockHttpServletResponse(), logoutDuringLoad);
+        assertEquals(0, cache.size());
+
+        token(cache, request("client1", "secret", null), 200, SESSION_TOKEN);
+        assertEquals(1, cache.size());
+        assertEquals(3, loadCount.get());
+    }
+
+    @Test
+    public void testGetSubject() {
+        assertEquals("user1", ClientTokenCache.getSubject(JWT));
+        assertNull(ClientTokenCache.getSubject("opaque"));
+        assertNull(ClientTokenCache.getSubject("a.!!!.c"));
+    }
+
+    @Test
+    public void testParallelMissesCoalesced() throws Exception {
+        ClientTokenCache cache = createCache(10);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CachedForwardResponse.ResponseLoader slowLoader = (HttpServletResponse response) -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respondWith(200, TOKEN).load(response);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            MockHttpServletResponse first = new MockHttpServletResponse();
+            MockHttpServletResponse second = new MockHttpServletResponse();
+            Future<?> firstDone = executor.submit(() -> {
+                cache.serve(request("client1", "secret", null), first, slowLoader);
+                return null;
+            });
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<?> secondDone = executor.submit(() -> {
+                cache.serve(request("client1", "secret", null), second, slowLoader);
+                return null;
+            });
+            // give the second request time to start waiting for the first
+            Thread.sleep(100);
+            release.countDown();
+            firstDone.get(5, TimeUnit.SECONDS);
+            secondDone.get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, loadCount.get());
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+            assertEquals("token1", new ObjectMapper().readTree(second.getContentAsByteArray())
+                    .get("access_token").asText());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
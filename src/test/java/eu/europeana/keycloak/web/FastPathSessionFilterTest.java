@@ -0,0 +1,64 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests serving requests without a Keycloak session
+ */
+public class FastPathSessionFilterTest {
+
+    private static final String JS_PATH = "/auth/js/keycloak.js";
+    private static final String JS = "var Keycloak = function (config) {};";
+
+    private static MockHttpServletRequest request(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setContextPath("/auth");
+        return request;
+    }
+
+    private static StaticResourceFilter createStaticResources() throws IOException, ServletException {
+        KeycloakServerProperties.StaticResources settings = new KeycloakServerProperties.StaticResources();
+        settings.getPaths().add("/auth/js/.*");
+        StaticResourceFilter staticResources = new StaticResourceFilter(settings, 3600);
+        // load the resource into memory
+        staticResources.doFilter(request(JS_PATH), new MockHttpServletResponse(), (request, response) -> {
+            response.setContentType("application/javascript");
+            response.getOutputStream().write(JS.getBytes(StandardCharsets.UTF_8));
+        });
+        return staticResources;
+    }
+
+    @Test
+    public void testServeWithoutSession() throws IOException, ServletException {
+        FastPathSessionFilter filter = new FastPathSessionFilter(Collections.singletonList("/auth/js/.*"),
+                createStaticResources());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request(JS_PATH), response, (req, resp) -> fail("Request should not reach Keycloak"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(JS, response.getContentAsString());
+        assertEquals(1, filter.getFastPathCount());
+    }
+
+    @Test
+    public void testIsBypassed() {
+        FastPathSessionFilter filter = new FastPathSessionFilter(Collections.singletonList("/auth/js/.*"), null);
+
+        assertTrue(filter.isBypassed(request(JS_PATH)));
+        assertFalse(filter.isBypassed(request("/auth/realms/europeana/protocol/openid-connect/token")));
+    }
+}
@@ -0,0 +1,120 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.password.PasswordHashingExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that requests that need password hashing are shed with 503 and Retry-After when the hashing pool is full
+ */
+public class PasswordHashingLoadFilterTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+    private PasswordHashingExecutor executor;
+    private PasswordHashingLoadFilter filter;
+
+    @Before
+    public void setup() {
+        executor = new PasswordHashingExecutor(1, 1, 10_000, 10_000);
+        filter = new PasswordHashingLoadFilter("/auth", () -> executor);
+    }
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        callers.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Occupy the single hashing thread and the single queue slot
+     */
+    private void saturate() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            callers.submit(() -> executor.execute(() -> release.await(10, TimeUnit.SECONDS)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!executor.isSaturated() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(executor.isSaturated());
+    }
+
+    private static MockHttpServletRequest post(String path) {
+        return new MockHttpServletRequest("POST", path);
+    }
+
+    private MockFilterChain filter(MockHttpServletRequest request, MockHttpServletResponse response)
+            throws ServletException, IOException {
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        return chain;
+    }
+
+    @Test
+    public void testShedWhenSaturated() throws Exception {
+        saturate();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = filter(post("/auth/realms/europeana/login-actions/authenticate"), response);
+
+        assertNull(chain.getRequest());
+        assertEquals(503, response.getStatus());
+        assertEquals(PasswordHashingLoadFilter.RETRY_AFTER_SECONDS, response.getHeader("Retry-After"));
+        assertEquals(1, filter.getShedCount());
+    }
+
+    @Test
+    public void testPasswordGrantShedWhenSaturated() throws Exception {
+        saturate();
+        MockHttpServletRequest password = post("/auth/realms/europeana/protocol/openid-connect/token");
+        password.addParameter("grant_type", "password");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter(password, response);
+        assertEquals(503, response.getStatus());
+        assertEquals(PasswordHashingLoadFilter.RETRY_AFTER_SECONDS, response.getHeader("Retry-After"));
+
+        // other grants and requests don't need hashing
+        MockHttpServletRequest clientCredentials = post("/auth/realms/europeana/protocol/openid-connect/token");
+        clientCredentials.addParameter("grant_type", "client_credentials");
+        response = new MockHttpServletResponse();
+        assertNotNull(filter(clientCredentials, response).getRequest());
+        assertEquals(200, response.getStatus());
+        assertNotNull(filter(new MockHttpServletRequest("GET",
+                "/auth/realms/europeana/login-actions/authenticate"), new MockHttpServletResponse()).getRequest());
+    }
+
+    @Test
+    public void testPassWhenNotSaturated() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = filter(post("/auth/realms/europeana/login-actions/authenticate"), response);
+
+        assertNotNull(chain.getRequest());
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader("Retry-After"));
+    }
+
+    @Test
+    public void testNeedsHashing() {
+        assertTrue(filter.needsHashing(post("/auth/realms/europeana/login-actions/registration")));
+        assertFalse(filter.needsHashing(post("/auth/realms/europeana/login-actions/first-broker-login")));
+        assertFalse(filter.needsHashing(post("/auth/admin/realms/europeana/users")));
+    }
+}
@@ -0,0 +1,146 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the per client rate limiter
+ */
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final String IP1 = "10.0.0.1";
+    private static final String IP2 = "10.0.0.2";
+
+    private static KeycloakServerProperties.RateLimit settings() {
+        KeycloakServerProperties.RateLimit settings = new KeycloakServerProperties.RateLimit();
+        settings.setDefaultLimit(new KeycloakServerProperties.Limit(1, 2));
+        settings.getRoutes().put("introspect", new KeycloakServerProperties.Limit(10, 10));
+        settings.getClients().put("vip", new KeycloakServerProperties.Limit(100, 100));
+        return settings;
+    }
+
+    @Test
+    public void testBurstAndRefill() {
+        RateLimiter limiter = new RateLimiter(settings());
+        long now = 0;
+        assertEquals(0, limiter.acquire("token", "client1", IP1, now));
+        assertEquals(0, limiter.acquire("token", "client1", IP1, now));
+        assertEquals(1, limiter.acquire("token", "client1", IP1, now));
+        // other clients have their own bucket
+        assertEquals(0, limiter.acquire("token", "client2", IP1, now));
+
+        // after 1 second there's room for 1 new request
+        assertEquals(0, limiter.acquire("token", "client1", IP1, now + SECOND));
+        assertTrue(limiter.acquire("token", "client1", IP1, now + SECOND) > 0);
+
+        assertEquals(2, limiter.getThrottledCount());
+    }
+
+    @Test
+    public void testRouteAndClientLimits() {
+        RateLimiter limiter = new RateLimiter(settings());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire("introspect", "client1", IP1, 0));
+        }
+        assertEquals(1, limiter.acquire("introspect", "client1", IP1, 0));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.acquire("token", "vip", IP1, 0));
+        }
+        assertEquals(1, limiter.acquire("token", "vip", IP1, 0));
+    }
+
+    @Test
+    public void testClientLimitOnAllAddresses() {
+        RateLimiter limiter = new RateLimiter(settings());
+        // sending from more hosts doesn't increase a client's limit
+        assertEquals(0, limiter.acquire("token", "client1", IP1, 0));
+        assertEquals(0, limiter.acquire("token", "client1", IP2, 0));
+        assertEquals(1, limiter.acquire("token", "client1", "10.0.0.3", 0));
+        assertEquals(1, limiter.getBucketCount("token"));
+    }
+
+    @Test
+    public void testRequestsWithoutClientIdPerAddress() {
+        RateLimiter limiter = new RateLimiter(settings());
+        MockHttpServletRequest first = new MockHttpServletRequest("POST", "/oidc/token");
+        first.setRemoteAddr(IP1);
+        MockHttpServletRequest second = new MockHttpServletRequest("POST", "/oidc/token");
+        second.setRemoteAddr(IP2);
+
+        assertEquals(0, limiter.acquire("token", first));
+        assertEquals(0, limiter.acquire("token", first));
+        assertTrue(limiter.acquire("token", first) > 0);
+        assertEquals(0, limiter.acquire("token", second));
+    }
+
+    @Test
+    public void testThrottledCountPerConfiguredClient() {
+        RateLimiter limiter = new RateLimiter(settings());
+        for (int i = 0; i < 101; i++) {
+            limiter.acquire("token", "vip", IP1, 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("token", "random-" + i, IP1, 0);
+            limiter.acquire("token", "random-" + i, IP1, 0);
+            limiter.acquire("token", "random-" + i, IP1, 0);
+        }
+
+        Map<String, Long> throttled = limiter.getThrottledCountPerClient();
+        assertEquals(2, throttled.size());
+        assertEquals(Long.valueOf(1), throttled.get("vip"));
+        assertEquals(Long.valueOf(3), throttled.get("(other)"));
+    }
+
+    @Test
+    public void testIdleBucketsRemoved() {
+        KeycloakServerProperties.RateLimit settings = settings();
+        settings.setMaxTrackedClients(2);
+        RateLimiter limiter = new RateLimiter(settings);
+        limiter.acquire("token", "client1", IP1, 0);
+        limiter.acquire("token", "client2", IP1, 0);
+
+        // both buckets have refilled after 2 seconds, so they make room for new clients
+        assertEquals(0, limiter.acquire("token", "client3", IP1, 2 * SECOND));
+        assertEquals(0, limiter.acquire("token", "client3", IP1, 2 * SECOND));
+        assertEquals(1, limiter.acquire("token", "client3", IP1, 2 * SECOND));
+        assertEquals(1, limiter.getBucketCount("token"));
+    }
+
+    @Test
+    public void testMaxTrackedClients() {
+        KeycloakServerProperties.RateLimit settings = settings();
+        settings.setMaxTrackedClients(1);
+        RateLimiter limiter = new RateLimiter(settings);
+        assertEquals(0, limiter.acquire("token", "client1", IP1, 0));
+        // when there are too many active clients, new clients share a bucket per address only
+        assertEquals(0, limiter.acquire("token", "client2", IP2, 0));
+        assertEquals(0, limiter.acquire("token", "client3", IP2, 0));
+        assertEquals(1, limiter.acquire("token", "client4", IP2, 0));
+        // so clients from other addresses are not affected
+        assertEquals(0, limiter.acquire("token", "client5", IP1, 0));
+    }
+
+    @Test
+    public void testGetClientId() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("127.0.0.1");
+        assertEquals("ip:127.0.0.1", RateLimiter.getClientId(request));
+
+        request.addHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(
+                "my%20client:secret".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("my client", RateLimiter.getClientId(request));
+
+        request.addParameter("client_id", "client1");
+        assertEquals("client1", RateLimiter.getClientId(request));
+    }
+}
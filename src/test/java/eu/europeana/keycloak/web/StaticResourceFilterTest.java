@@ -0,0 +1,225 @@
+package eu.europeana.keycloak.web;
+
+import eu.europeana.keycloak.KeycloakServerProperties;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests serving theme resources from memory
+ */
+public class StaticResourceFilterTest {
+
+    private static final String CSS_PATH = "/auth/resources/4.8.3.final/login/europeana/css/login.css";
+    private static final String CSS = repeat("body { margin: 0; padding: 0; } ", 100);
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+    private int status = HttpServletResponse.SC_OK;
+
+    private final FilterChain keycloak = (request, response) -> {
+        loadCount.incrementAndGet();
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        httpResponse.setStatus(status);
+        httpResponse.setContentType("text/css");
+        httpResponse.setHeader("Cache-Control", "no-cache");
+        response.getOutputStream().write(CSS.getBytes(StandardCharsets.UTF_8));
+    };
+
+    private static String repeat(String value, int times) {
+        return String.join("", Collections.nCopies(times, value));
+    }
+
+    private static StaticResourceFilter createFilter(long maxSize) {
+        KeycloakServerProperties.StaticResources settings = new KeycloakServerProperties.StaticResources();
+        settings.setMaxSize(maxSize);
+        settings.getPaths().add("/auth/resources/.*");
+        return new StaticResourceFilter(settings, 3600);
+    }
+
+    private MockHttpServletResponse get(StaticResourceFilter filter, String acceptEncoding, String ifNoneMatch)
+            throws IOException, ServletException {
+        return get(filter, CSS_PATH, null, acceptEncoding, ifNoneMatch);
+    }
+
+    private MockHttpServletResponse get(StaticResourceFilter filter, String path, String query, String acceptEncoding,
+                                        String ifNoneMatch) throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setContextPath("/auth");
+        request.setQueryString(query);
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, keycloak);
+        return response;
+    }
+
+    @Test
+    public void testServeFromMemory() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+
+        MockHttpServletResponse first = get(filter, null, null);
+        MockHttpServletResponse second = get(filter, null, null);
+
+        assertEquals(1, loadCount.get());
+        assertEquals(1, filter.getHitCount());
+        assertEquals(1, filter.getResourceCount());
+        assertEquals(first.getHeader("ETag"), second.getHeader("ETag"));
+        assertEquals(CSS, second.getContentAsString());
+        assertEquals("text/css", second.getContentType());
+        assertEquals("public, max-age=3600", second.getHeader("Cache-Control"));
+        assertNull(second.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testGzip() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+        MockHttpServletResponse plain = get(filter, null, null);
+
+        MockHttpServletResponse gzipped = get(filter, "deflate, gzip;q=0.8", null);
+
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzipped.getHeader("Vary"));
+        assertTrue(gzipped.getContentAsByteArray().length < CSS.length());
+        assertEquals(CSS, gunzip(gzipped.getContentAsByteArray()));
+        assertNotEquals(plain.getHeader("ETag"), gzipped.getHeader("ETag"));
+    }
+
+    @Test
+    public void testGzipRefused() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+
+        MockHttpServletResponse response = get(filter, "gzip;q=0, identity", null);
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(CSS, response.getContentAsString());
+    }
+
+    @Test
+    public void testNotModified() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+        String etag = get(filter, "gzip", null).getHeader("ETag");
+
+        MockHttpServletResponse response = get(filter, "gzip", etag);
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void testErrorNotKept() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+        status = HttpServletResponse.SC_NOT_FOUND;
+
+        MockHttpServletResponse response = get(filter, null, null);
+        get(filter, null, null);
+
+        assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+        assertEquals(2, loadCount.get());
+        assertEquals(0, filter.getResourceCount());
+    }
+
+    @Test
+    public void testMaxSize() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(100);
+
+        MockHttpServletResponse response = get(filter, null, null);
+        get(filter, null, null);
+
+        assertEquals(CSS, response.getContentAsString());
+        assertEquals(2, loadCount.get());
+        assertEquals(0, filter.getResourceCount());
+        assertEquals(0, filter.getSize());
+    }
+
+    @Test
+    public void testQueryIgnored() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+
+        get(filter, CSS_PATH, "v=1", null, null);
+        MockHttpServletResponse response = get(filter, CSS_PATH, "v=2", null, null);
+
+        assertEquals(CSS, response.getContentAsString());
+        assertEquals(1, loadCount.get());
+        assertEquals(1, filter.getResourceCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException, ServletException {
+        String path1 = "/auth/resources/1.css";
+        String path2 = "/auth/resources/2.css";
+        String path3 = "/auth/resources/3.css";
+        // room for 2 resources (each kept uncompressed and gzipped)
+        StaticResourceFilter filter = createFilter(2 * (CSS.length() + 200));
+        get(filter, path1, null, null, null);
+        get(filter, path2, null, null, null);
+        // use the first resource again, so the second one is the least recently used
+        get(filter, path1, null, null, null);
+
+        get(filter, path3, null, null, null);
+
+        assertEquals(3, loadCount.get());
+        assertEquals(2, filter.getResourceCount());
+        assertEquals(1, filter.getEvictionCount());
+        get(filter, path1, null, null, null);
+        assertEquals(3, loadCount.get());
+        get(filter, path2, null, null, null);
+        assertEquals(4, loadCount.get());
+    }
+
+    @Test
+    public void testOtherPathsIgnored() throws IOException, ServletException {
+        StaticResourceFilter filter = createFilter(1024 * 1024);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/auth/realms/europeana/account");
+        request.setContextPath("/auth");
+
+        filter.doFilter(request, new MockHttpServletResponse(), keycloak);
+        filter.doFilter(request, new MockHttpServletResponse(), keycloak);
+
+        assertEquals(2, loadCount.get());
+        assertEquals(0, filter.getResourceCount());
+        assertFalse(filter.serveFromMemory(request, new MockHttpServletResponse()));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(StaticResourceFilter.acceptsGzip(Collections.enumeration(Collections.singletonList("gzip"))));
+        assertTrue(StaticResourceFilter.acceptsGzip(Collections.enumeration(Collections.singletonList("br, *"))));
+        assertFalse(StaticResourceFilter.acceptsGzip(Collections.enumeration(Collections.singletonList("br"))));
+        assertFalse(StaticResourceFilter.acceptsGzip(Collections.enumeration(Collections.singletonList("gzip; q=0.0"))));
+        assertFalse(StaticResourceFilter.acceptsGzip(null));
+    }
+
+    private static String gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+}